@@ -0,0 +1,97 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Convolutions of a gray image, boxed (Integer[][]) and planar, plain, strided and padded,
+ * and in single precision from a FloatImage and from a ByteImage.
+ *
+ * kernel is "box" (separable, takes the row and column passes), "random" (not separable,
+ * takes the direct loop or FFT) or a filter of the registry like "sobel v".
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/12/19
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ConvolutionBenchmark {
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"3", "5", "9"})
+    public int kernelSize;
+
+    @Param({"random", "box"})
+    public String kernel;
+
+    @Param({"1", "2"})
+    public int stride;
+
+    private Integer[][] matrix;
+    private Object planar, floats, bytes;
+    private Double[][] filter;
+    private Object zero, reflect;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        matrix = Images.gray(size);
+        planar = Library.fromMatrix(new Integer[][][]{matrix});
+        floats = Library.toFloatImage(planar);
+        bytes = Library.toByteImage(planar);
+        if (kernel.equals("box")) filter = Images.box(kernelSize);
+        else if (kernel.equals("random")) filter = Images.random(kernelSize);
+        else filter = Library.getFiler(kernel);
+        if (filter == null) throw new IllegalArgumentException("No filter named " + kernel);
+        zero = Library.borderMode("ZERO");
+        reflect = Library.borderMode("REFLECT");
+    }
+
+    @Benchmark
+    public Integer[][] boxed() {
+        return stride == 1 ? Library.operationConvolution(matrix, filter) : Library.operationConvolution(matrix, filter, stride);
+    }
+
+    @Benchmark
+    public Object planar() {
+        return Library.operationConvolution(planar, filter, stride, 0, zero);
+    }
+
+    @Benchmark
+    public Object planarPadded() {
+        return Library.operationConvolution(planar, filter, stride, filter.length / 2, zero);
+    }
+
+    @Benchmark
+    public Object planarReflected() {
+        return Library.operationConvolution(planar, filter, stride, filter.length / 2, reflect);
+    }
+
+    @Benchmark
+    public Object floatPlanar() {
+        return Library.floatConvolution(floats, filter, stride, 0, zero);
+    }
+
+    @Benchmark
+    public Object bytePlanar() {
+        return Library.floatConvolution(bytes, filter, stride, 0, zero);
+    }
+}
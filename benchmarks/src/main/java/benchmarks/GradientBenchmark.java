@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sobel gradient magnitude of an RGB image, as two padded convolutions and a loop combining
+ * them, and as a single pass of a filter bank.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/18/19
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class GradientBenchmark {
+
+    @Param({"256", "1024"})
+    public int size;
+
+    private Object planar, zero;
+    private Double[][] sobelV, sobelH;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        planar = Library.getPlanarImageFromImage(Images.rgb(size));
+        zero = Library.borderMode("ZERO");
+        sobelV = Library.getFiler("sobel v");
+        sobelH = Library.getFiler("sobel h");
+    }
+
+    @Benchmark
+    public Object separate() {
+        Object gx = Library.preformRGBConvolutionPadded(planar, sobelV, zero);
+        Object gy = Library.preformRGBConvolutionPadded(planar, sobelH, zero);
+        int[] x = Library.getPlane(gx, 0);
+        int[] y = Library.getPlane(gy, 0);
+        for (int i = 0; i < x.length; i++) {
+            x[i] = (int) Math.sqrt((double) x[i] * x[i] + (double) y[i] * y[i]);
+        }
+        return gx;
+    }
+
+    @Benchmark
+    public Object filterBank() {
+        return Library.preformRGBGradientMagnitude(planar);
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting images to matrices and writing matrices as .png files, as RGB and as gray,
+ * at a fast and the default compression level (level only matters to the writers).
+ * Writing goes to a temporary file, so it includes the disk.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/12/19
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ImageIOBenchmark {
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private BufferedImage image;
+    private Integer[][] matrix;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        image = Images.rgb(size);
+        matrix = Images.gray(size);
+        output = File.createTempFile("benchmark", ".png");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    public Integer[][][] getRGBMatrixFromImage() {
+        return Library.getRGBMatrixFromImage(image);
+    }
+
+    @Benchmark
+    public Object getPlanarImageFromImage() {
+        return Library.getPlanarImageFromImage(image);
+    }
+
+    @Benchmark
+    public File writeFileFromRGBMatrix() {
+        return Library.writeFileFromRGBMatrix(output.getPath(), matrix, false, level);
+    }
+
+    @Benchmark
+    public File writeFileFromRGBMatrixGray() {
+        return Library.writeFileFromRGBMatrix(output.getPath(), matrix, true, level);
+    }
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Synthetic images for the benchmarks, the same for every run with the same size.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/12/19
+ **/
+final class Images {
+
+    private Images() {
+    }
+
+    /**
+     * @return size x size matrix of gray values 0 -> 255.
+     */
+    static Integer[][] gray(int size) {
+        Random random = new Random(size);
+        Integer[][] m = new Integer[size][size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                m[y][x] = random.nextInt(256);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return size x size matrix of gray values 0 -> 255 as doubles.
+     */
+    static Double[][] grayDoubles(int size) {
+        Integer[][] m = gray(size);
+        Double[][] d = new Double[size][size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                d[y][x] = (double) m[y][x];
+            }
+        }
+        return d;
+    }
+
+    /**
+     * @return size x size TYPE_INT_RGB image of smooth gradients plus noise, so it
+     *         compresses about like a photo instead of like noise or a flat color.
+     */
+    static BufferedImage rgb(int size) {
+        Random random = new Random(size);
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int r = (x * 255 / size + random.nextInt(16)) & 0xFF;
+                int g = (y * 255 / size + random.nextInt(16)) & 0xFF;
+                int b = ((x + y) * 127 / size + random.nextInt(16)) & 0xFF;
+                img.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * @return size x size filter of ones, which is separable.
+     */
+    static Double[][] box(int size) {
+        Double[][] f = new Double[size][size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                f[y][x] = 1.0;
+            }
+        }
+        return f;
+    }
+
+    /**
+     * @return size x size filter of random whole numbers, which is not separable.
+     */
+    static Double[][] random(int size) {
+        Random random = new Random(31L * size);
+        Double[][] f = new Double[size][size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                f[y][x] = (double) (random.nextInt(7) - 3);
+            }
+        }
+        return f;
+    }
+}
@@ -0,0 +1,306 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Calls into the library from the benchmarks.
+ *
+ * The library lives in the default package, which a named package can't import, and
+ * JMH only accepts benchmarks in a named package. So every method benchmarked is looked
+ * up once as a static final MethodHandle, which the JIT inlines like a direct call.
+ * Library types (PlanarImage, FloatImage, BorderMode...) are passed around as Object.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/12/19
+ **/
+final class Library {
+
+    static final Class<?> PLANAR_IMAGE = type("PlanarImage");
+    static final Class<?> BORDER_MODE = type("BorderMode");
+    static final Class<?> FLOAT_IMAGE = type("FloatImage");
+    static final Class<?> BYTE_IMAGE = type("ByteImage");
+    static final Class<?> FLOAT_SOURCE = type("FloatSource");
+
+    private static final MethodHandle CONVOLUTION = find("ImageUtils", "operationConvolution",
+            Integer[][].class, Integer[][].class, Double[][].class);
+    private static final MethodHandle CONVOLUTION_STRIDED = find("ImageUtils", "operationConvolution",
+            Integer[][].class, Integer[][].class, Double[][].class, int.class);
+    private static final MethodHandle PLANAR_CONVOLUTION = find("ImageUtils", "operationConvolution",
+            PLANAR_IMAGE, PLANAR_IMAGE, Double[][].class, int.class, int.class, BORDER_MODE);
+    private static final MethodHandle FLOAT_CONVOLUTION = find("ImageUtils", "operationConvolution",
+            FLOAT_IMAGE, FLOAT_SOURCE, Double[][].class, int.class, int.class, BORDER_MODE);
+    private static final MethodHandle MAX_POOLING = find("ImageUtils", "operationMaxPooling",
+            Integer[][].class, Integer[][].class, int.class, int.class, int.class);
+    private static final MethodHandle AVG_POOLING = find("ImageUtils", "operationAvgPooling",
+            Double[][].class, Double[][].class, int.class, int.class, int.class);
+    private static final MethodHandle PLANAR_MAX_POOLING = find("ImageUtils", "operationMaxPooling",
+            PLANAR_IMAGE, PLANAR_IMAGE, int.class, int.class, int.class);
+    private static final MethodHandle PLANAR_AVG_POOLING = find("ImageUtils", "operationAvgPooling",
+            PLANAR_IMAGE, PLANAR_IMAGE, int.class, int.class, int.class);
+    private static final MethodHandle FLOAT_MAX_POOLING = find("ImageUtils", "operationMaxPooling",
+            FLOAT_IMAGE, FLOAT_SOURCE, int.class, int.class, int.class);
+    private static final MethodHandle FLOAT_AVG_POOLING = find("ImageUtils", "operationAvgPooling",
+            FLOAT_IMAGE, FLOAT_SOURCE, int.class, int.class, int.class);
+    private static final MethodHandle RGB_MATRIX = find("ImageUtils", "getRGBMatrixFromImage",
+            Integer[][][].class, BufferedImage.class);
+    private static final MethodHandle PLANAR_FROM_IMAGE = find("ImageUtils", "getPlanarImageFromImage",
+            PLANAR_IMAGE, BufferedImage.class);
+    private static final MethodHandle WRITE_RGB_MATRIX = find("ImageUtils", "writeFileFromRGBMatrix",
+            File.class, String.class, Integer[][].class);
+    private static final MethodHandle WRITE_RGB_MATRIX_LEVEL = find("ImageUtils", "writeFileFromRGBMatrix",
+            File.class, String.class, Integer[][].class, boolean.class, int.class);
+    private static final MethodHandle FROM_MATRIX = find("PlanarImage", "fromMatrix",
+            PLANAR_IMAGE, Integer[][][].class);
+    private static final MethodHandle TO_FLOAT_IMAGE = find("FloatImage", "fromPlanarImage",
+            FLOAT_IMAGE, PLANAR_IMAGE);
+    private static final MethodHandle TO_BYTE_IMAGE = find("ByteImage", "fromPlanarImage",
+            BYTE_IMAGE, PLANAR_IMAGE);
+    private static final MethodHandle GET_FILTER = find("ImageUtils", "getFiler",
+            Double[][].class, String.class);
+    private static final MethodHandle RGB_CONVOLUTION_PADDED = find("ImageUtils", "preformRGBConvolutionPadded",
+            PLANAR_IMAGE, PLANAR_IMAGE, Double[][].class, BORDER_MODE);
+    private static final MethodHandle GRADIENT_MAGNITUDE = find("ImageUtils", "preformRGBGradientMagnitude",
+            PLANAR_IMAGE, PLANAR_IMAGE);
+    private static final MethodHandle GET_PLANE = findVirtual("PlanarImage", "getPlane", int[].class, int.class);
+
+    private Library() {
+    }
+
+    static Integer[][] operationConvolution(Integer[][] img, Double[][] filter) {
+        try {
+            return (Integer[][]) CONVOLUTION.invokeExact(img, filter);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Integer[][] operationConvolution(Integer[][] img, Double[][] filter, int s) {
+        try {
+            return (Integer[][]) CONVOLUTION_STRIDED.invokeExact(img, filter, s);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object operationConvolution(Object img, Double[][] filter, int s, int p, Object mode) {
+        try {
+            return (Object) PLANAR_CONVOLUTION.invokeExact(img, filter, s, p, mode);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object floatConvolution(Object img, Double[][] filter, int s, int p, Object mode) {
+        try {
+            return (Object) FLOAT_CONVOLUTION.invokeExact(img, filter, s, p, mode);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Integer[][] operationMaxPooling(Integer[][] matrix, int w, int h, int s) {
+        try {
+            return (Integer[][]) MAX_POOLING.invokeExact(matrix, w, h, s);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Double[][] operationAvgPooling(Double[][] matrix, int w, int h, int s) {
+        try {
+            return (Double[][]) AVG_POOLING.invokeExact(matrix, w, h, s);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object operationMaxPooling(Object img, int w, int h, int s) {
+        try {
+            return (Object) PLANAR_MAX_POOLING.invokeExact(img, w, h, s);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object operationAvgPooling(Object img, int w, int h, int s) {
+        try {
+            return (Object) PLANAR_AVG_POOLING.invokeExact(img, w, h, s);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object floatMaxPooling(Object img, int w, int h, int s) {
+        try {
+            return (Object) FLOAT_MAX_POOLING.invokeExact(img, w, h, s);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object floatAvgPooling(Object img, int w, int h, int s) {
+        try {
+            return (Object) FLOAT_AVG_POOLING.invokeExact(img, w, h, s);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Integer[][][] getRGBMatrixFromImage(BufferedImage img) {
+        try {
+            return (Integer[][][]) RGB_MATRIX.invokeExact(img);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object getPlanarImageFromImage(BufferedImage img) {
+        try {
+            return (Object) PLANAR_FROM_IMAGE.invokeExact(img);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static File writeFileFromRGBMatrix(String fileName, Integer[][] img) {
+        try {
+            return (File) WRITE_RGB_MATRIX.invokeExact(fileName, img);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static File writeFileFromRGBMatrix(String fileName, Integer[][] img, boolean gray, int level) {
+        try {
+            return (File) WRITE_RGB_MATRIX_LEVEL.invokeExact(fileName, img, gray, level);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object fromMatrix(Integer[][][] matrix) {
+        try {
+            return (Object) FROM_MATRIX.invokeExact(matrix);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object toFloatImage(Object planar) {
+        try {
+            return (Object) TO_FLOAT_IMAGE.invokeExact(planar);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object toByteImage(Object planar) {
+        try {
+            return (Object) TO_BYTE_IMAGE.invokeExact(planar);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object preformRGBConvolutionPadded(Object img, Double[][] filter, Object mode) {
+        try {
+            return (Object) RGB_CONVOLUTION_PADDED.invokeExact(img, filter, mode);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object preformRGBGradientMagnitude(Object img) {
+        try {
+            return (Object) GRADIENT_MAGNITUDE.invokeExact(img);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int[] getPlane(Object planar, int c) {
+        try {
+            return (int[]) GET_PLANE.invokeExact(planar, c);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Double[][] getFiler(String name) {
+        try {
+            return (Double[][]) GET_FILTER.invokeExact(name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @param name of a BorderMode constant.
+     * @return the constant.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object borderMode(String name) {
+        return Enum.valueOf((Class) BORDER_MODE, name);
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("The library is not on the class path", e);
+        }
+    }
+
+    /**
+     * Finds a public static method, with every library type in its signature erased to Object.
+     */
+    private static MethodHandle find(String owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle mh = MethodHandles.publicLookup().findStatic(type(owner), name, MethodType.methodType(returnType, parameterTypes));
+            MethodType erased = mh.type();
+            for (int i = 0; i < erased.parameterCount(); i++) {
+                if (isLibraryType(erased.parameterType(i))) erased = erased.changeParameterType(i, Object.class);
+            }
+            if (isLibraryType(erased.returnType())) erased = erased.changeReturnType(Object.class);
+            return mh.asType(erased);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't find " + owner + "." + name, e);
+        }
+    }
+
+    /**
+     * Finds a public instance method, with every library type in its signature (the receiver too)
+     * erased to Object.
+     */
+    private static MethodHandle findVirtual(String owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle mh = MethodHandles.publicLookup().findVirtual(type(owner), name, MethodType.methodType(returnType, parameterTypes));
+            MethodType erased = mh.type();
+            for (int i = 0; i < erased.parameterCount(); i++) {
+                if (isLibraryType(erased.parameterType(i))) erased = erased.changeParameterType(i, Object.class);
+            }
+            if (isLibraryType(erased.returnType())) erased = erased.changeReturnType(Object.class);
+            return mh.asType(erased);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't find " + owner + "." + name, e);
+        }
+    }
+
+    /**
+     * @return true for the classes of the library, which all live in the default package.
+     */
+    private static boolean isLibraryType(Class<?> c) {
+        return !c.isPrimitive() && !c.isArray() && c.getPackageName().isEmpty();
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+}
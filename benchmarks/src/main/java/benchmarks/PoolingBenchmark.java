@@ -0,0 +1,83 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Max and average pooling of a gray image, boxed, planar and in single precision from a ByteImage.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/12/19
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PoolingBenchmark {
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"2", "5", "15"})
+    public int window;
+
+    @Param({"1", "2"})
+    public int stride;
+
+    private Integer[][] matrix;
+    private Double[][] doubles;
+    private Object planar, bytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        matrix = Images.gray(size);
+        doubles = Images.grayDoubles(size);
+        planar = Library.fromMatrix(new Integer[][][]{matrix});
+        bytes = Library.toByteImage(planar);
+    }
+
+    @Benchmark
+    public Integer[][] maxBoxed() {
+        return Library.operationMaxPooling(matrix, window, window, stride);
+    }
+
+    @Benchmark
+    public Double[][] avgBoxed() {
+        return Library.operationAvgPooling(doubles, window, window, stride);
+    }
+
+    @Benchmark
+    public Object maxPlanar() {
+        return Library.operationMaxPooling(planar, window, window, stride);
+    }
+
+    @Benchmark
+    public Object avgPlanar() {
+        return Library.operationAvgPooling(planar, window, window, stride);
+    }
+
+    @Benchmark
+    public Object maxBytes() {
+        return Library.floatMaxPooling(bytes, window, window, stride);
+    }
+
+    @Benchmark
+    public Object avgBytes() {
+        return Library.floatAvgPooling(bytes, window, window, stride);
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Filters many image files at once: decode, filter and encode run as three stages,
+ * each with its own threads, connected by bounded queues.
+ * While one image is being filtered the next ones are already being decoded and the
+ * previous ones written, so disk and CPU work overlap. A full queue blocks the stage
+ * in front of it, so at most about decode threads + queue capacity * 2 + filter threads
+ * + encode threads images are in memory, however many files there are.
+ *
+ * A file that can't be read, filtered or written is reported as failed and the
+ * rest of the batch goes on.
+ *
+ * Filter threads run their convolutions on ConvolutionEngine, which splits a single
+ * convolution over its own pool as well; with many filter threads
+ * ConvolutionEngine.setParallelism(1) keeps every convolution on its own thread.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/8/19
+ **/
+public class BatchProcessor {
+
+    private final FilterChain chain;
+    private int decodeThreads = 2;
+    private int filterThreads = Runtime.getRuntime().availableProcessors();
+    private int encodeThreads = 2;
+    private int queueCapacity = 4;
+    private long maxPixels = Long.MAX_VALUE;
+    private Consumer<BatchResult> listener;
+    private ResultCache resultCache;
+
+    /**
+     * @param chain operations to run on every image.
+     */
+    public BatchProcessor(FilterChain chain) {
+        this.chain = chain;
+    }
+
+    /**
+     * @param n amount of threads decoding files, 2 by default.
+     * @return this processor.
+     */
+    public BatchProcessor setDecodeThreads(int n) {
+        decodeThreads = Math.max(1, n);
+        return this;
+    }
+
+    /**
+     * @param n amount of threads running the filter chain, one per core by default.
+     * @return this processor.
+     */
+    public BatchProcessor setFilterThreads(int n) {
+        filterThreads = Math.max(1, n);
+        return this;
+    }
+
+    /**
+     * @param n amount of threads writing files, 2 by default.
+     * @return this processor.
+     */
+    public BatchProcessor setEncodeThreads(int n) {
+        encodeThreads = Math.max(1, n);
+        return this;
+    }
+
+    /**
+     * @param n amount of images each queue between two stages holds, 4 by default.
+     * @return this processor.
+     */
+    public BatchProcessor setQueueCapacity(int n) {
+        queueCapacity = Math.max(1, n);
+        return this;
+    }
+
+    /**
+     * Files with more pixels fail without being decoded (only their header is read).
+     * @param n largest width * height to accept.
+     * @return this processor.
+     */
+    public BatchProcessor setMaxPixels(long n) {
+        maxPixels = n;
+        return this;
+    }
+
+    /**
+     * @param cache to look outputs up in before running the chain, null (the default) to always run it.
+     * @return this processor.
+     */
+    public BatchProcessor setResultCache(ResultCache cache) {
+        resultCache = cache;
+        return this;
+    }
+
+    /**
+     * @param listener called from the encode threads as soon as a file is done, or from
+     *                 whichever stage it failed in.
+     * @return this processor.
+     */
+    public BatchProcessor setListener(Consumer<BatchResult> listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Filters every .png and .jpg file of a directory (not its sub directories).
+     * @param inputDirectory to read from.
+     * @param outputDirectory to write to, every output is a .png named after its input.
+     * @return a result for every file, sorted by name.
+     * @throws IOException if the input directory can't be listed or the output directory can't be made.
+     */
+    public List<BatchResult> run(File inputDirectory, File outputDirectory) throws IOException {
+        File[] files = inputDirectory.listFiles((dir, name) -> {
+            String n = name.toLowerCase();
+            return n.endsWith(".png") || n.endsWith(".jpg");
+        });
+        if (files == null) throw new IOException("Can't list " + inputDirectory);
+        Arrays.sort(files);
+        return run(Arrays.asList(files), outputDirectory);
+    }
+
+    /**
+     * Filters the given files.
+     * @param files to read (.png or .jpg).
+     * @param outputDirectory to write to, every output is a .png named after its input.
+     * @return a result for every file, in the same order.
+     * @throws IOException if the output directory can't be made.
+     */
+    public List<BatchResult> run(List<File> files, File outputDirectory) throws IOException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) throw new IOException("Can't make " + outputDirectory);
+        BatchResult[] results = new BatchResult[files.size()];
+        BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Job> filtered = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger decoders = new AtomicInteger(decodeThreads);
+        AtomicInteger filters = new AtomicInteger(filterThreads);
+        ArrayList<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < decodeThreads; t++) {
+            threads.add(start("decode-" + t, () -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < files.size()) {
+                        Job job = new Job(i, files.get(i), new File(outputDirectory, getOutputName(files.get(i))));
+                        decode(job);
+                        if (job.error != null) finish(job, results);
+                        else put(decoded, job);
+                    }
+                } finally {
+                    //the last decoder tells every filter thread to stop
+                    if (decoders.decrementAndGet() == 0) for (int j = 0; j < filterThreads; j++) put(decoded, Job.END);
+                }
+            }));
+        }
+        for (int t = 0; t < filterThreads; t++) {
+            threads.add(start("filter-" + t, () -> {
+                try {
+                    Job job;
+                    while ((job = take(decoded)) != Job.END) {
+                        filter(job);
+                        if (job.error != null) finish(job, results);
+                        else put(filtered, job);
+                    }
+                } finally {
+                    if (filters.decrementAndGet() == 0) for (int j = 0; j < encodeThreads; j++) put(filtered, Job.END);
+                }
+            }));
+        }
+        for (int t = 0; t < encodeThreads; t++) {
+            threads.add(start("encode-" + t, () -> {
+                Job job;
+                while ((job = take(filtered)) != Job.END) {
+                    encode(job);
+                    finish(job, results);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                for (Thread other : threads) other.interrupt();
+                Thread.currentThread().interrupt();
+                throw new IOException("Batch was interrupted", e);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Gets the name of the .png written for an input: the name of a .png stays the same,
+     * anything else gets .png added (a.jpg becomes a.jpg.png), so no two inputs of a
+     * directory write the same output.
+     * @param input file to read.
+     * @return name of the output.
+     */
+    public static String getOutputName(File input) {
+        String name = input.getName();
+        return name.toLowerCase().endsWith(".png") ? name : name + ".png";
+    }
+
+    private void decode(Job job) {
+        long t = System.nanoTime();
+        try {
+            ImageInfo info = ImageUtils.getImageInfo(job.input.getPath());
+            if (info == null) {
+                job.error = "not a valid image";
+            } else if (info.getPixels() > maxPixels) {
+                job.error = "too big, " + info.getWidth() + " x " + info.getHeight();
+            } else {
+                job.image = ImageUtils.getPlanarImage(job.input.getPath());
+                if (job.image == null) job.error = "can't decode";
+                else {
+                    job.width = job.image.getWidth();
+                    job.height = job.image.getHeight();
+                }
+            }
+        } catch (Throwable e) {
+            //any failure only fails this job, the thread has to keep the queues moving
+            job.image = null;
+            job.error = "can't decode, " + e;
+        }
+        job.decodeNanos = System.nanoTime() - t;
+    }
+
+    private void filter(Job job) {
+        long t = System.nanoTime();
+        try {
+            job.image = resultCache != null ? resultCache.apply(chain, job.image) : chain.apply(job.image);
+        } catch (Throwable e) {
+            job.image = null;
+            job.error = "can't filter, " + e;
+        }
+        job.filterNanos = System.nanoTime() - t;
+    }
+
+    private void encode(Job job) {
+        long t = System.nanoTime();
+        try {
+            ImageUtils.writeFileFromPlanarImage(job.output.getPath(), job.image);
+        } catch (Throwable e) {
+            job.error = "can't write, " + e;
+        }
+        job.image = null;
+        job.encodeNanos = System.nanoTime() - t;
+    }
+
+    private void finish(Job job, BatchResult[] results) {
+        results[job.index] = getResult(job);
+        Consumer<BatchResult> l = listener;
+        if (l == null) return;
+        try {
+            l.accept(results[job.index]);
+        } catch (Throwable e) {
+            //a failing listener must not stop the stage that called it
+            if (job.error == null) {
+                job.error = "listener failed, " + e;
+                results[job.index] = getResult(job);
+            }
+        }
+    }
+
+    private static BatchResult getResult(Job job) {
+        return new BatchResult(job.input, job.error == null ? job.output : null, job.error,
+                job.width, job.height, job.decodeNanos, job.filterNanos, job.encodeNanos);
+    }
+
+    private static Thread start(String name, Runnable r) {
+        Thread t = new Thread(r, "batch-" + name);
+        t.start();
+        return t;
+    }
+
+    private static void put(BlockingQueue<Job> queue, Job job) {
+        try {
+            queue.put(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch was interrupted", e);
+        }
+    }
+
+    private static Job take(BlockingQueue<Job> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch was interrupted", e);
+        }
+    }
+
+    /**
+     * A file on its way through the stages.
+     */
+    private static class Job {
+
+        /**
+         * Tells a stage that nothing else is coming.
+         */
+        static final Job END = new Job(-1, null, null);
+
+        final int index;
+        final File input, output;
+        PlanarImage image;
+        String error;
+        int width, height;
+        long decodeNanos, filterNanos, encodeNanos;
+
+        Job(int index, File input, File output) {
+            this.index = index;
+            this.input = input;
+            this.output = output;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.File;
+
+/**
+ * What happened to a single file of a BatchProcessor run.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/8/19
+ **/
+public class BatchResult {
+
+    private final File input, output;
+    private final String error;
+    private final int width, height;
+    private final long decodeNanos, filterNanos, encodeNanos;
+
+    /**
+     * @param input file that was read.
+     * @param output file that was written, or null if it failed.
+     * @param error why the file failed, or null.
+     * @param width width of the input, 0 if it couldn't be read.
+     * @param height height of the input, 0 if it couldn't be read.
+     * @param decodeNanos time spent decoding.
+     * @param filterNanos time spent filtering.
+     * @param encodeNanos time spent encoding.
+     */
+    public BatchResult(File input, File output, String error, int width, int height,
+                       long decodeNanos, long filterNanos, long encodeNanos) {
+        this.input = input;
+        this.output = output;
+        this.error = error;
+        this.width = width;
+        this.height = height;
+        this.decodeNanos = decodeNanos;
+        this.filterNanos = filterNanos;
+        this.encodeNanos = encodeNanos;
+    }
+
+    public File getInput() {
+        return input;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    /**
+     * @return true if the file was written.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return why the file failed, or null.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    public long getFilterNanos() {
+        return filterNanos;
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * @return time spent on the file in all three stages, without the time it waited in queues.
+     */
+    public long getTotalNanos() {
+        return decodeNanos + filterNanos + encodeNanos;
+    }
+
+    /**
+     * @return megapixels of input handled per second of work on this file.
+     */
+    public double getMegapixelsPerSecond() {
+        long t = getTotalNanos();
+        return t == 0 ? 0 : (double) width * height / t * 1000;
+    }
+
+    @Override
+    public String toString() {
+        if (!isSuccess()) return input.getName() + ": failed, " + error;
+        return String.format("%s: %d x %d, decode %.1f ms, filter %.1f ms, encode %.1f ms, %.2f MP/s",
+                input.getName(), width, height, decodeNanos / 1e6, filterNanos / 1e6, encodeNanos / 1e6, getMegapixelsPerSecond());
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * What a convolution or pooling window sees past the edges of an image.
+ * The border is never built: every index that falls outside the image is
+ * mapped back into it (or to 0) while the window is read.
+ *
+ * For an image row a b c d, two values of padding on each side look like:
+ * ZERO 0 0 | a b c d | 0 0, CLAMP a a | a b c d | d d,
+ * REFLECT c b | a b c d | c b, WRAP c d | a b c d | a b.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/1/19
+ **/
+public enum BorderMode {
+
+    /**
+     * Everything outside the image is 0, the same as MatrixUtils.padMatrix.
+     */
+    ZERO,
+    /**
+     * The edge value is repeated.
+     */
+    CLAMP,
+    /**
+     * The image is mirrored at its edges, without repeating the edge value.
+     */
+    REFLECT,
+    /**
+     * The image repeats, the left edge continues from the right one.
+     */
+    WRAP;
+
+    /**
+     * Maps an index along one axis into the image.
+     * @param i index, may be outside 0 -> n - 1.
+     * @param n size of the image along the axis.
+     * @return index inside the image, or -1 if the value is 0 (ZERO only).
+     */
+    public int resolve(int i, int n) {
+        if (i >= 0 && i < n) return i;
+        switch (this) {
+            case CLAMP:
+                return i < 0 ? 0 : n - 1;
+            case REFLECT:
+                if (n == 1) return 0;
+                int period = 2 * (n - 1);
+                i = Math.floorMod(i, period);
+                return i < n ? i : period - i;
+            case WRAP:
+                return Math.floorMod(i, n);
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * An image stored as one flat byte array per channel, one unsigned 0 -> 255 value per
+ * pixel, laid out like PlanarImage: pixel (x, y) of channel c lives at
+ * planes[c][offset + y * stride + x].
+ *
+ * A 24 MP RGB image takes 72 MB this way, where it takes 288 MB as a PlanarImage and
+ * over a gigabyte as an Integer[3][h][w] matrix. The float convolutions and pooling
+ * (see FloatConvolution) read it directly, so it can be the input of a convolution
+ * without ever being widened as a whole.
+ *
+ * Values stored into a ByteImage are fixed to be within 0 -> 255 with
+ * ImageUtils.fixRGBValue, the same way they would be written to a .png.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/16/19
+ **/
+public class ByteImage implements FloatSource {
+
+    /**
+     * Width and height of the image in pixels.
+     */
+    private final int width, height;
+
+    /**
+     * Distance in the array between the start of two rows.
+     */
+    private final int stride;
+
+    /**
+     * Index of pixel (0, 0) in each plane.
+     */
+    private final int offset;
+
+    /**
+     * One array per channel.
+     */
+    private final byte[][] planes;
+
+    /**
+     * Creates a new image of the given size filled with 0's.
+     * @param width of the image.
+     * @param height of the image.
+     * @param channels amount of channels (3 for RGB, 1 for gray-scaled).
+     */
+    public ByteImage(int width, int height, int channels) {
+        this(width, height, width, 0, new byte[channels][width * height]);
+    }
+
+    /**
+     * Creates an image around existing planes, no data is copied.
+     * @param width of the image.
+     * @param height of the image.
+     * @param stride distance between two rows in each plane.
+     * @param offset index of pixel (0, 0) in each plane.
+     * @param planes one array per channel.
+     */
+    public ByteImage(int width, int height, int stride, int offset, byte[][] planes) {
+        if (width < 0 || height < 0 || stride < width || offset < 0) {
+            throw new IllegalArgumentException("Invalid image layout " + width + "x" + height
+                    + " stride " + stride + " offset " + offset);
+        }
+        for (byte[] plane : planes) {
+            if (height > 0 && plane.length < offset + (height - 1) * stride + width) {
+                throw new IllegalArgumentException("Plane is too small for a " + width + "x" + height + " image");
+            }
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.offset = offset;
+        this.planes = planes;
+    }
+
+    /**
+     * Copies an image into a new byte image.
+     * @param img image to copy, values are fixed with ImageUtils.fixRGBValue.
+     * @return new image of the same size.
+     */
+    public static ByteImage fromPlanarImage(PlanarImage img) {
+        int w = img.getWidth();
+        ByteImage b = new ByteImage(w, img.getHeight(), img.getChannels());
+        for (int c = 0; c < img.getChannels(); c++) {
+            int[] src = img.getPlane(c);
+            byte[] dst = b.planes[c];
+            for (int y = 0; y < img.getHeight(); y++) {
+                int i = img.getOffset() + y * img.getStride();
+                int o = y * w;
+                for (int x = 0; x < w; x++) {
+                    dst[o + x] = (byte) ImageUtils.fixRGBValue(src[i + x]);
+                }
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Copies a float image into a new byte image, truncating every value like a cast
+     * before fixing it with ImageUtils.fixRGBValue.
+     * @param img image to copy.
+     * @return new image of the same size.
+     */
+    public static ByteImage fromFloatImage(FloatImage img) {
+        int w = img.getWidth();
+        ByteImage b = new ByteImage(w, img.getHeight(), img.getChannels());
+        for (int c = 0; c < img.getChannels(); c++) {
+            float[] src = img.getPlane(c);
+            byte[] dst = b.planes[c];
+            for (int y = 0; y < img.getHeight(); y++) {
+                int i = img.getOffset() + y * img.getStride();
+                int o = y * w;
+                for (int x = 0; x < w; x++) {
+                    dst[o + x] = (byte) ImageUtils.fixRGBValue((int) src[i + x]);
+                }
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Copies this image into an int image.
+     * @return new image of the same size.
+     */
+    public PlanarImage toPlanarImage() {
+        PlanarImage img = new PlanarImage(width, height, planes.length);
+        for (int c = 0; c < planes.length; c++) {
+            byte[] src = planes[c];
+            int[] dst = img.getPlane(c);
+            for (int y = 0; y < height; y++) {
+                int i = offset + y * stride;
+                int o = y * width;
+                for (int x = 0; x < width; x++) {
+                    dst[o + x] = src[i + x] & 0xFF;
+                }
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Copies this image into a float image.
+     * @return new image of the same size.
+     */
+    public FloatImage toFloatImage() {
+        FloatImage img = new FloatImage(width, height, planes.length);
+        for (int c = 0; c < planes.length; c++) {
+            for (int y = 0; y < height; y++) {
+                readRow(c, 0, y, width, img.getPlane(c), y * width);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Returns a view of a single channel, sharing its plane with this image.
+     * @param c channel to view.
+     * @return single channel image.
+     */
+    public ByteImage getChannel(int c) {
+        return new ByteImage(width, height, stride, offset, new byte[][]{planes[c]});
+    }
+
+    /**
+     * Returns a view of a rectangle of this image, sharing its planes with this image.
+     * @param x left of the region.
+     * @param y top of the region.
+     * @param w width of the region.
+     * @param h height of the region.
+     * @return image of w x h.
+     */
+    public ByteImage getRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("Region " + x + "," + y + " " + w + "x" + h
+                    + " is outside of a " + width + "x" + height + " image");
+        }
+        return new ByteImage(w, h, stride, offset + y * stride + x, planes);
+    }
+
+    /**
+     * Copies this image into new tightly packed planes.
+     * @return new image with the same contents.
+     */
+    public ByteImage copy() {
+        ByteImage img = new ByteImage(width, height, planes.length);
+        for (int c = 0; c < planes.length; c++) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(planes[c], offset + y * stride, img.planes[c], y * width, width);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Gets the value of a pixel.
+     * @param c channel of the pixel.
+     * @param x column of the pixel.
+     * @param y row of the pixel.
+     * @return value at (x, y), 0 -> 255.
+     */
+    public int get(int c, int x, int y) {
+        return planes[c][offset + y * stride + x] & 0xFF;
+    }
+
+    /**
+     * Sets the value of a pixel.
+     * @param c channel of the pixel.
+     * @param x column of the pixel.
+     * @param y row of the pixel.
+     * @param v new value, fixed with ImageUtils.fixRGBValue.
+     */
+    public void set(int c, int x, int y, int v) {
+        planes[c][offset + y * stride + x] = (byte) ImageUtils.fixRGBValue(v);
+    }
+
+    @Override
+    public void readRow(int c, int x, int y, int n, float[] dst, int o) {
+        byte[] src = planes[c];
+        int i = offset + y * stride + x;
+        for (int j = 0; j < n; j++) {
+            dst[o + j] = src[i + j] & 0xFF;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public int getChannels() {
+        return planes.length;
+    }
+
+    /**
+     * Gets the backing array of a channel, use with getOffset() and getStride().
+     * Values are unsigned, read them with & 0xFF.
+     * @param c channel to get.
+     * @return the plane itself (not a copy).
+     */
+    public byte[] getPlane(int c) {
+        return planes[c];
+    }
+}
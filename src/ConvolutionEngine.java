@@ -0,0 +1,807 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class runs convolutions over primitive planes.
+ * The output is split into tiles that are small enough for their input to stay in cache,
+ * and the tiles are scheduled on a ForkJoinPool. Every output value is computed on its own
+ * in the same order as the serial loop, so the result does not depend on the parallelism.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 6/16/19
+ **/
+public class ConvolutionEngine {
+
+    /**
+     * Width of a tile in output values.
+     */
+    public static final int TILE_WIDTH = 256;
+
+    /**
+     * About how many bytes of input a single tile should read (half of a typical L2 cache).
+     */
+    public static final int TILE_BYTES = 128 * 1024;
+
+    /**
+     * Outputs smaller than this are always convoluted on the calling thread.
+     */
+    public static final int MIN_PARALLEL_OUTPUTS = 64 * 64;
+
+    /**
+     * Filters at least this wide and high use the FFT backend when the backend is AUTO.
+     */
+    public static final int FFT_THRESHOLD = 11;
+
+    /**
+     * How a convolution is computed.
+     */
+    public enum Backend {
+        /**
+         * Loops over the filter for every output (two 1D passes for separable filters).
+         */
+        DIRECT,
+        /**
+         * Multiplication in the frequency domain, see FFTConvolution.
+         */
+        FFT,
+        /**
+         * DIRECT for small or separable filters, FFT for big ones.
+         */
+        AUTO
+    }
+
+    /**
+     * Backend used by every convolution.
+     */
+    private static volatile Backend backend = Backend.AUTO;
+
+    /**
+     * True if the jdk.incubator.vector module is present and VectorConvolution loads on this machine.
+     */
+    private static final boolean VECTOR_AVAILABLE = loadVectorConvolution();
+
+    /**
+     * Use VectorConvolution for convolutions with a stride of 1.
+     */
+    private static volatile boolean vectorized = VECTOR_AVAILABLE;
+
+    /**
+     * Pool the tiles run on, null while running serially.
+     */
+    private static volatile ForkJoinPool pool;
+
+    /**
+     * Amount of threads used for a convolution.
+     */
+    private static volatile int parallelism;
+
+    static {
+        setParallelism(0);
+    }
+
+    /**
+     * Loads VectorConvolution, which fails when the machine has no vector shape it can use
+     * (e.g. a single double lane).
+     * @return true if vectorized loops can be used.
+     */
+    private static boolean loadVectorConvolution() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return false;
+        try {
+            return VectorConvolution.getLanes() > 0;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets how many threads a single convolution may use.
+     * The previous pool is not shut down since a convolution may still be running on it,
+     * its idle workers exit on their own.
+     * @param n amount of threads, 1 runs every convolution on the calling thread
+     *          and anything below 1 uses one thread per core.
+     */
+    public static synchronized void setParallelism(int n) {
+        if (n < 1) n = Runtime.getRuntime().availableProcessors();
+        if (n == parallelism) return;
+        pool = n > 1 ? new ForkJoinPool(n) : null;
+        parallelism = n;
+    }
+
+    /**
+     * @return amount of threads a single convolution may use.
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Switches between the scalar loops and VectorConvolution.
+     * Vectorized loops are used by default when the jdk.incubator.vector module is present
+     * (--add-modules jdk.incubator.vector), without it convolutions always stay scalar.
+     * Both give the same results.
+     * @param v true to use vector instructions.
+     */
+    public static void setVectorized(boolean v) {
+        vectorized = v && VECTOR_AVAILABLE;
+    }
+
+    /**
+     * @return true if convolutions with a stride of 1 use vector instructions.
+     */
+    public static boolean isVectorized() {
+        return vectorized;
+    }
+
+    /**
+     * @return true if the jdk.incubator.vector module is present.
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR_AVAILABLE;
+    }
+
+    /**
+     * Sets how convolutions are computed.
+     * @param b backend to use, AUTO by default.
+     */
+    public static void setBackend(Backend b) {
+        backend = b == null ? Backend.AUTO : b;
+    }
+
+    /**
+     * @return how convolutions are computed.
+     */
+    public static Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Checks if a convolution would use the FFT backend.
+     * Only convolutions with a stride of 1 can.
+     * @param kernel compiled filter.
+     * @param s stride of the convolution.
+     * @return true if FFTConvolution will be used.
+     */
+    public static boolean useFFT(Kernel kernel, int s) {
+        if (s != 1) return false;
+        Backend b = backend;
+        if (b == Backend.FFT) return true;
+        return b == Backend.AUTO && !kernel.useSeparable()
+                && kernel.getWidth() >= FFT_THRESHOLD && kernel.getHeight() >= FFT_THRESHOLD;
+    }
+
+    /**
+     * Checks if a convolution would run the plain loop over every output and filter value,
+     * the only path that Integer[][] convolutions keep in boxed form.
+     * @param kernel compiled filter.
+     * @param s stride of the convolution.
+     * @return true if neither the separable nor the FFT path will be used.
+     */
+    public static boolean isDirect(Kernel kernel, int s) {
+        return !kernel.useSeparable() && !useFFT(kernel, s);
+    }
+
+    /**
+     * Work done for a single tile of output.
+     */
+    public interface TileTask {
+
+        /**
+         * Computes the outputs in rows y0 -> y1 and columns x0 -> x1 (exclusive).
+         */
+        void run(int y0, int y1, int x0, int x1);
+    }
+
+    /**
+     * Splits an output of rows x cols into tiles and runs the task for each of them,
+     * in parallel when the output is big enough and parallelism is above 1.
+     * @param rows height of the output.
+     * @param cols width of the output.
+     * @param tileH height of a tile.
+     * @param tileW width of a tile.
+     * @param task to run for every tile.
+     */
+    public static void forEachTile(int rows, int cols, int tileH, int tileW, TileTask task) {
+        if (rows <= 0 || cols <= 0) return;
+        if (tileH < 1) tileH = 1;
+        if (tileW < 1) tileW = 1;
+        ForkJoinPool p = pool;
+        int ny = (rows + tileH - 1) / tileH;
+        int nx = (cols + tileW - 1) / tileW;
+        if (p == null || ny * nx == 1 || (long) rows * cols < MIN_PARALLEL_OUTPUTS) {
+            task.run(0, rows, 0, cols);
+            return;
+        }
+        try {
+            p.invoke(new Tiles(task, rows, cols, tileH, tileW, nx, 0, ny * nx));
+        } catch (RejectedExecutionException e) {
+            //the pool rejected the tiles before running any of them
+            task.run(0, rows, 0, cols);
+        }
+    }
+
+    /**
+     * Picks the height of a tile so that the input read by a TILE_WIDTH wide tile
+     * is about TILE_BYTES.
+     * @param kh height of the filter.
+     * @param kw width of the filter.
+     * @param s stride of the convolution.
+     * @return height of a tile in output rows.
+     */
+    public static int getTileHeight(int kh, int kw, int s) {
+        int inputWidth = (TILE_WIDTH - 1) * s + kw;
+        int inputRows = TILE_BYTES / (4 * inputWidth);
+        return Math.max(8, (inputRows - kh) / s + 1);
+    }
+
+    /**
+     * Convolutes one channel of an image into a tightly packed output plane.
+     * Big filters can go through FFTConvolution, separable kernels run as a row pass
+     * and a column pass, anything else runs the direct loop.
+     * @param img image to read from.
+     * @param c channel to read.
+     * @param kernel compiled filter.
+     * @param s stride of the convolution.
+     * @param dst output plane, ow * oh values.
+     * @param ow width of the output.
+     * @param oh height of the output.
+     */
+    public static void convolve(PlanarImage img, int c, Kernel kernel, int s, int[] dst, int ow, int oh) {
+        int[] src = img.getPlane(c);
+        int stride = img.getStride();
+        int offset = img.getOffset();
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        if (useFFT(kernel, s)) {
+            FFTConvolution.convolve(img, c, kernel, dst, ow, oh);
+            return;
+        }
+        boolean vector = s == 1 && vectorized;
+        if (kernel.useSeparable()) {
+            double[] col = kernel.getColumn();
+            double[] row = kernel.getRow();
+            forEachTile(oh, ow, getTileHeight(kh, kw, s), TILE_WIDTH, (y0, y1, x0, x1) -> {
+                if (vector) VectorConvolution.convolveSeparableTile(src, offset, stride, col, row, dst, ow, y0, y1, x0, x1);
+                else convolveSeparableTile(src, offset, stride, col, row, s, dst, ow, y0, y1, x0, x1);
+            });
+            return;
+        }
+        double[] k = kernel.getValues();
+        forEachTile(oh, ow, getTileHeight(kh, kw, s), TILE_WIDTH, (y0, y1, x0, x1) -> {
+            if (vector) VectorConvolution.convolveTile(src, offset, stride, k, kw, kh, dst, ow, y0, y1, x0, x1);
+            else convolveTile(src, offset, stride, k, kw, kh, s, dst, ow, y0, y1, x0, x1);
+        });
+    }
+
+    /**
+     * Convolutes every channel of an image with its own kernel and sums the channels
+     * into one output plane, in a single sweep: each tile is convoluted channel after
+     * channel into a small scratch buffer and added up there, so no full size plane
+     * is made for a single channel. Each channel is truncated before the sum, the
+     * same as convoluting the channels one by one.
+     * Kernels that use the FFT backend are convoluted one plane at a time instead.
+     * @param img image to read from.
+     * @param kernels compiled filter for every channel.
+     * @param s stride of the convolution.
+     * @param dst output plane, ow * oh values.
+     * @param ow width of the output.
+     * @param oh height of the output.
+     */
+    public static void convolveSum(PlanarImage img, Kernel[] kernels, int s, int[] dst, int ow, int oh) {
+        int kw = kernels[0].getWidth();
+        int kh = kernels[0].getHeight();
+        for (Kernel k : kernels) {
+            if (useFFT(k, s)) {
+                int[] channel = new int[ow * oh];
+                for (int c = 0; c < kernels.length; c++) {
+                    convolve(img, c, kernels[c], s, channel, ow, oh);
+                    for (int i = 0; i < ow * oh; i++) {
+                        if (c == 0) dst[i] = channel[i];
+                        else dst[i] += channel[i];
+                    }
+                }
+                return;
+            }
+        }
+        boolean vector = s == 1 && vectorized;
+        forEachTile(oh, ow, getTileHeight(kh, kw, s), TILE_WIDTH, (y0, y1, x0, x1) -> {
+            int[] scratch = new int[(y1 - y0) * (x1 - x0)];
+            sumTile(img, img.getOffset(), kernels, s, vector, scratch, dst, y0 * ow + x0, ow, y0, y1, x0, x1);
+        });
+    }
+
+    /**
+     * Convolutes every channel of an image with its own kernel and sums the channels,
+     * as if the image had p values of border on every side (see BorderMode).
+     * The border is not built: outputs whose window lies inside the image run the same
+     * loops as convolveSum, and only the outputs along the edges map their indices
+     * through the border mode. With ZERO this gives the same values as convoluting a
+     * copy padded with MatrixUtils.padMatrix (within rounding for fractional filters).
+     * @param img image to read from.
+     * @param kernels compiled filter for every channel.
+     * @param s stride of the convolution.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param dst output plane, ow * oh values.
+     * @param ow width of the output, at most ((w + 2p - kw) / s) + 1.
+     * @param oh height of the output, at most ((h + 2p - kh) / s) + 1.
+     */
+    public static void convolveSum(PlanarImage img, Kernel[] kernels, int s, int p, BorderMode mode,
+                                   int[] dst, int ow, int oh) {
+        int kw = kernels[0].getWidth();
+        int kh = kernels[0].getHeight();
+        for (Kernel k : kernels) {
+            if (useFFT(k, s)) {
+                //the inside goes through the FFT in one piece, then the edges are added
+                int iy0 = Math.min(oh, getFirstInside(p, s));
+                int iy1 = Math.max(iy0, Math.min(oh, getLastInside(img.getHeight(), kh, p, s)));
+                int ix0 = Math.min(ow, getFirstInside(p, s));
+                int ix1 = Math.max(ix0, Math.min(ow, getLastInside(img.getWidth(), kw, p, s)));
+                int[] channel = new int[ow * oh];
+                for (int c = 0; c < kernels.length; c++) {
+                    PlanarImage plane = img.getChannel(c);
+                    Kernel[] single = {kernels[c]};
+                    if (iy0 < iy1 && ix0 < ix1) {
+                        PlanarImage inside = plane.getRegion(ix0 - p, iy0 - p, ix1 - ix0 + kw - 1, iy1 - iy0 + kh - 1);
+                        FFTConvolution.convolve(inside, 0, kernels[c], channel, iy0 * ow + ix0, ow, ix1 - ix0, iy1 - iy0);
+                    }
+                    sumEdges(plane, single, 1, p, mode, channel, 0, ow, 0, oh, 0, ow, iy0, iy1, ix0, ix1);
+                    for (int i = 0; i < ow * oh; i++) {
+                        if (c == 0) dst[i] = channel[i];
+                        else dst[i] += channel[i];
+                    }
+                }
+                return;
+            }
+        }
+        boolean vector = s == 1 && vectorized;
+        forEachTile(oh, ow, getTileHeight(kh, kw, s), TILE_WIDTH, (y0, y1, x0, x1) ->
+                sumRegion(img, kernels, s, p, mode, vector, dst, y0 * ow + x0, ow, y0, y1, x0, x1));
+    }
+
+    /**
+     * Convolutes every channel of an image with its own kernel and max pools the sum
+     * of the channels, without making the full size convolution: every tile of the
+     * pooled output convolutes only the rows and columns its windows cover.
+     * Gives the same values as convolveSum followed by max pooling, where a window
+     * with only negative values pools to 0.
+     * Kernels that use the FFT backend are convoluted in full first instead.
+     * @param img image to read from.
+     * @param kernels compiled filter for every channel, convoluted with a stride of 1.
+     * @param clamp true to fix every convoluted value with ImageUtils.fixRGBValue before pooling.
+     * @param pw width of the pooling window.
+     * @param ph height of the pooling window.
+     * @param ps stride of the pooling window.
+     * @param dst output plane, ow * oh values.
+     * @param ow width of the pooled output.
+     * @param oh height of the pooled output.
+     */
+    public static void convolveSumMaxPool(PlanarImage img, Kernel[] kernels, boolean clamp, int pw, int ph, int ps,
+                                          int[] dst, int ow, int oh) {
+        convolveSumMaxPool(img, kernels, 0, BorderMode.ZERO, clamp, pw, ph, ps, dst, ow, oh);
+    }
+
+    /**
+     * Fused convolution and max pooling of an image with p values of border on every side,
+     * see convolveSum(PlanarImage, Kernel[], int, int, BorderMode, ...).
+     * @param img image to read from.
+     * @param kernels compiled filter for every channel, convoluted with a stride of 1.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param clamp true to fix every convoluted value with ImageUtils.fixRGBValue before pooling.
+     * @param pw width of the pooling window.
+     * @param ph height of the pooling window.
+     * @param ps stride of the pooling window.
+     * @param dst output plane, ow * oh values.
+     * @param ow width of the pooled output.
+     * @param oh height of the pooled output.
+     */
+    public static void convolveSumMaxPool(PlanarImage img, Kernel[] kernels, int p, BorderMode mode, boolean clamp,
+                                          int pw, int ph, int ps, int[] dst, int ow, int oh) {
+        int kw = kernels[0].getWidth();
+        int kh = kernels[0].getHeight();
+        for (Kernel k : kernels) {
+            if (useFFT(k, 1)) {
+                int cw = img.getWidth() + 2 * p - kw + 1;
+                int ch = img.getHeight() + 2 * p - kh + 1;
+                int[] conv = new int[cw * ch];
+                convolveSum(img, kernels, 1, p, mode, conv, cw, ch);
+                if (clamp) for (int i = 0; i < conv.length; i++) conv[i] = ImageUtils.fixRGBValue(conv[i]);
+                PoolingEngine.maxPool(conv, 0, cw, pw, ph, ps, dst, 0, ow, oh, ow);
+                return;
+            }
+        }
+        boolean vector = vectorized;
+        int tileH = Math.max(1, getTileHeight(kh, kw, 1) / ps);
+        int tileW = Math.max(1, TILE_WIDTH / ps);
+        forEachTile(oh, ow, tileH, tileW, (y0, y1, x0, x1) -> {
+            //rows and columns of the convolution that the windows of this tile cover
+            int cy0 = y0 * ps, cy1 = (y1 - 1) * ps + ph;
+            int cx0 = x0 * ps, cx1 = (x1 - 1) * ps + pw;
+            int cw = cx1 - cx0;
+            int[] conv = new int[(cy1 - cy0) * cw];
+            sumRegion(img, kernels, 1, p, mode, vector, conv, 0, cw, cy0, cy1, cx0, cx1);
+            if (clamp) for (int i = 0; i < conv.length; i++) conv[i] = ImageUtils.fixRGBValue(conv[i]);
+            PoolingEngine.maxPool(conv, 0, cw, pw, ph, ps, dst, y0 * ow + x0, ow, y1 - y0, x1 - x0);
+        });
+    }
+
+    /**
+     * Convolutes a tile of an image with a border and writes the sum of the channels.
+     * The part of the tile whose windows lie inside the image runs through sumTile,
+     * the rest goes through sumEdges.
+     * @param img image to read from.
+     * @param kernels compiled filter for every channel.
+     * @param s stride of the convolution.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param vector true to use VectorConvolution (s must be 1).
+     * @param dst where the sums go, output (y0, x0) is written to dst[dstOff].
+     * @param pitch distance between two rows in dst.
+     * @param y0 first output row.
+     * @param y1 last output row (exclusive).
+     * @param x0 first output column.
+     * @param x1 last output column (exclusive).
+     */
+    static void sumRegion(PlanarImage img, Kernel[] kernels, int s, int p, BorderMode mode, boolean vector,
+                          int[] dst, int dstOff, int pitch, int y0, int y1, int x0, int x1) {
+        int kw = kernels[0].getWidth();
+        int kh = kernels[0].getHeight();
+        int iy0 = Math.min(y1, Math.max(y0, getFirstInside(p, s)));
+        int iy1 = Math.max(iy0, Math.min(y1, getLastInside(img.getHeight(), kh, p, s)));
+        int ix0 = Math.min(x1, Math.max(x0, getFirstInside(p, s)));
+        int ix1 = Math.max(ix0, Math.min(x1, getLastInside(img.getWidth(), kw, p, s)));
+        if (iy0 < iy1 && ix0 < ix1) {
+            int[] scratch = new int[(iy1 - iy0) * (ix1 - ix0)];
+            int origin = img.getOffset() - p * img.getStride() - p;
+            sumTile(img, origin, kernels, s, vector, scratch,
+                    dst, dstOff + (iy0 - y0) * pitch + ix0 - x0, pitch, iy0, iy1, ix0, ix1);
+        }
+        sumEdges(img, kernels, s, p, mode, dst, dstOff, pitch, y0, y1, x0, x1, iy0, iy1, ix0, ix1);
+    }
+
+    /**
+     * Convolutes a tile of an image with a border with two filters at once and writes the
+     * sum of the channels of each, see sumRegion. Inside the image every input value is
+     * loaded once for both filters and only the taps where either filter is not 0 are read,
+     * which gives the same values as the direct loop (a 0 tap adds nothing to the sums).
+     * @param img image to read from.
+     * @param first compiled first filter for every channel, all the same filter.
+     * @param second compiled second filter for every channel, all the same filter.
+     * @param taps indices in the flattened filters of every value where either filter is not 0.
+     * @param s stride of the convolution.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param vector true to use VectorConvolution (s must be 1).
+     * @param dst0 where the sums of the first filter go, output (y0, x0) is written to dst0[dstOff].
+     * @param dst1 where the sums of the second filter go, like dst0.
+     * @param pitch distance between two rows in dst0 and dst1.
+     * @param y0 first output row.
+     * @param y1 last output row (exclusive).
+     * @param x0 first output column.
+     * @param x1 last output column (exclusive).
+     */
+    static void sumRegionPair(PlanarImage img, Kernel[] first, Kernel[] second, int[] taps, int s, int p, BorderMode mode,
+                              boolean vector, int[] dst0, int[] dst1, int dstOff, int pitch, int y0, int y1, int x0, int x1) {
+        int kw = first[0].getWidth();
+        int kh = first[0].getHeight();
+        int iy0 = Math.min(y1, Math.max(y0, getFirstInside(p, s)));
+        int iy1 = Math.max(iy0, Math.min(y1, getLastInside(img.getHeight(), kh, p, s)));
+        int ix0 = Math.min(x1, Math.max(x0, getFirstInside(p, s)));
+        int ix1 = Math.max(ix0, Math.min(x1, getLastInside(img.getWidth(), kw, p, s)));
+        if (iy0 < iy1 && ix0 < ix1) {
+            int th = iy1 - iy0;
+            int tw = ix1 - ix0;
+            int[] scratch0 = new int[th * tw];
+            int[] scratch1 = new int[th * tw];
+            int stride = img.getStride();
+            int offset = img.getOffset() - p * stride - p + iy0 * s * stride + ix0 * s;
+            double[] k0 = first[0].getValues();
+            double[] k1 = second[0].getValues();
+            int o0 = dstOff + (iy0 - y0) * pitch + ix0 - x0;
+            for (int c = 0; c < first.length; c++) {
+                int[] src = img.getPlane(c);
+                if (vector) VectorConvolution.convolveTilePair(src, offset, stride, taps, kw, k0, k1, scratch0, scratch1, tw, 0, th, 0, tw);
+                else convolveTilePair(src, offset, stride, taps, kw, k0, k1, s, scratch0, scratch1, tw, 0, th, 0, tw);
+                for (int y = 0; y < th; y++) {
+                    int o = o0 + y * pitch;
+                    int i = y * tw;
+                    if (c == 0) {
+                        System.arraycopy(scratch0, i, dst0, o, tw);
+                        System.arraycopy(scratch1, i, dst1, o, tw);
+                    } else {
+                        for (int x = 0; x < tw; x++) {
+                            dst0[o + x] += scratch0[i + x];
+                            dst1[o + x] += scratch1[i + x];
+                        }
+                    }
+                }
+            }
+        }
+        sumEdges(img, first, s, p, mode, dst0, dstOff, pitch, y0, y1, x0, x1, iy0, iy1, ix0, ix1);
+        sumEdges(img, second, s, p, mode, dst1, dstOff, pitch, y0, y1, x0, x1, iy0, iy1, ix0, ix1);
+    }
+
+    /**
+     * Convolutes the outputs of a tile that lie outside its inside rectangle, reading
+     * every value through the border mode, and writes the sum of the channels.
+     * Each channel is summed in a double in the same order as the direct loop and truncated.
+     * @param img image to read from.
+     * @param kernels compiled filter for every channel.
+     * @param s stride of the convolution.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param dst where the sums go, output (y0, x0) is written to dst[dstOff].
+     * @param pitch distance between two rows in dst.
+     * @param y0 first output row.
+     * @param y1 last output row (exclusive).
+     * @param x0 first output column.
+     * @param x1 last output column (exclusive).
+     * @param iy0 first row of the inside rectangle, which is skipped.
+     * @param iy1 last row of the inside rectangle (exclusive).
+     * @param ix0 first column of the inside rectangle.
+     * @param ix1 last column of the inside rectangle (exclusive).
+     */
+    private static void sumEdges(PlanarImage img, Kernel[] kernels, int s, int p, BorderMode mode,
+                                 int[] dst, int dstOff, int pitch, int y0, int y1, int x0, int x1,
+                                 int iy0, int iy1, int ix0, int ix1) {
+        int kw = kernels[0].getWidth();
+        int kh = kernels[0].getHeight();
+        int w = img.getWidth();
+        int h = img.getHeight();
+        boolean inside = iy0 < iy1 && ix0 < ix1;
+        int[] rows = new int[kh];
+        int[] cols = new int[kw];
+        for (int y = y0; y < y1; y++) {
+            for (int yy = 0; yy < kh; yy++) {
+                int r = mode.resolve(y * s - p + yy, h);
+                rows[yy] = r < 0 ? -1 : img.getOffset() + r * img.getStride();
+            }
+            int o = dstOff + (y - y0) * pitch - x0;
+            for (int x = x0; x < x1; x++) {
+                if (inside && y >= iy0 && y < iy1 && x == ix0) {
+                    x = ix1 - 1;
+                    continue;
+                }
+                for (int xx = 0; xx < kw; xx++) {
+                    cols[xx] = mode.resolve(x * s - p + xx, w);
+                }
+                int total = 0;
+                for (int c = 0; c < kernels.length; c++) {
+                    int[] src = img.getPlane(c);
+                    double[] k = kernels[c].getValues();
+                    double sum = 0;
+                    for (int yy = 0; yy < kh; yy++) {
+                        if (rows[yy] < 0) continue;
+                        int f = yy * kw;
+                        for (int xx = 0; xx < kw; xx++) {
+                            if (cols[xx] >= 0) sum += src[rows[yy] + cols[xx]] * k[f + xx];
+                        }
+                    }
+                    total += (int) sum;
+                }
+                dst[o + x] = total;
+            }
+        }
+    }
+
+    /**
+     * @param p amount of border before the image.
+     * @param s stride of the convolution.
+     * @return first output whose window starts inside the image.
+     */
+    private static int getFirstInside(int p, int s) {
+        return (p + s - 1) / s;
+    }
+
+    /**
+     * @param n size of the image.
+     * @param k size of the filter.
+     * @param p amount of border before the image.
+     * @param s stride of the convolution.
+     * @return last output whose window ends inside the image (exclusive).
+     */
+    private static int getLastInside(int n, int k, int p, int s) {
+        return Math.floorDiv(n - k + p, s) + 1;
+    }
+
+    /**
+     * Convolutes a tile of every channel and writes the sum of the channels.
+     * @param img image to read from.
+     * @param origin index in the planes of the first input value of output (0, 0).
+     * @param kernels compiled filter for every channel.
+     * @param s stride of the convolution.
+     * @param vector true to use VectorConvolution (s must be 1).
+     * @param scratch buffer of at least (y1 - y0) * (x1 - x0) values.
+     * @param dst where the sums go, output (y0, x0) is written to dst[dstOff].
+     * @param pitch distance between two rows in dst.
+     * @param y0 first output row.
+     * @param y1 last output row (exclusive).
+     * @param x0 first output column.
+     * @param x1 last output column (exclusive).
+     */
+    private static void sumTile(PlanarImage img, int origin, Kernel[] kernels, int s, boolean vector, int[] scratch,
+                                int[] dst, int dstOff, int pitch, int y0, int y1, int x0, int x1) {
+        int th = y1 - y0;
+        int tw = x1 - x0;
+        int stride = img.getStride();
+        //moving the offset to the corner of the tile lets the tile loops work from (0, 0)
+        int offset = origin + y0 * s * stride + x0 * s;
+        for (int c = 0; c < kernels.length; c++) {
+            int[] src = img.getPlane(c);
+            Kernel k = kernels[c];
+            if (k.useSeparable()) {
+                if (vector) VectorConvolution.convolveSeparableTile(src, offset, stride, k.getColumn(), k.getRow(), scratch, tw, 0, th, 0, tw);
+                else convolveSeparableTile(src, offset, stride, k.getColumn(), k.getRow(), s, scratch, tw, 0, th, 0, tw);
+            } else {
+                if (vector) VectorConvolution.convolveTile(src, offset, stride, k.getValues(), k.getWidth(), k.getHeight(), scratch, tw, 0, th, 0, tw);
+                else convolveTile(src, offset, stride, k.getValues(), k.getWidth(), k.getHeight(), s, scratch, tw, 0, th, 0, tw);
+            }
+            for (int y = 0; y < th; y++) {
+                int o = dstOff + y * pitch;
+                int i = y * tw;
+                if (c == 0) System.arraycopy(scratch, i, dst, o, tw);
+                else for (int x = 0; x < tw; x++) dst[o + x] += scratch[i + x];
+            }
+        }
+    }
+
+    /**
+     * Direct convolution of a single tile.
+     * @param src plane to read from.
+     * @param offset index of pixel (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param k flattened filter, row after row.
+     * @param kw width of the filter.
+     * @param kh height of the filter.
+     * @param s stride of the convolution.
+     * @param dst output plane.
+     * @param ow distance between two rows in dst.
+     * @param y0 first output row.
+     * @param y1 last output row (exclusive).
+     * @param x0 first output column.
+     * @param x1 last output column (exclusive).
+     */
+    static void convolveTile(int[] src, int offset, int stride, double[] k, int kw, int kh, int s,
+                             int[] dst, int ow, int y0, int y1, int x0, int x1) {
+        for (int y = y0; y < y1; y++) {
+            int o = y * ow;
+            for (int x = x0; x < x1; x++) {
+                double sum = 0;
+                int f = 0;
+                for (int yy = 0; yy < kh; yy++) {
+                    int i = offset + (y * s + yy) * stride + x * s;
+                    for (int xx = 0; xx < kw; xx++) {
+                        sum += src[i + xx] * k[f++];
+                    }
+                }
+                dst[o + x] = (int) sum;
+            }
+        }
+    }
+
+    /**
+     * Direct convolution of a single tile with two filters at once, reading only the taps
+     * where either filter is not 0.
+     * @param src plane to read from.
+     * @param offset index of pixel (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param taps indices in the flattened filters to read, in increasing order.
+     * @param kw width of the filters.
+     * @param k0 first flattened filter, row after row.
+     * @param k1 second flattened filter, row after row.
+     * @param s stride of the convolution.
+     * @param dst0 output plane of the first filter.
+     * @param dst1 output plane of the second filter.
+     * @param ow distance between two rows in dst0 and dst1.
+     * @param y0 first output row.
+     * @param y1 last output row (exclusive).
+     * @param x0 first output column.
+     * @param x1 last output column (exclusive).
+     */
+    static void convolveTilePair(int[] src, int offset, int stride, int[] taps, int kw, double[] k0, double[] k1, int s,
+                                 int[] dst0, int[] dst1, int ow, int y0, int y1, int x0, int x1) {
+        for (int y = y0; y < y1; y++) {
+            int o = y * ow;
+            for (int x = x0; x < x1; x++) {
+                double sum0 = 0, sum1 = 0;
+                int i = offset + y * s * stride + x * s;
+                for (int f : taps) {
+                    double v = src[i + (f / kw) * stride + f % kw];
+                    sum0 += v * k0[f];
+                    sum1 += v * k1[f];
+                }
+                dst0[o + x] = (int) sum0;
+                dst1[o + x] = (int) sum1;
+            }
+        }
+    }
+
+    /**
+     * Separable convolution of a single tile.
+     * The row pass only visits the sampled columns of the input rows the tile needs,
+     * then the column pass combines kh of those rows for every output.
+     * Sums are kept as doubles until the end, so whole-numbered filters give the same
+     * values as the direct loop.
+     * @param src plane to read from.
+     * @param offset index of pixel (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param col vertical factor of the filter.
+     * @param row horizontal factor of the filter.
+     * @param s stride of the convolution.
+     * @param dst output plane.
+     * @param ow distance between two rows in dst.
+     * @param y0 first output row.
+     * @param y1 last output row (exclusive).
+     * @param x0 first output column.
+     * @param x1 last output column (exclusive).
+     */
+    static void convolveSeparableTile(int[] src, int offset, int stride, double[] col, double[] row, int s,
+                                      int[] dst, int ow, int y0, int y1, int x0, int x1) {
+        int kh = col.length;
+        int kw = row.length;
+        int tw = x1 - x0;
+        int firstRow = y0 * s;
+        int rows = (y1 - 1) * s + kh - firstRow;
+        double[] pass = new double[rows * tw];
+        for (int r = 0; r < rows; r++) {
+            int i = offset + (firstRow + r) * stride + x0 * s;
+            int o = r * tw;
+            for (int x = 0; x < tw; x++, i += s) {
+                double sum = 0;
+                for (int xx = 0; xx < kw; xx++) {
+                    sum += src[i + xx] * row[xx];
+                }
+                pass[o + x] = sum;
+            }
+        }
+        for (int y = y0; y < y1; y++) {
+            int o = y * ow + x0;
+            int r0 = (y * s - firstRow) * tw;
+            for (int x = 0; x < tw; x++) {
+                double sum = 0;
+                int i = r0 + x;
+                for (int yy = 0; yy < kh; yy++, i += tw) {
+                    sum += pass[i] * col[yy];
+                }
+                dst[o + x] = (int) sum;
+            }
+        }
+    }
+
+    /**
+     * Runs a range of tiles, splitting it in half until a single tile is left.
+     */
+    private static class Tiles extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TileTask task;
+        private final int rows, cols, tileH, tileW, nx, from, to;
+
+        Tiles(TileTask task, int rows, int cols, int tileH, int tileW, int nx, int from, int to) {
+            this.task = task;
+            this.rows = rows;
+            this.cols = cols;
+            this.tileH = tileH;
+            this.tileW = tileW;
+            this.nx = nx;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Tiles(task, rows, cols, tileH, tileW, nx, from, mid),
+                        new Tiles(task, rows, cols, tileH, tileW, nx, mid, to));
+                return;
+            }
+            int y0 = (from / nx) * tileH;
+            int x0 = (from % nx) * tileW;
+            task.run(y0, Math.min(rows, y0 + tileH), x0, Math.min(cols, x0 + tileW));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.Arrays;
+
+/**
+ * Convolution with its own stride and dilation along each axis.
+ * Output (x, y) reads the input at (x * sx + xx * dx - px, y * sy + yy * dy - py) for every
+ * filter value (xx, yy), so a dilated (atrous) k x k filter covers (k - 1) * d + 1 values
+ * with only k * k taps, and the output has ((n + 2p - ((k - 1) * d + 1)) / s) + 1 values
+ * along each axis.
+ *
+ * Only sampled outputs are computed: every tile maps its output columns and rows to input
+ * columns and rows once (resolving the border, see BorderMode), the direct loop then only
+ * reads those, and the row pass of a separable filter only runs over the input rows some
+ * output of the tile actually reads. A stride of 4 costs about a sixteenth of a stride of 1,
+ * instead of computing every output and throwing most of them away.
+ *
+ * Sums are doubles truncated once per channel like ConvolutionEngine, and with a dilation
+ * of 1 the values are the same as ConvolutionEngine's direct and separable loops.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/17/19
+ **/
+public class DilatedConvolution {
+
+    /**
+     * Gets how many input values a dilated filter covers along one axis.
+     * @param k size of the filter.
+     * @param d dilation, 1 for a plain filter.
+     * @return (k - 1) * d + 1
+     */
+    public static int getExtent(int k, int d) {
+        return (k - 1) * d + 1;
+    }
+
+    /**
+     * Convolutes channels of an image and sums them into a tightly packed output plane.
+     * @param img image to read from.
+     * @param kernels compiled filters, one per channel, all of the same size.
+     * @param sx horizontal stride.
+     * @param sy vertical stride.
+     * @param dx horizontal dilation.
+     * @param dy vertical dilation.
+     * @param px padding on the left and right.
+     * @param py padding on the top and bottom.
+     * @param mode what the padding holds.
+     * @param dst output plane, ow * oh values.
+     * @param ow width of the output.
+     * @param oh height of the output.
+     */
+    public static void convolveSum(PlanarImage img, Kernel[] kernels, int sx, int sy, int dx, int dy, int px, int py,
+                                   BorderMode mode, int[] dst, int ow, int oh) {
+        int kw = kernels[0].getWidth();
+        int kh = kernels[0].getHeight();
+        int tileH = ConvolutionEngine.getTileHeight(getExtent(kh, dy), getExtent(kw, dx), Math.max(sx, sy));
+        ConvolutionEngine.forEachTile(oh, ow, tileH, ConvolutionEngine.TILE_WIDTH, (y0, y1, x0, x1) -> {
+            int th = y1 - y0;
+            int tw = x1 - x0;
+            int[] cols = getColumns(img.getWidth(), mode, x0, tw, kw, sx, dx, px);
+            int[] scratch = new int[th * tw];
+            for (int c = 0; c < kernels.length; c++) {
+                Kernel k = kernels[c];
+                if (k.useSeparable()) convolveSeparableTile(img, c, k, cols, mode, y0, th, tw, sy, dy, py, scratch);
+                else convolveTile(img, c, k, cols, mode, y0, th, tw, sy, dy, py, scratch);
+                for (int y = 0; y < th; y++) {
+                    int o = (y0 + y) * ow + x0;
+                    int i = y * tw;
+                    if (c == 0) System.arraycopy(scratch, i, dst, o, tw);
+                    else for (int x = 0; x < tw; x++) dst[o + x] += scratch[i + x];
+                }
+            }
+        });
+    }
+
+    /**
+     * Maps the taps of every output column of a tile to input columns.
+     * @return tw * kw columns, -1 where the tap reads a 0 of the border.
+     */
+    static int[] getColumns(int width, BorderMode mode, int x0, int tw, int kw, int sx, int dx, int px) {
+        int[] cols = new int[tw * kw];
+        for (int x = 0; x < tw; x++) {
+            for (int xx = 0; xx < kw; xx++) {
+                cols[x * kw + xx] = mode.resolve((x0 + x) * sx + xx * dx - px, width);
+            }
+        }
+        return cols;
+    }
+
+    /**
+     * Direct convolution of a tile, reading only the taps of its outputs.
+     */
+    private static void convolveTile(PlanarImage img, int c, Kernel kernel, int[] cols, BorderMode mode,
+                                     int y0, int th, int tw, int sy, int dy, int py, int[] dst) {
+        int[] src = img.getPlane(c);
+        double[] k = kernel.getValues();
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        int h = img.getHeight();
+        int[] rows = new int[kh];
+        for (int y = 0; y < th; y++) {
+            for (int yy = 0; yy < kh; yy++) {
+                int r = mode.resolve((y0 + y) * sy + yy * dy - py, h);
+                rows[yy] = r < 0 ? -1 : img.getOffset() + r * img.getStride();
+            }
+            for (int x = 0; x < tw; x++) {
+                double sum = 0;
+                int t = x * kw;
+                for (int yy = 0; yy < kh; yy++) {
+                    int i = rows[yy];
+                    if (i < 0) continue;
+                    int f = yy * kw;
+                    for (int xx = 0; xx < kw; xx++) {
+                        int col = cols[t + xx];
+                        if (col >= 0) sum += src[i + col] * k[f + xx];
+                    }
+                }
+                dst[y * tw + x] = (int) sum;
+            }
+        }
+    }
+
+    /**
+     * Separable convolution of a tile: a row pass over the sampled columns of only the
+     * input rows the tile's outputs read, then a column pass.
+     */
+    private static void convolveSeparableTile(PlanarImage img, int c, Kernel kernel, int[] cols, BorderMode mode,
+                                              int y0, int th, int tw, int sy, int dy, int py, int[] dst) {
+        int[] src = img.getPlane(c);
+        double[] col = kernel.getColumn();
+        double[] row = kernel.getRow();
+        int kw = row.length;
+        int kh = col.length;
+        int h = img.getHeight();
+        //input rows (y0 * sy - py) + r that are read, numbered in the order they are met
+        int range = (th - 1) * sy + getExtent(kh, dy);
+        int[] passRow = new int[range];
+        Arrays.fill(passRow, -1);
+        int count = 0;
+        for (int y = 0; y < th; y++) {
+            for (int yy = 0; yy < kh; yy++) {
+                int r = y * sy + yy * dy;
+                if (passRow[r] < 0) passRow[r] = count++;
+            }
+        }
+        double[] pass = new double[count * tw];
+        for (int r = 0; r < range; r++) {
+            if (passRow[r] < 0) continue;
+            int ry = mode.resolve(y0 * sy - py + r, h);
+            if (ry < 0) continue;
+            int i = img.getOffset() + ry * img.getStride();
+            int o = passRow[r] * tw;
+            for (int x = 0; x < tw; x++) {
+                double sum = 0;
+                int t = x * kw;
+                for (int xx = 0; xx < kw; xx++) {
+                    int cx = cols[t + xx];
+                    if (cx >= 0) sum += src[i + cx] * row[xx];
+                }
+                pass[o + x] = sum;
+            }
+        }
+        for (int y = 0; y < th; y++) {
+            for (int x = 0; x < tw; x++) {
+                double sum = 0;
+                for (int yy = 0; yy < kh; yy++) {
+                    sum += pass[passRow[y * sy + yy * dy] * tw + x] * col[yy];
+                }
+                dst[y * tw + x] = (int) sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+import java.util.Arrays;
+
+/**
+ * Convolution through the fast fourier transform, for big filters.
+ * The output is cut into blocks, and for every block an N x N piece of the input
+ * (N a power of two) is transformed, multiplied with the transformed filter and
+ * transformed back (overlap-save). A block costs about N * N * log(N) no matter
+ * how big the filter is, where the direct loop costs K * K per output.
+ *
+ * Real input is transformed with half-size complex transforms: two rows are packed
+ * into one complex row, and only the N / 2 + 1 columns that are not mirror images
+ * of each other are kept for the column transforms.
+ *
+ * Results match the direct loop within rounding of the sums (around 1e-9), so after
+ * truncation an output can differ from the direct loop by 1. Whole-numbered filters
+ * give whole-numbered sums which are rounded instead, so they match exactly.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 6/20/19
+ **/
+public class FFTConvolution {
+
+    /**
+     * Largest transform size used for a block.
+     */
+    public static final int MAX_SIZE = 512;
+
+    /**
+     * Convolutes one channel of an image into a tightly packed output plane (stride of 1).
+     * @param img image to read from.
+     * @param c channel to read.
+     * @param kernel compiled filter.
+     * @param dst output plane, ow * oh values.
+     * @param ow width of the output.
+     * @param oh height of the output.
+     */
+    public static void convolve(PlanarImage img, int c, Kernel kernel, int[] dst, int ow, int oh) {
+        convolve(img, c, kernel, dst, 0, ow, ow, oh);
+    }
+
+    /**
+     * Convolutes one channel of an image (stride of 1) into part of an output plane.
+     * @param img image to read from.
+     * @param c channel to read.
+     * @param kernel compiled filter.
+     * @param dst output plane.
+     * @param dstOff index of output (0, 0) in dst.
+     * @param pitch distance between two rows in dst.
+     * @param ow width of the output.
+     * @param oh height of the output.
+     */
+    public static void convolve(PlanarImage img, int c, Kernel kernel, int[] dst, int dstOff, int pitch, int ow, int oh) {
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        int n = getTransformSize(kw, kh, img.getWidth(), img.getHeight());
+        int half = n / 2 + 1;
+        Plan plan = new Plan(n);
+
+        //transform of the filter, zero padded to n x n
+        double[] kre = new double[n * half];
+        double[] kim = new double[n * half];
+        double[] k = kernel.getValues();
+        plan.forward((y, row) -> {
+            Arrays.fill(row, 0);
+            if (y < kh) System.arraycopy(k, y * kw, row, 0, kw);
+        }, kre, kim);
+
+        int bw = n - kw + 1;
+        int bh = n - kh + 1;
+        int[] src = img.getPlane(c);
+        int stride = img.getStride();
+        int offset = img.getOffset();
+        int w = img.getWidth();
+        int h = img.getHeight();
+        boolean round = kernel.isWholeNumbered();
+        ConvolutionEngine.forEachTile(oh, ow, bh, bw, (y0, y1, x0, x1) -> {
+            double[] re = new double[n * half];
+            double[] im = new double[n * half];
+            double[] out = new double[bh * n];
+            for (int by = y0; by < y1; by += bh) {
+                for (int bx = x0; bx < x1; bx += bw) {
+                    int fy = by, fx = bx;
+                    //transform the n x n input block starting at (bx, by), zero past the edges
+                    plan.forward((y, row) -> {
+                        Arrays.fill(row, 0);
+                        if (fy + y >= h) return;
+                        int i = offset + (fy + y) * stride + fx;
+                        int len = Math.min(n, w - fx);
+                        for (int x = 0; x < len; x++) row[x] = src[i + x];
+                    }, re, im);
+                    //correlation is multiplication with the conjugate of the filter
+                    for (int i = 0; i < re.length; i++) {
+                        double r = re[i] * kre[i] + im[i] * kim[i];
+                        double m = im[i] * kre[i] - re[i] * kim[i];
+                        re[i] = r;
+                        im[i] = m;
+                    }
+                    int rows = Math.min(bh, y1 - by);
+                    int cols = Math.min(bw, x1 - bx);
+                    plan.inverse(re, im, out, rows);
+                    for (int y = 0; y < rows; y++) {
+                        int o = dstOff + (by + y) * pitch + bx;
+                        for (int x = 0; x < cols; x++) {
+                            double v = out[y * n + x];
+                            dst[o + x] = (int) (round ? Math.rint(v) : v);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Picks the power of two transform size that costs the least per output.
+     * @param kw width of the filter.
+     * @param kh height of the filter.
+     * @param w width of the image.
+     * @param h height of the image.
+     * @return transform size.
+     */
+    public static int getTransformSize(int kw, int kh, int w, int h) {
+        int k = Math.max(kw, kh);
+        int n = Integer.highestOneBit(k - 1) << 1;
+        if (n < k) n = k;
+        int limit = Math.max(n, Integer.highestOneBit(Math.max(w, h) - 1) << 1);
+        int best = n;
+        double bestCost = Double.MAX_VALUE;
+        for (int size = n; size <= Math.min(MAX_SIZE, limit) || size == n; size <<= 1) {
+            double outputs = (double) (size - kw + 1) * (size - kh + 1);
+            double cost = size * (double) size * Integer.numberOfTrailingZeros(size) / outputs;
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fills a row of real input.
+     */
+    private interface Reader {
+        void read(int y, double[] row);
+    }
+
+    /**
+     * Twiddle factors and bit reversal of a transform of size n, and the 2D
+     * real transforms built on top of them.
+     */
+    private static class Plan {
+
+        private final int n, bits;
+        private final double[] cos, sin;
+        private final int[] reverse;
+
+        Plan(int n) {
+            this.n = n;
+            this.bits = Integer.numberOfTrailingZeros(n);
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for (int i = 0; i < n / 2; i++) {
+                cos[i] = Math.cos(2 * Math.PI * i / n);
+                sin[i] = -Math.sin(2 * Math.PI * i / n);
+            }
+            reverse = new int[n];
+            for (int i = 0; i < n; i++) {
+                reverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+        }
+
+        /**
+         * In place complex transform of length n, iterative radix 2.
+         * @param re real parts.
+         * @param im imaginary parts.
+         * @param inverse true for the inverse transform (not scaled).
+         */
+        void fft(double[] re, double[] im, boolean inverse) {
+            for (int i = 0; i < n; i++) {
+                int j = reverse[i];
+                if (j > i) {
+                    double t = re[i]; re[i] = re[j]; re[j] = t;
+                    t = im[i]; im[i] = im[j]; im[j] = t;
+                }
+            }
+            for (int size = 2; size <= n; size <<= 1) {
+                int halfSize = size >> 1;
+                int step = n / size;
+                for (int start = 0; start < n; start += size) {
+                    for (int k = 0; k < halfSize; k++) {
+                        double wr = cos[k * step];
+                        double wi = inverse ? -sin[k * step] : sin[k * step];
+                        int a = start + k;
+                        int b = a + halfSize;
+                        double tr = re[b] * wr - im[b] * wi;
+                        double ti = re[b] * wi + im[b] * wr;
+                        re[b] = re[a] - tr;
+                        im[b] = im[a] - ti;
+                        re[a] += tr;
+                        im[a] += ti;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 2D transform of n x n real values, giving the n x (n / 2 + 1) half spectrum.
+         * @param reader gives the real rows.
+         * @param outRe real parts of the spectrum, row after row.
+         * @param outIm imaginary parts of the spectrum, row after row.
+         */
+        void forward(Reader reader, double[] outRe, double[] outIm) {
+            int half = n / 2 + 1;
+            double[] a = new double[n];
+            double[] b = new double[n];
+            //rows, two at a time: z = a + i * b
+            for (int y = 0; y < n; y += 2) {
+                reader.read(y, a);
+                if (y + 1 < n) reader.read(y + 1, b);
+                else Arrays.fill(b, 0);
+                fft(a, b, false);
+                for (int k = 0; k < half; k++) {
+                    int m = (n - k) & (n - 1);
+                    //A[k] = (Z[k] + conj(Z[n - k])) / 2, B[k] = (Z[k] - conj(Z[n - k])) / 2i
+                    outRe[y * half + k] = (a[k] + a[m]) / 2;
+                    outIm[y * half + k] = (b[k] - b[m]) / 2;
+                    if (y + 1 < n) {
+                        outRe[(y + 1) * half + k] = (b[k] + b[m]) / 2;
+                        outIm[(y + 1) * half + k] = (a[m] - a[k]) / 2;
+                    }
+                }
+            }
+            //columns
+            for (int k = 0; k < half; k++) {
+                for (int y = 0; y < n; y++) {
+                    a[y] = outRe[y * half + k];
+                    b[y] = outIm[y * half + k];
+                }
+                fft(a, b, false);
+                for (int y = 0; y < n; y++) {
+                    outRe[y * half + k] = a[y];
+                    outIm[y * half + k] = b[y];
+                }
+            }
+        }
+
+        /**
+         * Inverse of forward, for the first few rows only.
+         * @param re real parts of the half spectrum (overwritten).
+         * @param im imaginary parts of the half spectrum (overwritten).
+         * @param out real values, n per row.
+         * @param rows amount of rows to give back.
+         */
+        void inverse(double[] re, double[] im, double[] out, int rows) {
+            int half = n / 2 + 1;
+            double[] a = new double[n];
+            double[] b = new double[n];
+            double scale = 1.0 / ((double) n * n);
+            //columns
+            for (int k = 0; k < half; k++) {
+                for (int y = 0; y < n; y++) {
+                    a[y] = re[y * half + k];
+                    b[y] = im[y * half + k];
+                }
+                fft(a, b, true);
+                for (int y = 0; y < n; y++) {
+                    re[y * half + k] = a[y];
+                    im[y * half + k] = b[y];
+                }
+            }
+            //rows, two at a time: Z = A + i * B, both rebuilt from their mirror halves
+            for (int y = 0; y < rows; y += 2) {
+                boolean pair = y + 1 < rows;
+                for (int k = 0; k < n; k++) {
+                    double ar, ai, br = 0, bi = 0;
+                    if (k < half) {
+                        ar = re[y * half + k];
+                        ai = im[y * half + k];
+                        if (pair) {
+                            br = re[(y + 1) * half + k];
+                            bi = im[(y + 1) * half + k];
+                        }
+                    } else {
+                        ar = re[y * half + n - k];
+                        ai = -im[y * half + n - k];
+                        if (pair) {
+                            br = re[(y + 1) * half + n - k];
+                            bi = -im[(y + 1) * half + n - k];
+                        }
+                    }
+                    a[k] = ar - bi;
+                    b[k] = ai + br;
+                }
+                fft(a, b, true);
+                for (int x = 0; x < n; x++) {
+                    out[y * n + x] = a[x] * scale;
+                    if (pair) out[(y + 1) * n + x] = b[x] * scale;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/**
+ * A set of filters of the same size that are convoluted with an image together, like
+ * "sobel v" and "sobel h" for edge detection.
+ *
+ * Every tile of the output convolutes all the filters of the bank while its part of the
+ * image is still in cache (tiles are sized for that, see ConvolutionEngine.getTileHeight),
+ * and the responses are combined by a Reducer before the tile is left. The image is read
+ * from memory once for the whole bank and no full size response is ever made, where
+ * convoluting every filter on its own and combining the results afterwards reads the image
+ * once per filter and makes N planes the size of the output that a last loop reads again.
+ *
+ * Filters are convoluted two at a time (see ConvolutionEngine.sumRegionPair): every value
+ * of a neighbourhood is loaded once for both, and taps that are 0 in both filters are not
+ * read at all, so "sobel v" and "sobel h" together read 8 values per output instead of
+ * 2 x 9. A pair is only fused when that gives the same values as convoluting each filter
+ * on its own, which is when both filters are whole-numbered or neither is separable,
+ * other filters run on their own.
+ *
+ * Every response is the sum over the channels of each channel's convolution truncated to
+ * an int, the same values as ImageUtils.preformRGBConvolutionStridedPadded gives for that
+ * filter. Filters always take the direct (or separable) loops, never the FFT.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/18/19
+ **/
+public class FilterBank {
+
+    /**
+     * How the responses of the filters are combined into a single value.
+     */
+    public enum Reducer {
+        /**
+         * Length of the vector of responses, sqrt(r0^2 + r1^2 + ...), truncated.
+         * For ("sobel v", "sobel h") this is the gradient magnitude.
+         */
+        MAGNITUDE,
+        /**
+         * Angle of (first response, second response) in degrees, 0 -> 359, rounded.
+         * For ("sobel v", "sobel h") this is the direction of the gradient.
+         * Needs at least two filters, other filters are ignored.
+         */
+        ORIENTATION,
+        /**
+         * Largest response, for compass style banks.
+         */
+        MAX_RESPONSE
+    }
+
+    /**
+     * Names of the filters, for descriptions.
+     */
+    private final String[] names;
+
+    /**
+     * Compiled filters.
+     */
+    private final Kernel[] kernels;
+
+    /**
+     * For every pair of filters (0 and 1, 2 and 3...), the taps where either is not 0,
+     * null when the pair is not fused.
+     */
+    private final int[][] pairTaps;
+
+    /**
+     * Creates a bank of filters of the registry (see ImageUtils.getKernel).
+     * @param names of the filters, all of the same size.
+     */
+    public FilterBank(String... names) {
+        this.names = names.clone();
+        this.kernels = new Kernel[names.length];
+        for (int n = 0; n < names.length; n++) {
+            kernels[n] = ImageUtils.getKernel(names[n]);
+            if (kernels[n] == null) throw new IllegalArgumentException("No filter named " + names[n]);
+        }
+        checkSizes();
+        pairTaps = getPairTaps(kernels);
+    }
+
+    /**
+     * Creates a bank of any filters.
+     * @param filters matrices of doubles that represent filters, all of the same size.
+     */
+    public FilterBank(Double[][]... filters) {
+        this.names = new String[filters.length];
+        this.kernels = new Kernel[filters.length];
+        for (int n = 0; n < filters.length; n++) {
+            kernels[n] = ImageUtils.getKernel(filters[n]);
+            names[n] = kernels[n].getWidth() + "x" + kernels[n].getHeight() + "#" + n;
+        }
+        checkSizes();
+        pairTaps = getPairTaps(kernels);
+    }
+
+    /**
+     * Makes sure the bank has filters and that they can share tiles.
+     */
+    private void checkSizes() {
+        if (kernels.length == 0) throw new IllegalArgumentException("A filter bank needs at least one filter");
+        for (Kernel k : kernels) {
+            if (k.getWidth() != kernels[0].getWidth() || k.getHeight() != kernels[0].getHeight()) {
+                throw new IllegalArgumentException("Filters of a bank must have the same size, got "
+                        + kernels[0].getWidth() + "x" + kernels[0].getHeight() + " and " + k.getWidth() + "x" + k.getHeight());
+            }
+        }
+    }
+
+    /**
+     * Finds which pairs of filters can be fused and the taps they read.
+     * @param kernels compiled filters of the same size.
+     * @return taps of every pair, null for pairs that are not fused.
+     */
+    private static int[][] getPairTaps(Kernel[] kernels) {
+        int[][] taps = new int[kernels.length / 2][];
+        for (int i = 0; i < taps.length; i++) {
+            Kernel a = kernels[2 * i];
+            Kernel b = kernels[2 * i + 1];
+            //the separable loops sum in another order, which only gives the same values for whole numbers
+            boolean direct = !a.useSeparable() && !b.useSeparable();
+            if (!direct && !(a.isWholeNumbered() && b.isWholeNumbered())) continue;
+            double[] va = a.getValues();
+            double[] vb = b.getValues();
+            int n = 0;
+            for (int f = 0; f < va.length; f++) if (va[f] != 0 || vb[f] != 0) n++;
+            taps[i] = new int[n];
+            n = 0;
+            for (int f = 0; f < va.length; f++) if (va[f] != 0 || vb[f] != 0) taps[i][n++] = f;
+        }
+        return taps;
+    }
+
+    /**
+     * Convolutes every filter of the bank with all channels of an image, padded to keep
+     * the size of the image.
+     * @param img image to convolute.
+     * @param mode what the padding holds.
+     * @return image with one channel per filter.
+     */
+    public PlanarImage convolve(PlanarImage img, BorderMode mode) {
+        return convolve(img, 1, getPadding(), mode);
+    }
+
+    /**
+     * Convolutes every filter of the bank with all channels of an image.
+     * @param img image to convolute.
+     * @param s stride of the convolution.
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return image with one channel per filter.
+     */
+    public PlanarImage convolve(PlanarImage img, int s, int p, BorderMode mode) {
+        return run(img, null, s, p, mode);
+    }
+
+    /**
+     * Convolutes every filter of the bank with all channels of an image, padded to keep
+     * the size of the image, and combines the responses.
+     * @param img image to convolute.
+     * @param reducer how to combine the responses.
+     * @param mode what the padding holds.
+     * @return single channel image of the same size.
+     */
+    public PlanarImage reduce(PlanarImage img, Reducer reducer, BorderMode mode) {
+        return reduce(img, reducer, 1, getPadding(), mode);
+    }
+
+    /**
+     * Convolutes every filter of the bank with all channels of an image and combines
+     * the responses.
+     * @param img image to convolute.
+     * @param reducer how to combine the responses.
+     * @param s stride of the convolution.
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return single channel image.
+     */
+    public PlanarImage reduce(PlanarImage img, Reducer reducer, int s, int p, BorderMode mode) {
+        if (reducer == Reducer.ORIENTATION && kernels.length < 2) {
+            throw new IllegalArgumentException("ORIENTATION needs at least two filters");
+        }
+        return run(img, reducer, s, p, mode);
+    }
+
+    /**
+     * Convolutes the bank tile by tile, writing either every response or their reduction.
+     * @param reducer how to combine the responses, null to keep them all.
+     */
+    private PlanarImage run(PlanarImage img, Reducer reducer, int s, int p, BorderMode mode) {
+        int kw = kernels[0].getWidth();
+        int kh = kernels[0].getHeight();
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), kw, kh);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            int ow = getOutputSize(img.getWidth(), kw, s, p);
+            int oh = getOutputSize(img.getHeight(), kh, s, p);
+            PlanarImage output = new PlanarImage(ow, oh, reducer == null ? kernels.length : 1);
+            //every channel of the image uses the same filter
+            Kernel[][] channels = new Kernel[kernels.length][img.getChannels()];
+            for (int n = 0; n < kernels.length; n++) {
+                for (int c = 0; c < img.getChannels(); c++) channels[n][c] = kernels[n];
+            }
+            int stride = s, pad = p;
+            boolean vector = s == 1 && ConvolutionEngine.isVectorized();
+            ConvolutionEngine.forEachTile(oh, ow, ConvolutionEngine.getTileHeight(kh, kw, s), ConvolutionEngine.TILE_WIDTH, (y0, y1, x0, x1) -> {
+                int th = y1 - y0;
+                int tw = x1 - x0;
+                if (reducer == null) {
+                    int[][] planes = new int[kernels.length][];
+                    for (int n = 0; n < kernels.length; n++) planes[n] = output.getPlane(n);
+                    convolveTile(img, channels, stride, pad, mode, vector, planes, y0 * ow + x0, ow, y0, y1, x0, x1);
+                    return;
+                }
+                int[][] responses = new int[kernels.length][th * tw];
+                convolveTile(img, channels, stride, pad, mode, vector, responses, 0, tw, y0, y1, x0, x1);
+                int[] dst = output.getPlane(0);
+                for (int y = 0; y < th; y++) {
+                    int o = (y0 + y) * ow + x0;
+                    reduceRow(reducer, responses, y * tw, dst, o, tw);
+                }
+            });
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Convolutes a tile with every filter, fused pairs together and the rest on their own.
+     * @param channels every filter once per channel of the image.
+     * @param dst one output per filter, output (y0, x0) is written to dst[n][dstOff].
+     * @param pitch distance between two rows in dst.
+     */
+    private void convolveTile(PlanarImage img, Kernel[][] channels, int s, int p, BorderMode mode, boolean vector,
+                              int[][] dst, int dstOff, int pitch, int y0, int y1, int x0, int x1) {
+        for (int n = 0; n < kernels.length; n++) {
+            if (n % 2 == 0 && n / 2 < pairTaps.length && pairTaps[n / 2] != null) {
+                ConvolutionEngine.sumRegionPair(img, channels[n], channels[n + 1], pairTaps[n / 2], s, p, mode, vector,
+                        dst[n], dst[n + 1], dstOff, pitch, y0, y1, x0, x1);
+                n++;
+            } else {
+                ConvolutionEngine.sumRegion(img, channels[n], s, p, mode, vector, dst[n], dstOff, pitch, y0, y1, x0, x1);
+            }
+        }
+    }
+
+    /**
+     * Combines a row of responses.
+     * @param reducer how to combine the responses.
+     * @param responses one array per filter.
+     * @param i index in responses of the first value.
+     * @param dst where the combined values go.
+     * @param o index in dst of the first value.
+     * @param n amount of values.
+     */
+    private static void reduceRow(Reducer reducer, int[][] responses, int i, int[] dst, int o, int n) {
+        switch (reducer) {
+            case MAGNITUDE:
+                for (int x = 0; x < n; x++) {
+                    double sum = 0;
+                    for (int[] r : responses) {
+                        double v = r[i + x];
+                        sum += v * v;
+                    }
+                    dst[o + x] = (int) Math.sqrt(sum);
+                }
+                break;
+            case ORIENTATION:
+                int[] first = responses[0];
+                int[] second = responses[1];
+                for (int x = 0; x < n; x++) {
+                    long degrees = Math.round(Math.toDegrees(Math.atan2(second[i + x], first[i + x])));
+                    dst[o + x] = (int) Math.floorMod(degrees, 360L);
+                }
+                break;
+            case MAX_RESPONSE:
+                System.arraycopy(responses[0], i, dst, o, n);
+                for (int r = 1; r < responses.length; r++) {
+                    int[] values = responses[r];
+                    for (int x = 0; x < n; x++) {
+                        if (values[i + x] > dst[o + x]) dst[o + x] = values[i + x];
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Gets the size of the output along one axis.
+     * @param n size of the input.
+     * @param k size of the filters.
+     * @param s stride.
+     * @param p padding on every side.
+     * @return ((n + 2p - k) / s) + 1
+     */
+    private static int getOutputSize(int n, int k, int s, int p) {
+        if (k > n + 2 * p) throw new IllegalArgumentException("Filter of size " + k + " does not fit in an image of size " + n);
+        return ((n + 2 * p - k) / s) + 1;
+    }
+
+    /**
+     * @return padding that keeps the size of the image, like ImageUtils.preformRGBConvolutionPadded.
+     */
+    public int getPadding() {
+        return (kernels[0].getHeight() - 1) / 2;
+    }
+
+    /**
+     * @return amount of filters in the bank.
+     */
+    public int size() {
+        return kernels.length;
+    }
+
+    /**
+     * @param n index of the filter.
+     * @return compiled filter n.
+     */
+    public Kernel getKernel(int n) {
+        return kernels[n];
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", names);
+    }
+}
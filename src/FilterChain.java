@@ -0,0 +1,187 @@
+import java.util.ArrayList;
+import java.util.function.UnaryOperator;
+
+/**
+ * A list of operations that are run one after the other on a PlanarImage,
+ * for example a padded convolution followed by max pooling.
+ * Every operation also has a canonical description (filter values, stride, padding,
+ * window sizes), and getDescription joins them, so two chains that compute the same
+ * thing have the same description.
+ *
+ * A chain is built once and can then be applied from any amount of threads.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/8/19
+ **/
+public class FilterChain {
+
+    private final ArrayList<UnaryOperator<PlanarImage>> steps = new ArrayList<>();
+    private final ArrayList<String> descriptions = new ArrayList<>();
+
+    /**
+     * Adds an RGB convolution with a filter of the registry (see ImageUtils.getFiler),
+     * padded to keep the size of the image.
+     * @param filterName name of the filter.
+     * @return this chain.
+     */
+    public FilterChain addConvolution(String filterName) {
+        Double[][] filter = ImageUtils.getFiler(filterName);
+        if (filter == null) throw new IllegalArgumentException("No filter named " + filterName);
+        return addConvolution(filter);
+    }
+
+    /**
+     * Adds an RGB convolution padded to keep the size of the image
+     * (see ImageUtils.preformRGBConvolutionPadded).
+     * @param filter to use for every channel.
+     * @return this chain.
+     */
+    public FilterChain addConvolution(Double[][] filter) {
+        return addConvolution(filter, 1, (filter.length - 1) / 2, BorderMode.ZERO);
+    }
+
+    /**
+     * Adds an RGB convolution with a stride and padding
+     * (see ImageUtils.preformRGBConvolutionStridedPadded).
+     * @param filter to use for every channel.
+     * @param s stride of the convolution.
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return this chain.
+     */
+    public FilterChain addConvolution(Double[][] filter, int s, int p, BorderMode mode) {
+        StringBuilder sb = describe(filter);
+        sb.append(",s=").append(s).append(",p=").append(p).append(',').append(mode).append(')');
+        return add(sb.toString(), img -> ImageUtils.preformRGBConvolutionStridedPadded(img, filter, s, p, mode));
+    }
+
+    /**
+     * Adds a dilated (atrous) RGB convolution with a stride and padding
+     * (see ImageUtils.preformRGBConvolutionDilated).
+     * @param filter to use for every channel.
+     * @param s stride of the convolution.
+     * @param d dilation, the distance between two filter values on the image.
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return this chain.
+     */
+    public FilterChain addDilatedConvolution(Double[][] filter, int s, int d, int p, BorderMode mode) {
+        StringBuilder sb = describe(filter);
+        sb.append(",s=").append(s).append(",d=").append(d).append(",p=").append(p).append(',').append(mode).append(')');
+        return add(sb.toString(), img -> ImageUtils.preformRGBConvolutionDilated(img, filter, s, s, d, d, p, p, mode));
+    }
+
+    /**
+     * Adds an RGB convolution with several filters of the registry in one pass, padded to
+     * keep the size of the image, whose responses are combined (see FilterBank).
+     * @param reducer how to combine the responses.
+     * @param mode what the padding holds.
+     * @param filterNames names of the filters, all of the same size.
+     * @return this chain.
+     */
+    public FilterChain addFilterBank(FilterBank.Reducer reducer, BorderMode mode, String... filterNames) {
+        FilterBank bank = new FilterBank(filterNames);
+        return add("bank(" + bank + "," + reducer + "," + mode + ")", img -> bank.reduce(img, reducer, mode));
+    }
+
+    /**
+     * Starts the description of a convolution with the size and every value of its filter.
+     */
+    private static StringBuilder describe(Double[][] filter) {
+        StringBuilder sb = new StringBuilder("convolution(");
+        sb.append(filter[0].length).append('x').append(filter.length).append('[');
+        for (int y = 0; y < filter.length; y++) {
+            for (int x = 0; x < filter[y].length; x++) {
+                if (y > 0 || x > 0) sb.append(',');
+                sb.append(filter[y][x]);
+            }
+        }
+        return sb.append(']');
+    }
+
+    /**
+     * Adds max pooling of every channel (see ImageUtils.operationMaxPooling).
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return this chain.
+     */
+    public FilterChain addMaxPooling(int w, int h, int s) {
+        return add("max(" + w + "x" + h + ",s=" + s + ")", img -> ImageUtils.operationMaxPooling(img, w, h, s));
+    }
+
+    /**
+     * Adds min pooling of every channel (see ImageUtils.operationMinPooling).
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return this chain.
+     */
+    public FilterChain addMinPooling(int w, int h, int s) {
+        return add("min(" + w + "x" + h + ",s=" + s + ")", img -> ImageUtils.operationMinPooling(img, w, h, s));
+    }
+
+    /**
+     * Adds average pooling of every channel (see ImageUtils.operationAvgPooling).
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return this chain.
+     */
+    public FilterChain addAvgPooling(int w, int h, int s) {
+        return add("avg(" + w + "x" + h + ",s=" + s + ")", img -> ImageUtils.operationAvgPooling(img, w, h, s));
+    }
+
+    /**
+     * Adds fixing every value to be within 0 -> 255 (see ImageUtils.fixRGBValues).
+     * @return this chain.
+     */
+    public FilterChain addFixRGBValues() {
+        return add("fix", ImageUtils::fixRGBValues);
+    }
+
+    /**
+     * Adds any operation.
+     * @param description canonical description of the operation, the same for every
+     *                    operation that computes the same thing.
+     * @param step the operation.
+     * @return this chain.
+     */
+    public FilterChain add(String description, UnaryOperator<PlanarImage> step) {
+        steps.add(step);
+        descriptions.add(description);
+        return this;
+    }
+
+    /**
+     * Runs every operation on an image.
+     * @param img image to filter, not changed.
+     * @return the filtered image.
+     */
+    public PlanarImage apply(PlanarImage img) {
+        for (UnaryOperator<PlanarImage> step : steps) {
+            img = step.apply(img);
+        }
+        return img;
+    }
+
+    /**
+     * @return amount of operations.
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * @return canonical description of every operation, in order, joined by " | ".
+     */
+    public String getDescription() {
+        return String.join(" | ", descriptions);
+    }
+
+    @Override
+    public String toString() {
+        return getDescription();
+    }
+}
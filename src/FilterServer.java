@@ -0,0 +1,322 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An HTTP endpoint that filters uploaded images, built on the JDK's com.sun.net.httpserver.
+ *
+ * POST /filter?name=sobel+h with a .png or .jpg as the body answers with the image
+ * convoluted (padded, see ImageUtils.preformRGBConvolutionPadded) by the filter of that
+ * name from the registry (ImageUtils.getFiler), as a .png.
+ *
+ * Requests are read and answered on their own threads: virtual threads when the JDK has
+ * them (Java 21 and up, looked up at runtime), otherwise a cached pool of platform threads.
+ * Decoding, filtering and encoding run on a separate fixed pool of CPU threads.
+ * At most cpuThreads + maxQueued requests are admitted at a time, any request above that
+ * is answered with 503 and a Retry-After header right away, before its upload is read,
+ * so a burst of requests queues a bounded amount of work instead of growing latency
+ * (and memory) for everyone. A request that times out is answered right away but keeps
+ * its place until its filtering ends, since a convolution can't be stopped half way.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/10/19
+ **/
+public class FilterServer {
+
+    /**
+     * Largest upload accepted when no other limit is set.
+     */
+    public static final int DEFAULT_MAX_UPLOAD_BYTES = 64 * 1024 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final ExecutorService cpu;
+    private final Semaphore admission;
+    private final boolean virtualThreads;
+    private volatile int maxUploadBytes = DEFAULT_MAX_UPLOAD_BYTES;
+    private volatile long maxPixels = 100_000_000L;
+    private volatile long timeoutMillis = 30_000;
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile ResultCache resultCache;
+
+    /**
+     * Creates a server with one CPU thread per core and room for twice as many queued requests.
+     * @param port to listen on, 0 for any free port.
+     * @throws IOException if the port can't be bound.
+     */
+    public FilterServer(int port) throws IOException {
+        this(port, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Creates a server, call start to begin answering requests.
+     * @param port to listen on, 0 for any free port.
+     * @param cpuThreads amount of threads decoding, filtering and encoding images.
+     * @param maxQueued amount of admitted requests that may wait for a CPU thread.
+     * @throws IOException if the port can't be bound.
+     */
+    public FilterServer(int port, int cpuThreads, int maxQueued) throws IOException {
+        cpuThreads = Math.max(1, cpuThreads);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        requests = virtual != null ? virtual : Executors.newCachedThreadPool(daemonThreads("filter-request"));
+        cpu = Executors.newFixedThreadPool(cpuThreads, daemonThreads("filter-cpu"));
+        admission = new Semaphore(cpuThreads + Math.max(0, maxQueued));
+        server.setExecutor(requests);
+        server.createContext("/filter", this::handleFilter);
+    }
+
+    /**
+     * @param n largest upload in bytes, bigger ones are answered with 413.
+     */
+    public void setMaxUploadBytes(int n) {
+        maxUploadBytes = n;
+    }
+
+    /**
+     * @param n largest width * height of an upload, bigger ones are answered with 413
+     *          after reading only their header.
+     */
+    public void setMaxPixels(long n) {
+        maxPixels = n;
+    }
+
+    /**
+     * @param millis how long a request may wait for and use a CPU thread before it is answered with 503.
+     */
+    public void setTimeoutMillis(long millis) {
+        timeoutMillis = millis;
+    }
+
+    /**
+     * @param cache to look outputs up in before filtering, null (the default) to always filter.
+     */
+    public void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops answering requests and shuts the threads down.
+     * @param delaySeconds how long to wait for requests that are being answered.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        cpu.shutdownNow();
+        requests.shutdownNow();
+    }
+
+    /**
+     * @return port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return true if requests run on virtual threads.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return amount of images filtered.
+     */
+    public long getServed() {
+        return served.get();
+    }
+
+    /**
+     * @return amount of requests turned away with 503.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void handleFilter(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, "Use POST with an image as the body");
+                return;
+            }
+            String name = getParameter(exchange.getRequestURI().getRawQuery(), "name");
+            Double[][] filter = name == null ? null : ImageUtils.getFiler(name);
+            if (filter == null) {
+                send(exchange, 404, "No filter named " + name);
+                return;
+            }
+            if (!admission.tryAcquire()) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, "Too many requests");
+                return;
+            }
+            //the permit is released here until the work is handed to a CPU thread, then by that work when it ends
+            boolean handedOff = false;
+            try {
+                byte[] upload = readUpload(exchange.getRequestBody());
+                if (upload == null) {
+                    send(exchange, 413, "Upload is bigger than " + maxUploadBytes + " bytes");
+                    return;
+                }
+                ImageInfo info;
+                try {
+                    info = ImageInfo.read(upload);
+                } catch (IOException e) {
+                    send(exchange, 400, "Body is not a .png or .jpg");
+                    return;
+                }
+                if (info.getPixels() > maxPixels) {
+                    send(exchange, 413, "Image of " + info.getWidth() + " x " + info.getHeight() + " is too big");
+                    return;
+                }
+                AtomicBoolean started = new AtomicBoolean();
+                Future<byte[]> result = cpu.submit(() -> {
+                    if (!started.compareAndSet(false, true)) return null;
+                    try {
+                        return filter(upload, filter);
+                    } finally {
+                        //filtering does not stop when cancelled, so it holds its permit until it is done
+                        admission.release();
+                    }
+                });
+                handedOff = true;
+                byte[] png;
+                try {
+                    png = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    abandon(result, started);
+                    rejected.incrementAndGet();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    send(exchange, 503, "Timed out");
+                    return;
+                } catch (ExecutionException e) {
+                    send(exchange, 422, "Can't filter the image: " + e.getCause());
+                    return;
+                } catch (InterruptedException e) {
+                    abandon(result, started);
+                    Thread.currentThread().interrupt();
+                    send(exchange, 503, "Server is stopping");
+                    return;
+                }
+                served.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Type", "image/png");
+                exchange.sendResponseHeaders(200, png.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(png);
+                }
+            } finally {
+                if (!handedOff) admission.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Gives up on a submitted request. Its permit is released here only if the work never
+     * started, otherwise the work releases it when it ends.
+     */
+    private void abandon(Future<byte[]> result, AtomicBoolean started) {
+        result.cancel(true);
+        if (started.compareAndSet(false, true)) admission.release();
+    }
+
+    /**
+     * Decodes, filters and encodes an upload, on a CPU thread.
+     */
+    private byte[] filter(byte[] upload, Double[][] filter) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(upload));
+        if (img == null) throw new IOException("Can't decode the image");
+        FilterChain chain = new FilterChain().addConvolution(filter);
+        PlanarImage input = ImageUtils.getPlanarImageFromImage(img);
+        ResultCache cache = resultCache;
+        PlanarImage out = cache != null ? cache.apply(chain, input) : chain.apply(input);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PngStreamWriter writer = new PngStreamWriter(bytes, out.getWidth(), out.getHeight(), false, -1)) {
+            writer.writeRows(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the whole body, or gives null if it is bigger than maxUploadBytes.
+     */
+    private byte[] readUpload(InputStream in) throws IOException {
+        int limit = maxUploadBytes;
+        byte[] data = in.readNBytes(limit + 1);
+        return data.length > limit ? null : data;
+    }
+
+    /**
+     * Gets a parameter of a query string, like "name=sobel+h".
+     */
+    private static String getParameter(String query, String key) {
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8).equals(key)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, which only exists on Java 21 and up.
+     * @return the executor, or null when the JDK has no virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
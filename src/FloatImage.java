@@ -0,0 +1,245 @@
+/**
+ * An image stored as one flat float array per channel, laid out like PlanarImage:
+ * pixel (x, y) of channel c lives at planes[c][offset + y * stride + x].
+ *
+ * Holds the outputs of the float convolutions and pooling (see FloatConvolution), which
+ * keep fractions instead of truncating every output to an int. A float is half the size
+ * of a double and a vector register holds twice as many of them, for image values its
+ * 24 bits of precision are plenty.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/16/19
+ **/
+public class FloatImage implements FloatSource {
+
+    /**
+     * Width and height of the image in pixels.
+     */
+    private final int width, height;
+
+    /**
+     * Distance in the array between the start of two rows.
+     */
+    private final int stride;
+
+    /**
+     * Index of pixel (0, 0) in each plane.
+     */
+    private final int offset;
+
+    /**
+     * One array per channel.
+     */
+    private final float[][] planes;
+
+    /**
+     * Creates a new image of the given size filled with 0's.
+     * @param width of the image.
+     * @param height of the image.
+     * @param channels amount of channels (3 for RGB, 1 for gray-scaled).
+     */
+    public FloatImage(int width, int height, int channels) {
+        this(width, height, width, 0, new float[channels][width * height]);
+    }
+
+    /**
+     * Creates an image around existing planes, no data is copied.
+     * @param width of the image.
+     * @param height of the image.
+     * @param stride distance between two rows in each plane.
+     * @param offset index of pixel (0, 0) in each plane.
+     * @param planes one array per channel.
+     */
+    public FloatImage(int width, int height, int stride, int offset, float[][] planes) {
+        if (width < 0 || height < 0 || stride < width || offset < 0) {
+            throw new IllegalArgumentException("Invalid image layout " + width + "x" + height
+                    + " stride " + stride + " offset " + offset);
+        }
+        for (float[] plane : planes) {
+            if (height > 0 && plane.length < offset + (height - 1) * stride + width) {
+                throw new IllegalArgumentException("Plane is too small for a " + width + "x" + height + " image");
+            }
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.offset = offset;
+        this.planes = planes;
+    }
+
+    /**
+     * Copies an image into a new float image.
+     * @param img image to copy.
+     * @return new image with the same contents.
+     */
+    public static FloatImage fromPlanarImage(PlanarImage img) {
+        int w = img.getWidth();
+        FloatImage f = new FloatImage(w, img.getHeight(), img.getChannels());
+        for (int c = 0; c < img.getChannels(); c++) {
+            int[] src = img.getPlane(c);
+            float[] dst = f.planes[c];
+            for (int y = 0; y < img.getHeight(); y++) {
+                int i = img.getOffset() + y * img.getStride();
+                int o = y * w;
+                for (int x = 0; x < w; x++) {
+                    dst[o + x] = src[i + x];
+                }
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Copies a matrix into a new single channel image.
+     * @param matrix of [y][x] values.
+     * @return new image with the same contents, rounded to floats.
+     */
+    public static FloatImage fromMatrix(Double[][] matrix) {
+        int h = matrix.length;
+        int w = matrix[0].length;
+        FloatImage img = new FloatImage(w, h, 1);
+        float[] plane = img.planes[0];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                plane[y * w + x] = matrix[y][x].floatValue();
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Copies this image into an int image, truncating every value like a cast.
+     * @return new image of the same size.
+     */
+    public PlanarImage toPlanarImage() {
+        PlanarImage img = new PlanarImage(width, height, planes.length);
+        for (int c = 0; c < planes.length; c++) {
+            float[] src = planes[c];
+            int[] dst = img.getPlane(c);
+            for (int y = 0; y < height; y++) {
+                int i = offset + y * stride;
+                int o = y * width;
+                for (int x = 0; x < width; x++) {
+                    dst[o + x] = (int) src[i + x];
+                }
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Copies a single channel of this image back into a boxed matrix.
+     * @param c channel to copy.
+     * @return matrix of [y][x] values.
+     */
+    public Double[][] toMatrix(int c) {
+        float[] plane = planes[c];
+        Double[][] matrix = new Double[height][width];
+        for (int y = 0; y < height; y++) {
+            int i = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                matrix[y][x] = (double) plane[i + x];
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns a view of a single channel, sharing its plane with this image.
+     * @param c channel to view.
+     * @return single channel image.
+     */
+    public FloatImage getChannel(int c) {
+        return new FloatImage(width, height, stride, offset, new float[][]{planes[c]});
+    }
+
+    /**
+     * Returns a view of a rectangle of this image, sharing its planes with this image.
+     * @param x left of the region.
+     * @param y top of the region.
+     * @param w width of the region.
+     * @param h height of the region.
+     * @return image of w x h.
+     */
+    public FloatImage getRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("Region " + x + "," + y + " " + w + "x" + h
+                    + " is outside of a " + width + "x" + height + " image");
+        }
+        return new FloatImage(w, h, stride, offset + y * stride + x, planes);
+    }
+
+    /**
+     * Copies this image into new tightly packed planes.
+     * @return new image with the same contents.
+     */
+    public FloatImage copy() {
+        FloatImage img = new FloatImage(width, height, planes.length);
+        for (int c = 0; c < planes.length; c++) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(planes[c], offset + y * stride, img.planes[c], y * width, width);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Gets the value of a pixel.
+     * @param c channel of the pixel.
+     * @param x column of the pixel.
+     * @param y row of the pixel.
+     * @return value at (x, y).
+     */
+    public float get(int c, int x, int y) {
+        return planes[c][offset + y * stride + x];
+    }
+
+    /**
+     * Sets the value of a pixel.
+     * @param c channel of the pixel.
+     * @param x column of the pixel.
+     * @param y row of the pixel.
+     * @param v new value.
+     */
+    public void set(int c, int x, int y, float v) {
+        planes[c][offset + y * stride + x] = v;
+    }
+
+    @Override
+    public void readRow(int c, int x, int y, int n, float[] dst, int o) {
+        System.arraycopy(planes[c], offset + y * stride + x, dst, o, n);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public int getChannels() {
+        return planes.length;
+    }
+
+    /**
+     * Gets the backing array of a channel, use with getOffset() and getStride().
+     * @param c channel to get.
+     * @return the plane itself (not a copy).
+     */
+    public float[] getPlane(int c) {
+        return planes[c];
+    }
+}
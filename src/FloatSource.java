@@ -0,0 +1,27 @@
+/**
+ * Anything the float convolutions and pooling can read rows of floats from,
+ * a FloatImage or the bytes of a ByteImage.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/16/19
+ **/
+public interface FloatSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    int getChannels();
+
+    /**
+     * Reads n values of a row as floats.
+     * @param c channel to read.
+     * @param x first column, n values from x on must be inside the image.
+     * @param y row to read.
+     * @param n amount of values.
+     * @param dst array to fill.
+     * @param o index in dst of the first value.
+     */
+    void readRow(int c, int x, int y, int n, float[] dst, int o);
+}
@@ -0,0 +1,95 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds, recorded from any amount of threads without locks.
+ *
+ * Values are counted in power of two buckets (bucket b holds 2^(b-1) -> 2^b - 1), so
+ * recording is a few instructions and the whole histogram is 64 longs, at the cost of
+ * percentiles only being known to within a factor of 2. Count, mean and max are exact.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/13/19
+ **/
+public class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos latency to add, negative values count as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return amount of latencies recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of every latency recorded.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return mean latency, 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * @return largest latency recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets an upper bound of a percentile, at most twice the real value.
+     * @param p percentile, 0 -> 100.
+     * @return largest value of the bucket the percentile falls in, capped at getMax.
+     */
+    public long getPercentile(double p) {
+        long n = getCount();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(p / 100 * n);
+        long seen = 0;
+        for (int b = 0; b < 64; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank && seen > 0) return Math.min(b == 0 ? 0 : (1L << b) - 1, getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Forgets every latency recorded.
+     */
+    public void reset() {
+        for (int b = 0; b < 64; b++) buckets.set(b, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.3f ms, p50 <= %.3f ms, p99 <= %.3f ms, max %.3f ms",
+                getCount(), getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(99) / 1e6, getMax() / 1e6);
+    }
+}
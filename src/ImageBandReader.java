@@ -0,0 +1,86 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads an image file in horizontal bands, so only the rows of a single band are decoded
+ * into memory at a time (ImageReadParam.setSourceRegion).
+ *
+ * The ImageIO readers for .png and .jpg decode a file from its start, so every band also
+ * decodes (and throws away) the rows above it: the memory used stays the size of a band,
+ * but reading takes longer the more bands an image is cut into.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/3/19
+ **/
+public class ImageBandReader implements ImageBandSource {
+
+    private final ImageInputStream stream;
+    private final ImageReader reader;
+    private final int width, height;
+
+    /**
+     * Opens an image file and reads its size.
+     * @param path of the image.
+     * @throws IOException if the file can't be read or no ImageReader knows its format.
+     */
+    public ImageBandReader(String path) throws IOException {
+        File f = new File(path);
+        if (!f.exists()) throw new IOException("No file at " + path);
+        stream = ImageIO.createImageInputStream(f);
+        if (stream == null) throw new IOException("Can't open " + path);
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            stream.close();
+            throw new IOException("No ImageReader for " + path);
+        }
+        reader = readers.next();
+        reader.setInput(stream, true, true);
+        try {
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decodes rows y -> y + rows of the image.
+     * @param y first row of the band.
+     * @param rows height of the band.
+     * @return the band as an image, see ImageUtils.getPlanarImageFromImage.
+     * @throws IOException if the file can't be decoded.
+     */
+    @Override
+    public PlanarImage readBand(int y, int rows) throws IOException {
+        if (y < 0 || rows < 1 || y + rows > height) throw new IllegalArgumentException("Rows " + y + " -> " + (y + rows) + " are outside an image of height " + height);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, y, width, rows));
+        BufferedImage band = reader.read(0, param);
+        return ImageUtils.getPlanarImageFromImage(band);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        stream.close();
+    }
+}
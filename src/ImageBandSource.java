@@ -0,0 +1,26 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Anything an image can be read from in horizontal bands, such as an image file
+ * (ImageBandReader) or a cached raw image (PlanarImageFile).
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/5/19
+ **/
+public interface ImageBandSource extends Closeable {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Reads rows y -> y + rows of the image.
+     * @param y first row of the band.
+     * @param rows height of the band.
+     * @return the band as an image.
+     * @throws IOException if the band can't be read.
+     */
+    PlanarImage readBand(int y, int rows) throws IOException;
+}
@@ -0,0 +1,126 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A directory of decoded images stored as PlanarImageFile's, so an image that is filtered
+ * many times is only decoded once.
+ *
+ * Entries are keyed by the canonical path, last modified time and size of the source file,
+ * so a changed source gets a new entry instead of an outdated one. Old entries are left
+ * in the directory until clear is called.
+ * New entries are written to a temporary file and moved into place, so several processes
+ * can share a directory.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/5/19
+ **/
+public class ImageCache {
+
+    /**
+     * Extension of the files in the directory.
+     */
+    public static final String EXTENSION = ".planar";
+
+    private final File directory;
+
+    /**
+     * Uses (and creates) the given directory.
+     * @param directory to keep the entries in.
+     * @throws IOException if the directory can't be made.
+     */
+    public ImageCache(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Can't make cache directory " + directory);
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the file the given image is (or would be) cached in.
+     * @param path of the source image.
+     * @return file in the cache directory.
+     * @throws IOException if the source doesn't exist.
+     */
+    public File getCacheFile(String path) throws IOException {
+        File source = new File(path);
+        if (!source.isFile()) throw new IOException("No file at " + path);
+        String key = source.getCanonicalPath() + "\n" + source.lastModified() + "\n" + source.length();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) sb.append(String.format("%02x", hash[i]));
+            return new File(directory, sb.append(EXTENSION).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Checks if an image has an up to date entry.
+     * @param path of the source image.
+     * @return true if opening it won't decode it.
+     */
+    public boolean contains(String path) {
+        try {
+            return getCacheFile(path).isFile();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the cached copy of an image, decoding and caching it first if needed.
+     * @param path of the source image (.png or .jpg).
+     * @return the mapped image.
+     * @throws IOException if the source can't be decoded or the entry can't be written.
+     */
+    public PlanarImageFile open(String path) throws IOException {
+        File cached = getCacheFile(path);
+        if (cached.isFile()) {
+            try {
+                return new PlanarImageFile(cached);
+            } catch (IOException e) {
+                //a broken entry is decoded again below and replaced
+            }
+        }
+        BufferedImage img = ImageUtils.getImage(path);
+        if (img == null) throw new IOException("Can't decode " + path);
+        Path tmp = Files.createTempFile(directory.toPath(), cached.getName(), ".tmp");
+        try {
+            PlanarImageFile.write(ImageUtils.getPlanarImageFromImage(img), tmp.toFile());
+            Files.move(tmp, cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return new PlanarImageFile(cached);
+    }
+
+    /**
+     * Gets an image through the cache, see open.
+     * @param path of the source image (.png or .jpg).
+     * @return copy of the image.
+     * @throws IOException if the source can't be decoded or the entry can't be written.
+     */
+    public PlanarImage getPlanarImage(String path) throws IOException {
+        return open(path).toPlanarImage();
+    }
+
+    /**
+     * Deletes every entry in the directory.
+     */
+    public void clear() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) return;
+        for (File f : files) f.delete();
+    }
+}
@@ -0,0 +1,183 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * What an image file holds, read from its header only: no pixel data is decoded,
+ * so checking a file costs a few hundred bytes of reading instead of a full decode.
+ * Lets callers size buffers and turn down images that are too big before reading them.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/6/19
+ **/
+public class ImageInfo {
+
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] JPEG_MAGIC = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+
+    private final File file;
+    private final String format;
+    private final int width, height, channels, bitsPerChannel, imageType;
+    private final boolean alpha;
+
+    private ImageInfo(File file, String format, int width, int height, int channels,
+                      int bitsPerChannel, int imageType, boolean alpha) {
+        this.file = file;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.bitsPerChannel = bitsPerChannel;
+        this.imageType = imageType;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Reads the header of a .png or .jpg file.
+     * The first bytes must be the signature of the format, then the ImageReader
+     * of the format reads the size and the layout of the pixels.
+     * @param file to read.
+     * @return what the file holds.
+     * @throws IOException if the file can't be read or isn't a .png or .jpg.
+     */
+    public static ImageInfo read(File file) throws IOException {
+        byte[] magic = new byte[PNG_MAGIC.length];
+        int n;
+        try (InputStream in = new FileInputStream(file)) {
+            n = in.readNBytes(magic, 0, magic.length);
+        }
+        return read(file, file.toString(), magic, n);
+    }
+
+    /**
+     * Reads the header of a .png or .jpg held in memory, for example an upload.
+     * @param data bytes of the image.
+     * @return what the image holds, getFile is null.
+     * @throws IOException if the data isn't a .png or .jpg.
+     */
+    public static ImageInfo read(byte[] data) throws IOException {
+        return read(null, "image", data, data.length);
+    }
+
+    /**
+     * Reads the header once the first bytes are known.
+     * @param file to read, or null to read data.
+     * @param name to use in messages.
+     * @param data the first n bytes of the image, or all of it when file is null.
+     * @param n amount of bytes in data.
+     */
+    private static ImageInfo read(File file, String name, byte[] data, int n) throws IOException {
+        String format;
+        if (startsWith(data, n, PNG_MAGIC)) format = "png";
+        else if (startsWith(data, n, JPEG_MAGIC)) format = "jpeg";
+        else throw new IOException(name + " is not a .png or .jpg");
+
+        Object input = file != null ? file : new ByteArrayInputStream(data, 0, n);
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) throw new IOException("Can't open " + name);
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format);
+            if (!readers.hasNext()) throw new IOException("No ImageReader for " + format);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int w = reader.getWidth(0);
+                int h = reader.getHeight(0);
+                ImageTypeSpecifier type = reader.getRawImageType(0);
+                if (type == null) {
+                    Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                    if (!types.hasNext()) throw new IOException("Unknown pixel layout in " + name);
+                    type = types.next();
+                }
+                return new ImageInfo(file, format, w, h, type.getNumBands(), type.getSampleModel().getSampleSize(0),
+                        type.getBufferedImageType(), type.getColorModel().hasAlpha());
+            } finally {
+                reader.dispose();
+            }
+        } catch (RuntimeException e) {
+            //readers throw runtime exceptions on some malformed headers
+            throw new IOException(name + " has a malformed header", e);
+        }
+    }
+
+    private static boolean startsWith(byte[] b, int n, byte[] magic) {
+        if (n < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (b[i] != magic[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return file the header was read from, or null if it was read from memory.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return "png" or "jpeg".
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return amount of channels stored in the file (1 gray, 3 RGB, 4 with alpha...).
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return bits of a single channel of a pixel, 8 for most images.
+     */
+    public int getBitsPerChannel() {
+        return bitsPerChannel;
+    }
+
+    /**
+     * @return BufferedImage type the file decodes to, or BufferedImage.TYPE_CUSTOM.
+     */
+    public int getImageType() {
+        return imageType;
+    }
+
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    /**
+     * @return amount of pixels, width * height.
+     */
+    public long getPixels() {
+        return (long) width * height;
+    }
+
+    /**
+     * @return most bytes the PlanarImage of this image can take, see ImageUtils.getPlanarImageFromImage.
+     */
+    public long getPlanarImageBytes() {
+        return getPixels() * 3 * Integer.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return (file == null ? "image" : file.getName()) + " (" + format + ", " + width + " x " + height + ", " + channels + " channels of " + bitsPerChannel + " bits" + (alpha ? ", alpha" : "") + ")";
+    }
+}
@@ -1,9 +1,15 @@
 import javax.imageio.ImageIO;
 import java.awt.*;
-import java.awt.image.BufferedImage;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
 
 /**
  * This class contains utilities for image to matrix conversion in both directions
@@ -13,6 +19,9 @@ import java.util.HashMap;
  * max pooling of any matrix, max pooling with strides
  * flattening of a matrix.
  *
+ * Every operation also has an overload for PlanarImage, which keeps each channel
+ * in one flat primitive array instead of boxed matrices.
+ *
  * This class contains the following basic filters, however any given filter can be used.
  * horizontal ("h"), vertical ("h"), scharr v/h ("scharr v/h"), sobel v/h ("sobel v/h")
  *
@@ -25,21 +34,41 @@ public class ImageUtils {
     /**
      * Returns true if the file with the given path (relative to src)
      * has a image file (ending in .png or .jpg).
+     * Only the header of the file is read, see getImageInfo.
      * @param path of given image.
      * @return true if file is an image.
      */
     public static boolean hasValidImageFile(String path) {
-        boolean good = false;
-        if (path.toLowerCase().endsWith(".png") || path.toLowerCase().endsWith(".jpg")) good = true;
-        if (!good) return false;
+        return getImageInfo(path) != null;
+    }
+
+    /**
+     * Returns true if the file with the given path has a image file
+     * of at most maxPixels pixels, without decoding it.
+     * @param path of given image.
+     * @param maxPixels largest width * height to accept.
+     * @return true if file is an image that isn't too big.
+     */
+    public static boolean hasValidImageFile(String path, long maxPixels) {
+        ImageInfo info = getImageInfo(path);
+        return info != null && info.getPixels() <= maxPixels;
+    }
+
+    /**
+     * Reads the size and layout of an image file (ending in .png or .jpg) from its
+     * signature and header, without decoding any pixels.
+     * @param path of given image.
+     * @return what the image holds, or null if the file doesn't exist or isn't a valid image.
+     */
+    public static ImageInfo getImageInfo(String path) {
+        if (!path.toLowerCase().endsWith(".png") && !path.toLowerCase().endsWith(".jpg")) return null;
+        File f = new File(path);
+        if (!f.isFile()) return null;
         try {
-            File f = new File(path);
-            BufferedImage bi = ImageIO.read(f);
-            if (!f.exists() || bi == null) return false;
-        } catch (Exception e) {
-            return false;
+            return ImageInfo.read(f);
+        } catch (IOException e) {
+            return null;
         }
-        return true;
     }
 
     /**
@@ -56,31 +85,246 @@ public class ImageUtils {
             boolean good = false;
             if (f.getName().toLowerCase().endsWith(".png") || f.getName().toLowerCase().endsWith(".jpg")) good = true;
             if (!good) return null;
-            img = ImageIO.read(f);
+            Metrics.Stage stage = Metrics.start(Metrics.DECODE, 0, 0);
+            try {
+                img = ImageIO.read(f);
+                if (img != null) stage.setSize(img.getWidth(), img.getHeight());
+            } finally {
+                stage.end();
+            }
         }catch(Exception e){
             return null;
         }
         return img;
     }
 
+    /**
+     * Cache that getPlanarImage reads through, null to always decode.
+     */
+    private static volatile ImageCache imageCache;
+
+    /**
+     * Makes getPlanarImage keep decoded images in the given cache, so an image
+     * that is read again is mapped from disk instead of decoded.
+     * @param cache to use, or null to stop caching.
+     */
+    public static void setImageCache(ImageCache cache) {
+        imageCache = cache;
+    }
+
+    /**
+     * @return cache used by getPlanarImage, or null.
+     */
+    public static ImageCache getImageCache() {
+        return imageCache;
+    }
+
+    /**
+     * Gets an image from a path name as a PlanarImage, through the ImageCache if one is set.
+     * @param path title to check, relative to 'src' folder.
+     * @return image at path, or null if it doesn't exist or can't be decoded.
+     */
+    public static PlanarImage getPlanarImage(String path) {
+        ImageCache cache = imageCache;
+        if (cache != null) {
+            try {
+                return cache.getPlanarImage(path);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        BufferedImage img = getImage(path);
+        return img == null ? null : getPlanarImageFromImage(img);
+    }
+
     /**
      * Reads the image as three arrays of input colors (RGB).
      * @param img image to read.
      * @return triple integer array of RGB values.
      */
     public static Integer[][][] getRGBMatrixFromImage(BufferedImage img) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVERT, img.getWidth(), img.getHeight());
+        try {
+            int w = img.getWidth();
+            int h = img.getHeight();
+            Integer[][][] data = new Integer[3][h][w];
+            int[] row = new int[w];
+            for (int y = 0; y < h; y++) {
+                img.getRGB(0, y, w, 1, row, 0, w);
+                for (int x = 0; x < w; x++) {
+                        data[0][y][x] = (row[x] >> 16) & 0xFF;
+                        data[1][y][x] = (row[x] >> 8) & 0xFF;
+                        data[2][y][x] = row[x] & 0xFF;
+                }
+            }
+            return data;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Reads the image as three planes of input colors (RGB).
+     * Rasters of TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_BGR, TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR
+     * and TYPE_BYTE_GRAY are unpacked straight from their data buffer, any other
+     * image is read a row at a time through getRGB.
+     * Alpha is dropped. Every path gives the same values as getRGB, gray levels are
+     * converted to sRGB through a table of the 256 colors the color model gives.
+     * @param img image to read.
+     * @return three channel image of RGB values.
+     */
+    public static PlanarImage getPlanarImageFromImage(BufferedImage img) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVERT, img.getWidth(), img.getHeight());
+        try {
+            int w = img.getWidth();
+            int h = img.getHeight();
+            WritableRaster raster = img.getRaster();
+            SampleModel sm = raster.getSampleModel();
+            DataBuffer db = raster.getDataBuffer();
+            ColorModel cm = img.getColorModel();
+            //offset of pixel (0, 0) in the data buffer, rasters can be children of bigger rasters
+            int tx = -raster.getSampleModelTranslateX();
+            int ty = -raster.getSampleModelTranslateY();
+            boolean plain = !cm.isAlphaPremultiplied() && db.getNumBanks() == 1 && !(cm instanceof IndexColorModel);
+
+            if (plain && db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel
+                    && cm.getColorSpace().isCS_sRGB() && sm.getNumBands() >= 3) {
+                //one int per pixel, each band is a bit field
+                SinglePixelPackedSampleModel spp = (SinglePixelPackedSampleModel) sm;
+                int[] data = ((DataBufferInt) db).getData();
+                int[] shifts = spp.getBitOffsets();
+                int[] masks = spp.getBitMasks();
+                for (int b = 0; b < 3; b++) {
+                    if (masks[b] >>> shifts[b] != 0xFF) return getPlanarImageFromRGB(img);
+                }
+                int scan = spp.getScanlineStride();
+                int start = db.getOffset() + ty * scan + tx;
+                PlanarImage out = new PlanarImage(w, h, 3);
+                int[] r = out.getPlane(0), g = out.getPlane(1), b = out.getPlane(2);
+                int rs = shifts[0], gs = shifts[1], bs = shifts[2];
+                for (int y = 0; y < h; y++) {
+                    int i = start + y * scan;
+                    int o = y * w;
+                    for (int x = 0; x < w; x++) {
+                        int v = data[i + x];
+                        r[o + x] = (v >>> rs) & 0xFF;
+                        g[o + x] = (v >>> gs) & 0xFF;
+                        b[o + x] = (v >>> bs) & 0xFF;
+                    }
+                }
+                return out;
+            }
+
+            if (plain && db instanceof DataBufferByte && sm instanceof ComponentSampleModel
+                    && cm.getComponentSize(0) == 8) {
+                //one byte per band, bands interleaved per pixel
+                ComponentSampleModel csm = (ComponentSampleModel) sm;
+                byte[] data = ((DataBufferByte) db).getData();
+                int[] bandOffsets = csm.getBandOffsets();
+                int pixel = csm.getPixelStride();
+                int scan = csm.getScanlineStride();
+                int start = db.getOffset() + ty * scan + tx * pixel;
+                int type = cm.getColorSpace().getType();
+                if (type == ColorSpace.TYPE_GRAY && sm.getNumBands() == 1) {
+                    //the same colors getRGB gives for every gray level
+                    int[] colors = new int[256];
+                    for (int v = 0; v < 256; v++) colors[v] = cm.getRGB(new byte[]{(byte) v});
+                    PlanarImage out = new PlanarImage(w, h, 3);
+                    int[] r = out.getPlane(0), g = out.getPlane(1), b = out.getPlane(2);
+                    for (int y = 0; y < h; y++) {
+                        int i = start + y * scan + bandOffsets[0];
+                        int o = y * w;
+                        for (int x = 0; x < w; x++) {
+                            int c = colors[data[i + x * pixel] & 0xFF];
+                            r[o + x] = (c >> 16) & 0xFF;
+                            g[o + x] = (c >> 8) & 0xFF;
+                            b[o + x] = c & 0xFF;
+                        }
+                    }
+                    return out;
+                }
+                if (cm.getColorSpace().isCS_sRGB() && sm.getNumBands() >= 3) {
+                    PlanarImage out = new PlanarImage(w, h, 3);
+                    int[] r = out.getPlane(0), g = out.getPlane(1), b = out.getPlane(2);
+                    int ro = bandOffsets[0], go = bandOffsets[1], bo = bandOffsets[2];
+                    for (int y = 0; y < h; y++) {
+                        int i = start + y * scan;
+                        int o = y * w;
+                        for (int x = 0; x < w; x++, i += pixel) {
+                            r[o + x] = data[i + ro] & 0xFF;
+                            g[o + x] = data[i + go] & 0xFF;
+                            b[o + x] = data[i + bo] & 0xFF;
+                        }
+                    }
+                    return out;
+                }
+            }
+            return getPlanarImageFromRGB(img);
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Reads any image as three planes of RGB values, a row at a time through getRGB.
+     * @param img image to read.
+     * @return three channel image of RGB values.
+     */
+    private static PlanarImage getPlanarImageFromRGB(BufferedImage img) {
         int w = img.getWidth();
         int h = img.getHeight();
-        Integer[][][] data = new Integer[3][h][w];
+        PlanarImage out = new PlanarImage(w, h, 3);
+        int[] r = out.getPlane(0), g = out.getPlane(1), b = out.getPlane(2);
+        int[] row = new int[w];
         for (int y = 0; y < h; y++) {
+            img.getRGB(0, y, w, 1, row, 0, w);
+            int o = y * w;
             for (int x = 0; x < w; x++) {
-                Color c = new Color(img.getRGB(x, y));
-                    data[0][y][x] = c.getRed();
-                    data[1][y][x] = c.getGreen();
-                    data[2][y][x] = c.getBlue();
+                r[o + x] = (row[x] >> 16) & 0xFF;
+                g[o + x] = (row[x] >> 8) & 0xFF;
+                b[o + x] = row[x] & 0xFF;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Gets an image from a path name as a ByteImage, 3 bytes per pixel.
+     * @param path title to check, relative to 'src' folder.
+     * @return image at path, or null if it doesn't exist or can't be decoded.
+     */
+    public static ByteImage getByteImage(String path) {
+        BufferedImage img = getImage(path);
+        return img == null ? null : getByteImageFromImage(img);
+    }
+
+    /**
+     * Reads an image as three byte planes (RGB), a row at a time, so no int copy
+     * of the whole image is made.
+     * @param img image to read.
+     * @return new RGB image of the same size.
+     */
+    public static ByteImage getByteImageFromImage(BufferedImage img) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVERT, img.getWidth(), img.getHeight());
+        try {
+            int w = img.getWidth();
+            int h = img.getHeight();
+            ByteImage out = new ByteImage(w, h, 3);
+            byte[] r = out.getPlane(0), g = out.getPlane(1), b = out.getPlane(2);
+            int[] row = new int[w];
+            for (int y = 0; y < h; y++) {
+                img.getRGB(0, y, w, 1, row, 0, w);
+                int o = y * w;
+                for (int x = 0; x < w; x++) {
+                    r[o + x] = (byte) (row[x] >> 16);
+                    g[o + x] = (byte) (row[x] >> 8);
+                    b[o + x] = (byte) row[x];
+                }
             }
+            return out;
+        } finally {
+            stage.end();
         }
-        return data;
     }
 
     /**
@@ -92,13 +336,7 @@ public class ImageUtils {
      * @return
      */
     public static Integer[][] preformRGBConvolutionPadded(Integer[][][] img, Double[][] filter) {
-        int p = (filter.length - 1) / 2;
-        p = 1;
-        Integer[][][] m = new Integer[3][img[0].length][img[0][0].length];
-        for (int i = 0; i < 3; i++) {
-            m[i] = MatrixUtils.padMatrix(img[i], p);
-        }
-        return preformRGBConvolution(m, filter);
+        return preformRGBConvolutionPadded(img, new Double[][][]{filter, filter, filter});
     }
 
     /**
@@ -110,12 +348,7 @@ public class ImageUtils {
      * @return
      */
     public static Integer[][] preformRGBConvolutionPadded(Integer[][][] img, Double[][][] filter) {
-        int p = (filter.length - 1) / 2;
-        Integer[][][] m = new Integer[3][img[0].length][img[0][0].length];
-        for (int i = 0; i < 3; i++) {
-            m[i] = MatrixUtils.padMatrix(img[i], p);
-        }
-        return preformRGBConvolution(m, filter);
+        return operationConvolutionSum(img, filter, 0, (filter[0].length - 1) / 2);
     }
 
     /**
@@ -126,16 +359,7 @@ public class ImageUtils {
      * @return the new image.
      */
     public static Integer[][] preformRGBConvolutionStrided(Integer[][][] img, Double[][] filter, int s) {
-        Integer[][] r = operationConvolution(img[0], filter, s);
-        Integer[][] g = operationConvolution(img[1], filter, s);
-        Integer[][] b = operationConvolution(img[2], filter, s);
-        Integer[][] output = new Integer[r.length][r[0].length];
-        for (int y = 0; y < output.length; y++) {
-            for (int x = 0; x < output[0].length; x++) {
-                output[y][x] = r[y][x] + g[y][x] + b[y][x];
-            }
-        }
-        return output;
+        return preformRGBConvolutionStrided(img, new Double[][][]{filter, filter, filter}, s);
     }
 
     /**
@@ -146,16 +370,8 @@ public class ImageUtils {
      * @return the new image.
      */
     public static Integer[][] preformRGBConvolutionStrided(Integer[][][] img, Double[][][] filter, int s) {
-        Integer[][] r = operationConvolution(img[0], filter[0], s);
-        Integer[][] g = operationConvolution(img[1], filter[1], s);
-        Integer[][] b = operationConvolution(img[2], filter[2], s);
-        Integer[][] output = new Integer[r.length][r[0].length];
-        for (int y = 0; y < output.length; y++) {
-            for (int x = 0; x < output[0].length; x++) {
-                output[y][x] = r[y][x] + g[y][x] + b[y][x];
-            }
-        }
-        return output;
+        if (s < 1) s = 1;
+        return operationConvolutionSum(img, filter, s, 0);
     }
 
     /**
@@ -168,21 +384,7 @@ public class ImageUtils {
      * @return
      */
     public static Integer[][] preformRGBConvolutionStridedPadded(Integer[][][] img, Double[][] filter, int s, int p) {
-        Integer[][][] m = new Integer[3][img[0].length][img[0][0].length];
-        for (int i = 0; i < 3; i++) {
-            m[i] = MatrixUtils.padMatrix(img[i], p);
-        }
-        img = m;
-        Integer[][] r = operationConvolution(img[0], filter, s);
-        Integer[][] g = operationConvolution(img[1], filter, s);
-        Integer[][] b = operationConvolution(img[2], filter, s);
-        Integer[][] output = new Integer[r.length][r[0].length];
-        for (int y = 0; y < output.length; y++) {
-            for (int x = 0; x < output[0].length; x++) {
-                output[y][x] = r[y][x] + g[y][x] + b[y][x];
-            }
-        }
-        return output;
+        return preformRGBConvolutionStridedPadded(img, new Double[][][]{filter, filter, filter}, s, p);
     }
 
     /**
@@ -195,21 +397,8 @@ public class ImageUtils {
      * @return
      */
     public static Integer[][] preformRGBConvolutionStridedPadded(Integer[][][] img, Double[][][] filter, int s, int p) {
-        Integer[][][] m = new Integer[3][img[0].length][img[0][0].length];
-        for (int i = 0; i < 3; i++) {
-            m[i] = MatrixUtils.padMatrix(img[i], p);
-        }
-        img = m;
-        Integer[][] r = operationConvolution(img[0], filter[0], s);
-        Integer[][] g = operationConvolution(img[1], filter[1], s);
-        Integer[][] b = operationConvolution(img[2], filter[2], s);
-        Integer[][] output = new Integer[r.length][r[0].length];
-        for (int y = 0; y < output.length; y++) {
-            for (int x = 0; x < output[0].length; x++) {
-                output[y][x] = r[y][x] + g[y][x] + b[y][x];
-            }
-        }
-        return output;
+        if (s < 1) s = 1;
+        return operationConvolutionSum(img, filter, s, p);
     }
 
     /**
@@ -220,16 +409,7 @@ public class ImageUtils {
      * @return output matrix. The size will be (img.w - filter.w + 1)
      */
     public static Integer[][] preformRGBConvolution(Integer[][][] img, Double[][] filter) {
-        Integer[][] r = operationConvolution(img[0], filter);
-        Integer[][] g = operationConvolution(img[1], filter);
-        Integer[][] b = operationConvolution(img[2], filter);
-        Integer[][] output = new Integer[r.length][r[0].length];
-        for (int y = 0; y < output.length; y++) {
-            for (int x = 0; x < output[0].length; x++) {
-                output[y][x] = r[y][x] + g[y][x] + b[y][x];
-            }
-        }
-        return output;
+        return preformRGBConvolution(img, new Double[][][]{filter, filter, filter});
     }
 
     /**
@@ -240,16 +420,103 @@ public class ImageUtils {
      * @return output matrix. The size will be (img.w - filter.w + 1)
      */
     public static Integer[][] preformRGBConvolution(Integer[][][] img, Double[][][] filter) {
-        Integer[][] r = operationConvolution(img[0], filter[0]);
-        Integer[][] g = operationConvolution(img[1], filter[1]);
-        Integer[][] b = operationConvolution(img[2], filter[2]);
-        Integer[][] output = new Integer[r.length][r[0].length];
-        for (int y = 0; y < output.length; y++) {
-            for (int x = 0; x < output[0].length; x++) {
-                output[y][x] = r[y][x] + g[y][x] + b[y][x];
+        return operationConvolutionSum(img, filter, 0, 0);
+    }
+
+    /**
+     * Convolutes each RGB channel with its filter and sums the channels in a single
+     * sweep, without making an output for every channel. Gives the same values as
+     * operationConvolution on each channel followed by a sum.
+     * The image is read as if it had p 0's of padding on every side, without making the padded copy.
+     * @param img RGB matrix representing three channels of FxK matrix's.
+     * @param filter one filter for each channel.
+     * @param s stride of operationConvolution(Integer[][], Double[][], int), or 0 for
+     *          operationConvolution(Integer[][], Double[][]).
+     * @param p padding around every channel.
+     * @return output matrix.
+     */
+    private static Integer[][] operationConvolutionSum(Integer[][][] img, Double[][][] filter, int s, int p) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img[0][0].length, img[0].length, filter[0][0].length, filter[0].length);
+        try {
+            int step = Math.max(s, 1);
+            int pad = Math.max(p, 0);
+            int height = img[0].length, width = img[0][0].length;
+            int i = ((height + 2 * pad - filter[0].length) / Math.max(s, 1)) + 1;
+            int j = ((width + 2 * pad - filter[0][0].length) / Math.max(s, 1)) + 1;
+            Kernel[] kernels = new Kernel[3];
+            int direct = 0;
+            boolean whole = true;
+            for (int c = 0; c < 3; c++) {
+                kernels[c] = getKernel(filter[c]);
+                if (isBoxedLoop(kernels[c], step)) direct++;
+                whole &= kernels[c].isWholeNumbered();
+            }
+            if (pad > 0 && whole) {
+                //whole numbered filters give the same values on primitive planes, reading the padding as a border
+                PlanarImage sum = new PlanarImage(j, i, 1);
+                ConvolutionEngine.convolveSum(PlanarImage.fromMatrix(img), kernels, step, pad, BorderMode.ZERO, sum.getPlane(0), j, i);
+                return sum.toMatrix(0);
+            }
+            if (direct == 0) {
+                //every channel runs on primitive planes
+                PlanarImage sum = new PlanarImage(j, i, 1);
+                ConvolutionEngine.convolveSum(PlanarImage.fromMatrix(img), kernels, step, sum.getPlane(0), j, i);
+                return sum.toMatrix(0);
+            }
+            if (direct < 3 && pad == 0) {
+                //a mix of boxed and primitive channels, convolute them one by one
+                Integer[][] output = MatrixUtils.build(i, j);
+                for (int c = 0; c < 3; c++) {
+                    Integer[][] m = s == 0 ? operationConvolution(img[c], filter[c]) : operationConvolution(img[c], filter[c], s);
+                    for (int y = 0; y < i; y++) {
+                        for (int x = 0; x < j; x++) {
+                            output[y][x] += m[y][x];
+                        }
+                    }
+                }
+                return output;
             }
+            Integer[][] output = new Integer[i][j];
+            Integer[][] r = img[0], g = img[1], b = img[2];
+            Double[][] fr = filter[0], fg = filter[1], fb = filter[2];
+            int kSizeY = fr.length;
+            int kSizeX = fr[0].length;
+            ConvolutionEngine.forEachTile(i, j, ConvolutionEngine.getTileHeight(kSizeY, kSizeX, step), ConvolutionEngine.TILE_WIDTH, (y0, y1, x0, x1) -> {
+                for (int y = y0; y < y1; y = y + 1) {
+                    for (int x = x0; x < x1; x = x + 1) {
+                        //same sums as operationConvolution, one for each channel
+                        //values of the padding are 0 and leave the sums as they are, so they are skipped
+                        int sumR = 0, sumG = 0, sumB = 0;
+                        int oy = (y * step) - pad, ox = (x * step) - pad;
+                        int yy0 = Math.max(0, -oy), yy1 = Math.min(kSizeY, height - oy);
+                        int xx0 = Math.max(0, -ox), xx1 = Math.min(kSizeX, width - ox);
+                        for (int yy = yy0; yy < yy1; yy++) {
+                            for (int xx = xx0; xx < xx1; xx++) {
+                                sumR += r[oy + yy][ox + xx] * fr[yy][xx];
+                                sumG += g[oy + yy][ox + xx] * fg[yy][xx];
+                                sumB += b[oy + yy][ox + xx] * fb[yy][xx];
+                            }
+                        }
+                        output[y][x] = sumR + sumG + sumB;
+                    }
+                }
+            });
+            return output;
+        } finally {
+            stage.end();
         }
-        return output;
+    }
+
+    /**
+     * Decides if a boxed convolution keeps its own loop. That loop truncates its int sum after
+     * every term, so only filters of whole numbers (where every term is already whole) may move
+     * to the separable or FFT paths on primitive planes without changing the result.
+     * @param k compiled filter.
+     * @param s stride of the convolution.
+     * @return true to run the boxed loop.
+     */
+    private static boolean isBoxedLoop(Kernel k, int s) {
+        return !k.isWholeNumbered() || ConvolutionEngine.isDirect(k, s);
     }
 
     /**
@@ -260,27 +527,38 @@ public class ImageUtils {
      * @return resulting array from convolution (size is f - k + 1).
      */
     public static Integer[][] operationConvolution(Integer[][] img, Double[][] filter) {
-        //(F x F) * (K x K) = F - K + 1
-        //(6 x 6) * (3 x 3) = 4 x 4
-        int i, j;
-        Integer[][] output = new Integer[i = img.length - filter.length + 1][j = img[0].length - filter[0].length + 1];
-        for (int y = 0; y < i; y = y + 1) {
-            for (int x = 0; x < j; x = x + 1) {
-                //preform convoltion as follows:
-                //start at (0, 0) look (kSize, kSize) on img
-                //(x, y) ----> (x + kSize, y + kSize) on img
-                //add to sum: for each (x, y) multiply by filter[y][x]
-                //output[y][x] = sum
-                int sum = 0;
-                for (int yy = 0; yy < filter.length; yy++) {
-                    for (int xx = 0; xx < filter[0].length; xx++) {
-                        sum += img[y + yy][x + xx] * filter[yy][xx];
+        //separable and big filters run on primitive planes (row and column passes, or FFT)
+        Kernel k = getKernel(filter);
+        if (!isBoxedLoop(k, 1)) return operationConvolution(PlanarImage.fromMatrix(img), filter).toMatrix(0);
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img[0].length, img.length, filter[0].length, filter.length);
+        try {
+            //(F x F) * (K x K) = F - K + 1
+            //(6 x 6) * (3 x 3) = 4 x 4
+            int i, j;
+            Integer[][] output = new Integer[i = img.length - filter.length + 1][j = img[0].length - filter[0].length + 1];
+            //every tile of the output is convoluted on its own, possibly in parallel
+            ConvolutionEngine.forEachTile(i, j, ConvolutionEngine.getTileHeight(filter.length, filter[0].length, 1), ConvolutionEngine.TILE_WIDTH, (y0, y1, x0, x1) -> {
+                for (int y = y0; y < y1; y = y + 1) {
+                    for (int x = x0; x < x1; x = x + 1) {
+                        //preform convoltion as follows:
+                        //start at (0, 0) look (kSize, kSize) on img
+                        //(x, y) ----> (x + kSize, y + kSize) on img
+                        //add to sum: for each (x, y) multiply by filter[y][x]
+                        //output[y][x] = sum
+                        int sum = 0;
+                        for (int yy = 0; yy < filter.length; yy++) {
+                            for (int xx = 0; xx < filter[0].length; xx++) {
+                                sum += img[y + yy][x + xx] * filter[yy][xx];
+                            }
+                        }
+                        output[y][x] = sum;
                     }
                 }
-                output[y][x] = sum;
-            }
+            });
+            return output;
+        } finally {
+            stage.end();
         }
-        return output;
     }
 
     /**
@@ -289,37 +567,49 @@ public class ImageUtils {
      * @param img matrix of gray-scaled values to represent a single-chanelled image.
      * @param filter to preform convolution with. Should be odd numbered, is usually 3 x 3.
      * @param s stride of convolution, or the length of movement on each convolution step.
-     * @return resulting array from convolution (size is f - k + 1).
+     * @return resulting array from convolution (size is ((f - k) / s) + 1).
      */
     public static Integer[][] operationConvolution(Integer[][] img, Double[][] filter, int s) {
         if (s < 1) s = 1;
-        int fSizeY = img.length;
+        int stride = s;
         int kSizeY = filter.length;
-        int fSizeX = img[0].length;
         int kSizeX = filter[0].length;
-        int p = 0;
         int i, j;
         Integer[][] output = new Integer[i = ((img.length - filter.length) / s) + 1][j = ((img[0].length - filter[0].length) / s) + 1];
-
-        //(F x F) * (K x K) = F - K + 1
-        //(6 x 6) * (3 x 3) = 4 x 4
-        for (int y = 0; y < i; y = y + 1) {
-            for (int x = 0; x < j; x = x + 1) {
-                //preform convoltion as follows:
-                //start at (0, 0) look (kSize, kSize) on img
-                //(x, y) ----> (x + kSize, y + kSize) on img
-                //add to sum: for each (x, y) multiply by filter[y][x]
-                //output[y][x] = sum
-                int sum = 0;
-                for (int yy = 0; yy < kSizeY; yy++) {
-                    for (int xx = 0; xx < kSizeX; xx++) {
-                        sum += img[(y * 2) + yy][(x * 2) + xx] * filter[yy][xx];
+        Kernel k = getKernel(filter);
+        if (!isBoxedLoop(k, s)) {
+            //separable and big filters run on primitive planes, only computing the sampled outputs
+            PlanarImage planar = PlanarImage.fromMatrix(img);
+            PlanarImage sep = new PlanarImage(j, i, 1);
+            ConvolutionEngine.convolve(planar, 0, k, s, sep.getPlane(0), j, i);
+            return sep.toMatrix(0);
+        }
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img[0].length, img.length, kSizeX, kSizeY);
+        try {
+            //(F x F) * (K x K) = ((F - K) / S) + 1
+            //(7 x 7) * (3 x 3) with a stride of 2 = 3 x 3
+            ConvolutionEngine.forEachTile(i, j, ConvolutionEngine.getTileHeight(kSizeY, kSizeX, s), ConvolutionEngine.TILE_WIDTH, (y0, y1, x0, x1) -> {
+                for (int y = y0; y < y1; y = y + 1) {
+                    for (int x = x0; x < x1; x = x + 1) {
+                        //preform convoltion as follows:
+                        //start at (x * s, y * s) look (kSize, kSize) on img
+                        //(x * s, y * s) ----> (x * s + kSize, y * s + kSize) on img
+                        //add to sum: for each (x, y) multiply by filter[y][x]
+                        //output[y][x] = sum
+                        int sum = 0;
+                        for (int yy = 0; yy < kSizeY; yy++) {
+                            for (int xx = 0; xx < kSizeX; xx++) {
+                                sum += img[(y * stride) + yy][(x * stride) + xx] * filter[yy][xx];
+                            }
+                        }
+                        output[y][x] = sum;
                     }
                 }
-                output[y][x] = sum;
-            }
+            });
+            return output;
+        } finally {
+            stage.end();
         }
-        return output;
     }
 
     /**
@@ -401,12 +691,12 @@ public class ImageUtils {
      * @return
      */
     public static Double[][] preformRGBMaxPooling(Double[][][] img, double w, double h) {
-        Double[][] r = operationMaxPooling(img[0], w, h);
-        Double[][] g = operationMaxPooling(img[1], w, h);
-        Double[][] b = operationMaxPooling(img[2], w, h);
+        Double[][] r = operationMaxPooling(img[0], (int) w, (int) h);
+        Double[][] g = operationMaxPooling(img[1], (int) w, (int) h);
+        Double[][] b = operationMaxPooling(img[2], (int) w, (int) h);
         Double[][] output = new Double[r.length][r[0].length];
-        for (double y = 0; y < output.length; y++) {
-            for (double x = 0; x < output[0].length; x++) {
+        for (int y = 0; y < output.length; y++) {
+            for (int x = 0; x < output[0].length; x++) {
                 output[y][x] = r[y][x] + g[y][x] + b[y][x];
             }
         }
@@ -426,8 +716,8 @@ public class ImageUtils {
         Double[][] g = operationMaxPooling(img[1], w, h, s);
         Double[][] b = operationMaxPooling(img[2], w, h, s);
         Double[][] output = new Double[r.length][r[0].length];
-        for (double y = 0; y < output.length; y++) {
-            for (double x = 0; x < output[0].length; x++) {
+        for (int y = 0; y < output.length; y++) {
+            for (int x = 0; x < output[0].length; x++) {
                 output[y][x] = r[y][x] + g[y][x] + b[y][x];
             }
         }
@@ -444,24 +734,7 @@ public class ImageUtils {
     public static Integer[][] operationMaxPooling(Integer[][] matrix, int w, int h) {
         int i, j;
         Integer[][] output = new Integer[i = matrix.length - h + 1][j = matrix[0].length - w + 1];
-        for (int y = 0; y < i; y = y + 1) {
-            for (int x = 0; x < j; x = x + 1) {
-                //preform convoltion as follows:
-                //start at (0, 0) look (kSize, kSize) on img
-                //(x, y) ----> (x + kSize, y + kSize) on img
-                //add to sum: for each (x, y) multiply by filter[y][x]
-                //output[y][x] = sum
-                int largest = 0;
-                for (int yy = 0; yy < h; yy++) {
-                    for (int xx = 0; xx < w; xx++) {
-                        int l = matrix[y + yy][x + xx];
-                        if (l > largest) largest = l;
-                    }
-                }
-                output[y][x] = largest;
-            }
-        }
-        return output;
+        return poolMatrix(matrix, w, h, 1, false, output);
     }
 
     /**
@@ -473,34 +746,9 @@ public class ImageUtils {
      */
     public static Integer[][] operationMaxPooling(Integer[][] matrix, int w, int h, int s) {
         if (s < 1) s = 1;
-        int fSizeY = matrix.length;
-        int kSizeY = h;
-        int fSizeX = matrix[0].length;
-        int kSizeX = w;
-        int p = 0;
         int i, j;
         Integer[][] output = new Integer[i = ((matrix.length - h) / s) + 1][j = ((matrix[0].length - w) / s) + 1];
-
-        //(F x F) * (K x K) = F - K + 1
-        //(6 x 6) * (3 x 3) = 4 x 4
-        for (int y = 0; y < i; y = y + 1) {
-            for (int x = 0; x < j; x = x + 1) {
-                //preform convoltion as follows:
-                //start at (0, 0) look (kSize, kSize) on img
-                //(x, y) ----> (x + kSize, y + kSize) on img
-                //add to sum: for each (x, y) multiply by filter[y][x]
-                //output[y][x] = sum
-                int largest = 0;
-                for (int yy = 0; yy < h; yy++) {
-                    for (int xx = 0; xx < w; xx++) {
-                        int l = matrix[y + yy][x + xx];
-                        if (l > largest) largest = l;
-                    }
-                }
-                output[y][x] = largest;
-            }
-        }
-        return output;
+        return poolMatrix(matrix, w, h, s, false, output);
     }
 
     /**
@@ -512,29 +760,9 @@ public class ImageUtils {
      */
     public static Double[][] operationMaxPooling(Double[][] matrix, int w, int h, int s) {
         if (s < 1) s = 1;
-        double i, j;
+        int i, j;
         Double[][] output = new Double[i = ((matrix.length - h) / s) + 1][j = ((matrix[0].length - w) / s) + 1];
-
-        //(F x F) * (K x K) = F - K + 1
-        //(6 x 6) * (3 x 3) = 4 x 4
-        for (int y = 0; y < i; y = y + 1) {
-            for (int x = 0; x < j; x = x + 1) {
-                //preform convoltion as follows:
-                //start at (0, 0) look (kSize, kSize) on img
-                //(x, y) ----> (x + kSize, y + kSize) on img
-                //add to sum: for each (x, y) multiply by filter[y][x]
-                //output[y][x] = sum
-                double largest = 0;
-                for (int yy = 0; yy < h; yy++) {
-                    for (int xx = 0; xx < w; xx++) {
-                        double l = matrix[y + yy][x + xx];
-                        if (l > largest) largest = l;
-                    }
-                }
-                output[y][x] = largest;
-            }
-        }
-        return output;
+        return poolMatrix(matrix, w, h, s, false, output);
     }
 
     /**
@@ -547,26 +775,168 @@ public class ImageUtils {
     public static Double[][] operationMaxPooling(Double[][] matrix, int w, int h) {
         int i, j;
         Double[][] output = new Double[i = matrix.length - h + 1][j = matrix[0].length - w + 1];
-        for (int y = 0; y < i; y = y + 1) {
-            for (int x = 0; x < j; x = x + 1) {
-                //preform convoltion as follows:
-                //start at (0, 0) look (kSize, kSize) on img
-                //(x, y) ----> (x + kSize, y + kSize) on img
-                //add to sum: for each (x, y) multiply by filter[y][x]
-                //output[y][x] = sum
-                double largest = 0;
-                for (int yy = 0; yy < h; yy++) {
-                    for (int xx = 0; xx < w; xx++) {
-                        double l = matrix[y + yy][x + xx];
-                        if (l > largest) largest = l;
-                    }
-                }
-                output[y][x] = largest;
+        return poolMatrix(matrix, w, h, 1, false, output);
+    }
+
+    /**
+     * Preforms the min pooling operation on a given Matrix.
+     * @param matrix to pool.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @return matrix of the smallest value in every window.
+     */
+    public static Integer[][] operationMinPooling(Integer[][] matrix, int w, int h) {
+        return operationMinPooling(matrix, w, h, 1);
+    }
+
+    /**
+     * Preforms the min pooling operation on a given Matrix and stride.
+     * @param matrix to pool.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return matrix of the smallest value in every window.
+     */
+    public static Integer[][] operationMinPooling(Integer[][] matrix, int w, int h, int s) {
+        if (s < 1) s = 1;
+        PlanarImage img = operationMinPooling(PlanarImage.fromMatrix(matrix), w, h, s);
+        return img.toMatrix(0);
+    }
+
+    /**
+     * Preforms the min pooling operation on a given Matrix.
+     * @param matrix to pool.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @return matrix of the smallest value in every window.
+     */
+    public static Double[][] operationMinPooling(Double[][] matrix, int w, int h) {
+        return operationMinPooling(matrix, w, h, 1);
+    }
+
+    /**
+     * Preforms the min pooling operation on a given Matrix and stride.
+     * @param matrix to pool.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return matrix of the smallest value in every window.
+     */
+    public static Double[][] operationMinPooling(Double[][] matrix, int w, int h, int s) {
+        if (s < 1) s = 1;
+        int i = getOutputSize(matrix.length, h, s);
+        int j = getOutputSize(matrix[0].length, w, s);
+        double[] values = flattenMatrix(matrix);
+        double[] pooled = new double[i * j];
+        PoolingEngine.pool(values, 0, matrix[0].length, w, h, s, true, pooled, 0, j, i, j);
+        Double[][] output = new Double[i][j];
+        for (int y = 0; y < i; y++) {
+            for (int x = 0; x < j; x++) {
+                output[y][x] = pooled[y * j + x];
             }
         }
         return output;
     }
 
+    /**
+     * Preforms the min pooling operation on each RGB channel and sums the channels.
+     * @param img image to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @return matrix of the summed channels.
+     */
+    public static Integer[][] preformRGBMinPooling(Integer[][][] img, int w, int h) {
+        return preformRGBMinPooling(img, w, h, 1);
+    }
+
+    /**
+     * Preforms the min pooling operation on each RGB channel and sums the channels.
+     * @param img image to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return matrix of the summed channels.
+     */
+    public static Integer[][] preformRGBMinPooling(Integer[][][] img, int w, int h, int s) {
+        return preformRGBMinPooling(PlanarImage.fromMatrix(img), w, h, s).toMatrix(0);
+    }
+
+    /**
+     * Max or min pools a matrix with windows that move s values at a time,
+     * filling the given output. Max pooling of a window with only negative values gives 0.
+     * @param matrix to pool.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param min true for min pooling.
+     * @param output matrix to fill, decides how many windows are pooled.
+     * @return output.
+     */
+    private static Integer[][] poolMatrix(Integer[][] matrix, int w, int h, int s, boolean min, Integer[][] output) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, matrix[0].length, matrix.length, w, h);
+        try {
+            int i = output.length;
+            int j = output[0].length;
+            PlanarImage img = PlanarImage.fromMatrix(matrix);
+            int[] pooled = new int[i * j];
+            if (min) PoolingEngine.pool(img.getPlane(0), 0, img.getStride(), w, h, s, true, pooled, 0, j, i, j);
+            else PoolingEngine.maxPool(img.getPlane(0), 0, img.getStride(), w, h, s, pooled, 0, j, i, j);
+            for (int y = 0; y < i; y++) {
+                for (int x = 0; x < j; x++) {
+                    output[y][x] = pooled[y * j + x];
+                }
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Max or min pools a matrix with windows that move s values at a time,
+     * filling the given output. Max pooling of a window with only negative values gives 0.
+     * @param matrix to pool.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param min true for min pooling.
+     * @param output matrix to fill, decides how many windows are pooled.
+     * @return output.
+     */
+    private static Double[][] poolMatrix(Double[][] matrix, int w, int h, int s, boolean min, Double[][] output) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, matrix[0].length, matrix.length, w, h);
+        try {
+            int i = output.length;
+            int j = output[0].length;
+            double[] pooled = new double[i * j];
+            PoolingEngine.pool(flattenMatrix(matrix), 0, matrix[0].length, w, h, s, min, pooled, 0, j, i, j);
+            for (int y = 0; y < i; y++) {
+                for (int x = 0; x < j; x++) {
+                    output[y][x] = min ? pooled[y * j + x] : Math.max(0, pooled[y * j + x]);
+                }
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Copies a matrix into a flat array, row after row.
+     * @param matrix to flatten.
+     * @return array of matrix.length * matrix[0].length values.
+     */
+    private static double[] flattenMatrix(Double[][] matrix) {
+        int w = matrix[0].length;
+        double[] values = new double[matrix.length * w];
+        for (int y = 0; y < matrix.length; y++) {
+            for (int x = 0; x < w; x++) {
+                values[y * w + x] = matrix[y][x];
+            }
+        }
+        return values;
+    }
+
 
     /**
      * Preforms the average pooling operation on a given Matrix.
@@ -576,21 +946,7 @@ public class ImageUtils {
      * @return
      */
     public static Double[][] operationAvgPooling(Double[][] matrix, int w, int h) {
-        int i, j;
-        Double[][] output = new Double[i = matrix.length - h + 1][j = matrix[0].length - w + 1];
-        for (int y = 0; y < i; y = y + 1) {
-            for (int x = 0; x < j; x = x + 1) {
-                double avg = 0;
-                for (int yy = 0; yy < h; yy++) {
-                    for (int xx = 0; xx < w; xx++) {
-                        double l = matrix[y + yy][x + xx];
-                        avg += l;
-                    }
-                }
-                output[y][x] = avg / (h * w);
-            }
-        }
-        return output;
+        return operationAvgPooling(new IntegralImage(matrix), w, h, 1);
     }
 
     /**
@@ -602,121 +958,1374 @@ public class ImageUtils {
      * @return
      */
     public static Double[][] operationAvgPooling(Double[][] matrix, int w, int h, int s) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, matrix[0].length, matrix.length, w, h);
+        try {
+            if (s < 1) s = 1;
+            int i, j;
+            Double[][] output = new Double[i = ((matrix.length - h) / s) + 1][j = ((matrix[0].length - w) / s) + 1];
+            double[] avg = new IntegralImage(matrix).getAverages(w, h, s, i, j);
+            for (int y = 0; y < i; y = y + 1) {
+                for (int x = 0; x < j; x = x + 1) {
+                    output[y][x] = avg[y * j + x];
+                }
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms the average pooling operation on a matrix that was already
+     * turned into an IntegralImage, which can be reused for any window size.
+     * @param integral summed-area table of the matrix.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return matrix of ((f - k) / s) + 1 averages along each axis.
+     */
+    public static Double[][] operationAvgPooling(IntegralImage integral, int w, int h, int s) {
         if (s < 1) s = 1;
-        int fSizeY = matrix.length;
-        int kSizeY = h;
-        int fSizeX = matrix[0].length;
-        int kSizeX = w;
-        int p = 0;
-        int i, j;
-        Double[][] output = new Double[i = ((matrix.length - h) / s) + 1][j = ((matrix[0].length - w) / s) + 1];
+        int i = getOutputSize(integral.getHeight(), h, s);
+        int j = getOutputSize(integral.getWidth(), w, s);
+        double[] avg = integral.getAverages(w, h, s, i, j);
+        Double[][] output = new Double[i][j];
         for (int y = 0; y < i; y = y + 1) {
             for (int x = 0; x < j; x = x + 1) {
-                double avg = 0;
-                for (int yy = 0; yy < h; yy++) {
-                    for (int xx = 0; xx < w; xx++) {
-                        double l = matrix[y + yy][x + xx];
-                        avg += l;
-                    }
-                }
-                output[y][x] = avg / (h * w);
+                output[y][x] = avg[y * j + x];
             }
         }
         return output;
     }
 
     /**
-     * HashMap of String (filter name) and 3x3 matrix (kernal filter)
+     * Preforms a convolution operation on every channel of an image
+     * with the same given filter.
+     * The sum for each output is accumulated as a double and truncated once, so
+     * for whole-numbered filters the result equals the Integer[][] overload.
+     * @param img image to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with. Should be odd numbered, is usually 3 x 3.
+     * @return image with the same amount of channels (size is f - k + 1).
      */
-    private static HashMap<String, Double[][]> kernalMap;
-
+    public static PlanarImage operationConvolution(PlanarImage img, Double[][] filter) {
+        return operationConvolution(img, filter, 1);
+    }
 
     /**
-     * Retrieve's a 3x3 matrix based on a given String.
-     * @param filterName name of filter.
-     * @return filter associated with name (if any)
-     */
-    public final static Double[][] getFiler(String filterName) {
+     * Preforms a strided convolution operation on every channel of an image
+     * with the same given filter.
+     * @param img image to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with. Should be odd numbered, is usually 3 x 3.
+     * @param s stride of convolution, or the length of movement on each convolution step.
+     * @return image with the same amount of channels (size is ((f - k) / s) + 1).
+     */
+    public static PlanarImage operationConvolution(PlanarImage img, Double[][] filter, int s) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0].length, filter.length);
+        try {
+            if (s < 1) s = 1;
+            Kernel k = getKernel(filter);
+            PlanarImage output = new PlanarImage(getOutputSize(img.getWidth(), k.getWidth(), s), getOutputSize(img.getHeight(), k.getHeight(), s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                ConvolutionEngine.convolve(img, c, k, s, output.getPlane(c), output.getWidth(), output.getHeight());
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms a strided convolution operation on every channel of an image
+     * with the same given filter, as if the image had p values of border on every side.
+     * No padded copy of the image is made.
+     * @param img image to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with.
+     * @param s stride of convolution.
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - k) / s) + 1).
+     */
+    public static PlanarImage operationConvolution(PlanarImage img, Double[][] filter, int s, int p, BorderMode mode) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0].length, filter.length);
+        try {
+            if (s < 1) s = 1;
+            Kernel k = getKernel(filter);
+            PlanarImage output = new PlanarImage(getOutputSize(img.getWidth() + 2 * p, k.getWidth(), s),
+                    getOutputSize(img.getHeight() + 2 * p, k.getHeight(), s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                ConvolutionEngine.convolveSum(img.getChannel(c), new Kernel[]{k}, s, p, mode,
+                        output.getPlane(c), output.getWidth(), output.getHeight());
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms a strided, dilated (atrous) convolution operation on every channel of an image,
+     * the same stride and dilation along both axes, see DilatedConvolution.
+     * @param img image to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with.
+     * @param s stride of convolution.
+     * @param d dilation, the distance between two filter values on the image (1 for none).
+     * @return image with the same amount of channels (size is ((f - ((k - 1) * d + 1)) / s) + 1).
+     */
+    public static PlanarImage operationConvolutionDilated(PlanarImage img, Double[][] filter, int s, int d) {
+        return operationConvolutionDilated(img, filter, s, s, d, d, 0, 0, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms a convolution operation on every channel of an image with its own stride,
+     * dilation and padding along each axis. Only the sampled outputs are computed.
+     * @param img image to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with.
+     * @param sx horizontal stride.
+     * @param sy vertical stride.
+     * @param dx horizontal dilation (1 for none).
+     * @param dy vertical dilation (1 for none).
+     * @param px padding on the left and right.
+     * @param py padding on the top and bottom.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - ((k - 1) * d + 1)) / s) + 1).
+     */
+    public static PlanarImage operationConvolutionDilated(PlanarImage img, Double[][] filter, int sx, int sy, int dx, int dy,
+                                                          int px, int py, BorderMode mode) {
+        sx = Math.max(1, sx);
+        sy = Math.max(1, sy);
+        dx = Math.max(1, dx);
+        dy = Math.max(1, dy);
+        px = Math.max(0, px);
+        py = Math.max(0, py);
+        Kernel k = getKernel(filter);
+        PlanarImage output = new PlanarImage(getDilatedOutputSize(img.getWidth(), k.getWidth(), sx, dx, px),
+                getDilatedOutputSize(img.getHeight(), k.getHeight(), sy, dy, py), img.getChannels());
+        for (int c = 0; c < img.getChannels(); c++) {
+            convolveDilated(img.getChannel(c), new Kernel[]{k}, sx, sy, dx, dy, px, py, mode,
+                    output.getPlane(c), output.getWidth(), output.getHeight());
+        }
+        return output;
+    }
+
+    /**
+     * Preforms a convolution for every RGB channel with the same filter and sums the channels,
+     * with its own stride, dilation and padding along each axis.
+     * @param img image to convolute.
+     * @param filter to use during convolution.
+     * @param sx horizontal stride.
+     * @param sy vertical stride.
+     * @param dx horizontal dilation (1 for none).
+     * @param dy vertical dilation (1 for none).
+     * @param px padding on the left and right.
+     * @param py padding on the top and bottom.
+     * @param mode what the padding holds.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionDilated(PlanarImage img, Double[][] filter, int sx, int sy, int dx, int dy,
+                                                           int px, int py, BorderMode mode) {
+        sx = Math.max(1, sx);
+        sy = Math.max(1, sy);
+        dx = Math.max(1, dx);
+        dy = Math.max(1, dy);
+        px = Math.max(0, px);
+        py = Math.max(0, py);
+        Kernel k = getKernel(filter);
+        Kernel[] kernels = new Kernel[img.getChannels()];
+        for (int c = 0; c < kernels.length; c++) kernels[c] = k;
+        PlanarImage output = new PlanarImage(getDilatedOutputSize(img.getWidth(), k.getWidth(), sx, dx, px),
+                getDilatedOutputSize(img.getHeight(), k.getHeight(), sy, dy, py), 1);
+        convolveDilated(img, kernels, sx, sy, dx, dy, px, py, mode, output.getPlane(0), output.getWidth(), output.getHeight());
+        return output;
+    }
+
+    /**
+     * Preforms RGB convolution with several filters of the registry in one pass and
+     * combines their responses (see FilterBank).
+     * Image is padded with the given border mode to fit the original size.
+     * @param img image to convolute.
+     * @param reducer how to combine the responses.
+     * @param mode what the padding holds.
+     * @param filterNames names of the filters, all of the same size.
+     * @return single channel image of the same size.
+     */
+    public static PlanarImage preformRGBFilterBank(PlanarImage img, FilterBank.Reducer reducer, BorderMode mode,
+                                                   String... filterNames) {
+        return new FilterBank(filterNames).reduce(img, reducer, mode);
+    }
+
+    /**
+     * Gets the gradient magnitude of an image, sqrt(sobel v^2 + sobel h^2) of the
+     * RGB convolutions, in one pass over the image.
+     * Image is padded with 0's to fit the original size.
+     * @param img image to convolute.
+     * @return single channel image of the same size.
+     */
+    public static PlanarImage preformRGBGradientMagnitude(PlanarImage img) {
+        return preformRGBFilterBank(img, FilterBank.Reducer.MAGNITUDE, BorderMode.ZERO, "sobel v", "sobel h");
+    }
+
+    /**
+     * Convolutes and sums channels with a stride, dilation and padding per axis. Without
+     * dilation and with the same stride and padding along both axes this runs on
+     * ConvolutionEngine (vector loops and FFT), otherwise on DilatedConvolution.
+     */
+    private static void convolveDilated(PlanarImage img, Kernel[] kernels, int sx, int sy, int dx, int dy,
+                                        int px, int py, BorderMode mode, int[] dst, int ow, int oh) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), kernels[0].getWidth(), kernels[0].getHeight());
+        try {
+            if (dx == 1 && dy == 1 && sx == sy && px == py) {
+                ConvolutionEngine.convolveSum(img, kernels, sx, px, mode, dst, ow, oh);
+            } else {
+                DilatedConvolution.convolveSum(img, kernels, sx, sy, dx, dy, px, py, mode, dst, ow, oh);
+            }
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Gets the size of a strided, dilated and padded convolution or pooling output along one axis.
+     * @param n size of the input.
+     * @param k size of the filter or window.
+     * @param s stride, at least 1.
+     * @param d dilation, at least 1.
+     * @param p padding on each side, at least 0.
+     * @return ((n + 2p - ((k - 1) * d + 1)) / s) + 1
+     */
+    private static int getDilatedOutputSize(int n, int k, int s, int d, int p) {
+        return getOutputSize(n + 2 * p, DilatedConvolution.getExtent(k, d), s);
+    }
+
+    /**
+     * Preforms a strided convolution operation on every channel of an image in integer
+     * arithmetic (see FixedPointConvolution). Whole-numbered filters give exactly the
+     * outputs of operationConvolution(PlanarImage, Double[][], int).
+     * @param img image to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with.
+     * @param s stride of convolution.
+     * @param fractionalBits bits after the point of the fixed point coefficients, 0 -> 30.
+     * @return image with the same amount of channels (size is ((f - k) / s) + 1).
+     * @throws ArithmeticException if the sums could overflow an int with that many bits.
+     */
+    public static PlanarImage operationConvolutionFixedPoint(PlanarImage img, Double[][] filter, int s, int fractionalBits) {
+        return operationConvolutionFixedPoint(img, filter, s, 0, BorderMode.ZERO, fractionalBits);
+    }
+
+    /**
+     * Preforms a strided convolution operation on every channel of an image in integer
+     * arithmetic, as if the image had p values of border on every side.
+     * @param img image to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with.
+     * @param s stride of convolution.
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @param fractionalBits bits after the point of the fixed point coefficients, 0 -> 30.
+     * @return image with the same amount of channels (size is ((f + 2p - k) / s) + 1).
+     * @throws ArithmeticException if the sums could overflow an int with that many bits.
+     */
+    public static PlanarImage operationConvolutionFixedPoint(PlanarImage img, Double[][] filter, int s, int p, BorderMode mode, int fractionalBits) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0].length, filter.length);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            Kernel k = getKernel(filter);
+            PlanarImage output = new PlanarImage(getOutputSize(img.getWidth() + 2 * p, k.getWidth(), s),
+                    getOutputSize(img.getHeight() + 2 * p, k.getHeight(), s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                FixedPointConvolution.convolveSum(img, new int[]{c}, new Kernel[]{k}, fractionalBits, s, p, mode,
+                        output.getPlane(c), output.getWidth(), output.getHeight());
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms a strided convolution for every RGB channel with the same filter in integer
+     * arithmetic and sums the channels, as if the image had p values of border on every side.
+     * Whole-numbered filters give exactly the outputs of preformRGBConvolutionStridedPadded.
+     * @param img image to convolute.
+     * @param filter to use during convolution.
+     * @param s stride of the convolution.
+     * @param p padding to use.
+     * @param mode what the padding holds.
+     * @param fractionalBits bits after the point of the fixed point coefficients, 0 -> 30.
+     * @return single channel image.
+     * @throws ArithmeticException if the sums could overflow an int with that many bits.
+     */
+    public static PlanarImage preformRGBConvolutionFixedPoint(PlanarImage img, Double[][] filter, int s, int p, BorderMode mode, int fractionalBits) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0].length, filter.length);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            Kernel k = getKernel(filter);
+            int[] channels = new int[img.getChannels()];
+            Kernel[] kernels = new Kernel[channels.length];
+            for (int c = 0; c < channels.length; c++) {
+                channels[c] = c;
+                kernels[c] = k;
+            }
+            PlanarImage output = new PlanarImage(getOutputSize(img.getWidth() + 2 * p, k.getWidth(), s),
+                    getOutputSize(img.getHeight() + 2 * p, k.getHeight(), s), 1);
+            FixedPointConvolution.convolveSum(img, channels, kernels, fractionalBits, s, p, mode,
+                    output.getPlane(0), output.getWidth(), output.getHeight());
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms a convolution operation for each RGB channel with
+     * the same given filter, and sums the channels.
+     * @param img RGB image (any amount of channels is summed).
+     * @param filter given Kernal/Image filter (is usually 3 x 3)
+     * @return single channel image. The size will be (img.w - filter.w + 1)
+     */
+    public static PlanarImage preformRGBConvolution(PlanarImage img, Double[][] filter) {
+        return preformRGBConvolutionStrided(img, filter, 1);
+    }
+
+    /**
+     * Preforms a convolution operation for each RGB channel with
+     * the three given filters, and sums the channels.
+     * @param img RGB image.
+     * @param filter given Kernal/Image filters, one for each channel (is usually 3 x 3)
+     * @return single channel image. The size will be (img.w - filter.w + 1)
+     */
+    public static PlanarImage preformRGBConvolution(PlanarImage img, Double[][][] filter) {
+        return preformRGBConvolutionStrided(img, filter, 1);
+    }
+
+    /**
+     * Preforms a strided convolution for the given image and single filter
+     * for all RGB channels.
+     * @param img image to convolute.
+     * @param filter to use during convolution.
+     * @param s stride of the convolution.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionStrided(PlanarImage img, Double[][] filter, int s) {
+        Double[][][] filters = new Double[img.getChannels()][][];
+        for (int c = 0; c < filters.length; c++) filters[c] = filter;
+        return preformRGBConvolutionStrided(img, filters, s);
+    }
+
+    /**
+     * Preforms a strided convolution for the given image and a filter
+     * for each RGB channel.
+     * @param img image to convolute.
+     * @param filter to use during convolution, one for each channel.
+     * @param s stride of the convolution.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionStrided(PlanarImage img, Double[][][] filter, int s) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0][0].length, filter[0].length);
+        try {
+            if (s < 1) s = 1;
+            int kh = filter[0].length;
+            int kw = filter[0][0].length;
+            int w = getOutputSize(img.getWidth(), kw, s);
+            int h = getOutputSize(img.getHeight(), kh, s);
+            Kernel[] kernels = new Kernel[img.getChannels()];
+            for (int c = 0; c < kernels.length; c++) kernels[c] = getKernel(filter[c]);
+            PlanarImage output = new PlanarImage(w, h, 1);
+            ConvolutionEngine.convolveSum(img, kernels, s, output.getPlane(0), w, h);
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms RGB convolution using the given image and filter
+     * for all channels.
+     * Image is padded to fit the original size.
+     * @param img to pad.
+     * @param filter to use during convolution.
+     * @return single channel image of the same size.
+     */
+    public static PlanarImage preformRGBConvolutionPadded(PlanarImage img, Double[][] filter) {
+        return preformRGBConvolutionPadded(img, filter, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms RGB convolution using the given image and filter for all channels.
+     * Image is padded with the given border mode to fit the original size.
+     * @param img to convolute.
+     * @param filter to use during convolution.
+     * @param mode what the padding holds.
+     * @return single channel image of the same size.
+     */
+    public static PlanarImage preformRGBConvolutionPadded(PlanarImage img, Double[][] filter, BorderMode mode) {
+        return preformRGBConvolutionStridedPadded(img, filter, 1, (filter.length - 1) / 2, mode);
+    }
+
+    /**
+     * Preforms RGB convolution using the given image and a
+     * seperate filter for each channel.
+     * Image is padded to fit the original size.
+     * @param img to pad.
+     * @param filter to use during convolution, one for each channel.
+     * @return single channel image of the same size.
+     */
+    public static PlanarImage preformRGBConvolutionPadded(PlanarImage img, Double[][][] filter) {
+        return preformRGBConvolutionPadded(img, filter, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms RGB convolution using the given image and a seperate filter for each channel.
+     * Image is padded with the given border mode to fit the original size.
+     * @param img to convolute.
+     * @param filter to use during convolution, one for each channel.
+     * @param mode what the padding holds.
+     * @return single channel image of the same size.
+     */
+    public static PlanarImage preformRGBConvolutionPadded(PlanarImage img, Double[][][] filter, BorderMode mode) {
+        return preformRGBConvolutionStridedPadded(img, filter, 1, (filter[0].length - 1) / 2, mode);
+    }
+
+    /**
+     * Preforms a convolution on an image, a given filter and for a
+     * given stride and padding.
+     * @param img image to convolute.
+     * @param filter to use during convolution
+     * @param s stride of the convolution
+     * @param p padding to use.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionStridedPadded(PlanarImage img, Double[][] filter, int s, int p) {
+        return preformRGBConvolutionStridedPadded(img, filter, s, p, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms a convolution on an image, a given filter and for a
+     * given stride and padding, the padding holding what the border mode gives.
+     * @param img image to convolute.
+     * @param filter to use during convolution
+     * @param s stride of the convolution
+     * @param p padding to use.
+     * @param mode what the padding holds.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionStridedPadded(PlanarImage img, Double[][] filter, int s, int p, BorderMode mode) {
+        Double[][][] filters = new Double[img.getChannels()][][];
+        for (int c = 0; c < filters.length; c++) filters[c] = filter;
+        return preformRGBConvolutionStridedPadded(img, filters, s, p, mode);
+    }
+
+    /**
+     * Preforms a convolution on an image, a filter for each channel and for a
+     * given stride and padding.
+     * @param img image to convolute.
+     * @param filter to use during convolution, one for each channel.
+     * @param s stride of the convolution
+     * @param p padding to use.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionStridedPadded(PlanarImage img, Double[][][] filter, int s, int p) {
+        return preformRGBConvolutionStridedPadded(img, filter, s, p, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms a convolution on an image, a filter for each channel and for a
+     * given stride and padding, the padding holding what the border mode gives.
+     * The padding is never built, only the outputs along the edges read through the border mode.
+     * @param img image to convolute.
+     * @param filter to use during convolution, one for each channel.
+     * @param s stride of the convolution
+     * @param p padding to use.
+     * @param mode what the padding holds.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionStridedPadded(PlanarImage img, Double[][][] filter, int s, int p, BorderMode mode) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0][0].length, filter[0].length);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            int kh = filter[0].length;
+            int kw = filter[0][0].length;
+            int w = getOutputSize(img.getWidth() + 2 * p, kw, s);
+            int h = getOutputSize(img.getHeight() + 2 * p, kh, s);
+            Kernel[] kernels = new Kernel[img.getChannels()];
+            for (int c = 0; c < kernels.length; c++) kernels[c] = getKernel(filter[c]);
+            PlanarImage output = new PlanarImage(w, h, 1);
+            ConvolutionEngine.convolveSum(img, kernels, s, p, mode, output.getPlane(0), w, h);
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms RGB convolution (stride of 1) followed by max pooling, without making the
+     * full size convolution. Gives the same image as
+     * operationMaxPooling(preformRGBConvolutionStridedPadded(img, filter, 1, p), w, h, s).
+     * @param img image to convolute.
+     * @param filter to use during convolution.
+     * @param p padding of the convolution.
+     * @param w width of the pooling window.
+     * @param h height of the pooling window.
+     * @param s stride of the pooling window.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionMaxPooling(PlanarImage img, Double[][] filter, int p, int w, int h, int s) {
+        return preformRGBConvolutionMaxPooling(img, filter, p, false, w, h, s);
+    }
+
+    /**
+     * Preforms RGB convolution (stride of 1), fixes the values to be within 0 -> 255
+     * and max pools them, without making the full size convolution. Gives the same image as
+     * operationMaxPooling(fixRGBValues(preformRGBConvolutionStridedPadded(img, filter, 1, p)), w, h, s).
+     * @param img image to convolute.
+     * @param filter to use during convolution.
+     * @param p padding of the convolution.
+     * @param w width of the pooling window.
+     * @param h height of the pooling window.
+     * @param s stride of the pooling window.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBConvolutionClampMaxPooling(PlanarImage img, Double[][] filter, int p, int w, int h, int s) {
+        return preformRGBConvolutionMaxPooling(img, filter, p, true, w, h, s);
+    }
+
+    /**
+     * Preforms RGB convolution followed by max pooling in one operation.
+     * @param img image to convolute.
+     * @param filter to use during convolution.
+     * @param p padding of the convolution.
+     * @param clamp true to fix the convoluted values before pooling.
+     * @param w width of the pooling window.
+     * @param h height of the pooling window.
+     * @param s stride of the pooling window.
+     * @return single channel image.
+     */
+    private static PlanarImage preformRGBConvolutionMaxPooling(PlanarImage img, Double[][] filter, int p, boolean clamp, int w, int h, int s) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0].length, filter.length);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            Kernel k = getKernel(filter);
+            Kernel[] kernels = new Kernel[img.getChannels()];
+            for (int c = 0; c < kernels.length; c++) kernels[c] = k;
+            int cw = getOutputSize(img.getWidth() + 2 * p, k.getWidth(), 1);
+            int ch = getOutputSize(img.getHeight() + 2 * p, k.getHeight(), 1);
+            PlanarImage output = new PlanarImage(getOutputSize(cw, w, s), getOutputSize(ch, h, s), 1);
+            ConvolutionEngine.convolveSumMaxPool(img, kernels, p, BorderMode.ZERO, clamp, w, h, s,
+                    output.getPlane(0), output.getWidth(), output.getHeight());
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Checks all values in every channel and fixes the values so that
+     * 0 < v < 255
+     * @param input image with any values.
+     * @return image of same size with fixed values.
+     */
+    public static PlanarImage fixRGBValues(PlanarImage input) {
+        PlanarImage output = new PlanarImage(input.getWidth(), input.getHeight(), input.getChannels());
+        for (int c = 0; c < input.getChannels(); c++) {
+            int[] src = input.getPlane(c);
+            int[] dst = output.getPlane(c);
+            for (int y = 0; y < input.getHeight(); y++) {
+                int i = input.getOffset() + y * input.getStride();
+                int o = y * output.getWidth();
+                for (int x = 0; x < input.getWidth(); x++) {
+                    dst[o + x] = fixRGBValue(src[i + x]);
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Preforms the max pooling operation on every channel of an image.
+     * Like the Integer[][] overload, a window with only negative values pools to 0.
+     * @param img image to preform max pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @return image with the same amount of channels.
+     */
+    public static PlanarImage operationMaxPooling(PlanarImage img, int w, int h) {
+        return operationMaxPooling(img, w, h, 1);
+    }
+
+    /**
+     * Preforms the max pooling operation on every channel of an image with a stride.
+     * @param img image to preform max pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return image with the same amount of channels.
+     */
+    public static PlanarImage operationMaxPooling(PlanarImage img, int w, int h, int s) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, img.getWidth(), img.getHeight(), w, h);
+        try {
+            if (s < 1) s = 1;
+            PlanarImage output = new PlanarImage(getOutputSize(img.getWidth(), w, s), getOutputSize(img.getHeight(), h, s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                PoolingEngine.maxPool(img.getPlane(c), img.getOffset(), img.getStride(), w, h, s,
+                        output.getPlane(c), 0, output.getWidth(), output.getHeight(), output.getWidth());
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms the max pooling operation on every channel of an image with a stride,
+     * as if the image had p values of border on every side. No padded copy is made.
+     * @param img image to preform max pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - w) / s) + 1).
+     */
+    public static PlanarImage operationMaxPooling(PlanarImage img, int w, int h, int s, int p, BorderMode mode) {
+        return poolPlanarImage(img, w, h, s, p, mode, false);
+    }
+
+    /**
+     * Preforms the max pooling operation on each RGB channel and sums the channels.
+     * @param img image to preform max pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBMaxPooling(PlanarImage img, int w, int h) {
+        return preformRGBMaxPooling(img, w, h, 1);
+    }
+
+    /**
+     * Preforms the max pooling operation on each RGB channel with a stride and sums the channels.
+     * @param img image to preform max pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBMaxPooling(PlanarImage img, int w, int h, int s) {
+        return sumChannels(operationMaxPooling(img, w, h, s));
+    }
+
+    /**
+     * Preforms the min pooling operation on every channel of an image.
+     * @param img image to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @return image with the same amount of channels.
+     */
+    public static PlanarImage operationMinPooling(PlanarImage img, int w, int h) {
+        return operationMinPooling(img, w, h, 1);
+    }
+
+    /**
+     * Preforms the min pooling operation on every channel of an image with a stride.
+     * @param img image to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return image with the same amount of channels.
+     */
+    public static PlanarImage operationMinPooling(PlanarImage img, int w, int h, int s) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, img.getWidth(), img.getHeight(), w, h);
+        try {
+            if (s < 1) s = 1;
+            PlanarImage output = new PlanarImage(getOutputSize(img.getWidth(), w, s), getOutputSize(img.getHeight(), h, s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                PoolingEngine.pool(img.getPlane(c), img.getOffset(), img.getStride(), w, h, s, true,
+                        output.getPlane(c), 0, output.getWidth(), output.getHeight(), output.getWidth());
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms the min pooling operation on every channel of an image with a stride,
+     * as if the image had p values of border on every side. No padded copy is made.
+     * @param img image to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - w) / s) + 1).
+     */
+    public static PlanarImage operationMinPooling(PlanarImage img, int w, int h, int s, int p, BorderMode mode) {
+        return poolPlanarImage(img, w, h, s, p, mode, true);
+    }
+
+    /**
+     * Preforms the max pooling operation on every channel of an image with its own stride,
+     * dilation and padding along each axis, see PoolingEngine.poolDilated.
+     * A window with only negative values pools to 0.
+     * @param img image to preform max pooling on.
+     * @param w width of the window in values.
+     * @param h height of the window in values.
+     * @param sx horizontal stride.
+     * @param sy vertical stride.
+     * @param dx horizontal distance between two values of the window (1 for none).
+     * @param dy vertical distance between two values of the window (1 for none).
+     * @param px padding on the left and right.
+     * @param py padding on the top and bottom.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - ((w - 1) * d + 1)) / s) + 1).
+     */
+    public static PlanarImage operationMaxPoolingDilated(PlanarImage img, int w, int h, int sx, int sy, int dx, int dy,
+                                                         int px, int py, BorderMode mode) {
+        return poolDilated(img, w, h, sx, sy, dx, dy, px, py, mode, false);
+    }
+
+    /**
+     * Preforms the min pooling operation on every channel of an image with its own stride,
+     * dilation and padding along each axis, see PoolingEngine.poolDilated.
+     * @param img image to preform min pooling on.
+     * @param w width of the window in values.
+     * @param h height of the window in values.
+     * @param sx horizontal stride.
+     * @param sy vertical stride.
+     * @param dx horizontal distance between two values of the window (1 for none).
+     * @param dy vertical distance between two values of the window (1 for none).
+     * @param px padding on the left and right.
+     * @param py padding on the top and bottom.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - ((w - 1) * d + 1)) / s) + 1).
+     */
+    public static PlanarImage operationMinPoolingDilated(PlanarImage img, int w, int h, int sx, int sy, int dx, int dy,
+                                                         int px, int py, BorderMode mode) {
+        return poolDilated(img, w, h, sx, sy, dx, dy, px, py, mode, true);
+    }
+
+    /**
+     * Max or min pools every channel of an image with a stride, dilation and padding per axis.
+     * Without dilation and with the same stride and padding along both axes this is
+     * poolPlanarImage, which takes constant time per value for any window.
+     */
+    private static PlanarImage poolDilated(PlanarImage img, int w, int h, int sx, int sy, int dx, int dy,
+                                           int px, int py, BorderMode mode, boolean min) {
+        sx = Math.max(1, sx);
+        sy = Math.max(1, sy);
+        dx = Math.max(1, dx);
+        dy = Math.max(1, dy);
+        px = Math.max(0, px);
+        py = Math.max(0, py);
+        if (dx == 1 && dy == 1 && sx == sy && px == py) return poolPlanarImage(img, w, h, sx, px, mode, min);
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, img.getWidth(), img.getHeight(), w, h);
+        try {
+            PlanarImage output = new PlanarImage(getDilatedOutputSize(img.getWidth(), w, sx, dx, px),
+                    getDilatedOutputSize(img.getHeight(), h, sy, dy, py), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                int[] dst = output.getPlane(c);
+                PoolingEngine.poolDilated(img.getPlane(c), img.getOffset(), img.getStride(), img.getWidth(), img.getHeight(),
+                        px, py, mode, w, h, sx, sy, dx, dy, min, dst, 0, output.getWidth(), output.getHeight(), output.getWidth());
+                if (!min) {
+                    for (int i = 0; i < dst.length; i++) {
+                        if (dst[i] < 0) dst[i] = 0;
+                    }
+                }
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Max or min pools every channel of an image with a border.
+     * @param img image to pool.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @param min true for min pooling, false for max pooling.
+     * @return image with the same amount of channels.
+     */
+    private static PlanarImage poolPlanarImage(PlanarImage img, int w, int h, int s, int p, BorderMode mode, boolean min) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, img.getWidth(), img.getHeight(), w, h);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            PlanarImage output = new PlanarImage(getOutputSize(img.getWidth() + 2 * p, w, s),
+                    getOutputSize(img.getHeight() + 2 * p, h, s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                if (min) {
+                    PoolingEngine.pool(img.getPlane(c), img.getOffset(), img.getStride(), img.getWidth(), img.getHeight(),
+                            p, mode, w, h, s, true, output.getPlane(c), 0, output.getWidth(), output.getHeight(), output.getWidth());
+                } else {
+                    PoolingEngine.maxPool(img.getPlane(c), img.getOffset(), img.getStride(), img.getWidth(), img.getHeight(),
+                            p, mode, w, h, s, output.getPlane(c), 0, output.getWidth(), output.getHeight(), output.getWidth());
+                }
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms the min pooling operation on each RGB channel and sums the channels.
+     * @param img image to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBMinPooling(PlanarImage img, int w, int h) {
+        return preformRGBMinPooling(img, w, h, 1);
+    }
+
+    /**
+     * Preforms the min pooling operation on each RGB channel with a stride and sums the channels.
+     * @param img image to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return single channel image.
+     */
+    public static PlanarImage preformRGBMinPooling(PlanarImage img, int w, int h, int s) {
+        return sumChannels(operationMinPooling(img, w, h, s));
+    }
+
+    /**
+     * Preforms the average pooling operation on every channel of an image.
+     * Averages are truncated to whole numbers.
+     * @param img image to preform average pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @return image with the same amount of channels.
+     */
+    public static PlanarImage operationAvgPooling(PlanarImage img, int w, int h) {
+        return operationAvgPooling(img, w, h, 1);
+    }
+
+    /**
+     * Preforms the average pooling operation on every channel of an image with a stride.
+     * Averages are truncated to whole numbers.
+     * @param img image to preform average pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return image with the same amount of channels.
+     */
+    public static PlanarImage operationAvgPooling(PlanarImage img, int w, int h, int s) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, img.getWidth(), img.getHeight(), w, h);
+        try {
+            if (s < 1) s = 1;
+            PlanarImage output = new PlanarImage(getOutputSize(img.getWidth(), w, s), getOutputSize(img.getHeight(), h, s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                double[] avg = new IntegralImage(img, c).getAverages(w, h, s, output.getHeight(), output.getWidth());
+                int[] dst = output.getPlane(c);
+                for (int i = 0; i < dst.length; i++) {
+                    dst[i] = (int) avg[i];
+                }
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms a convolution operation on every channel of a float or byte image
+     * in single precision (see FloatConvolution), outputs keep their fractions.
+     * @param img FloatImage or ByteImage to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with.
+     * @return image with the same amount of channels (size is f - k + 1).
+     */
+    public static FloatImage operationConvolution(FloatSource img, Double[][] filter) {
+        return operationConvolution(img, filter, 1, 0, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms a strided convolution operation on every channel of a float or byte image
+     * in single precision, as if the image had p values of border on every side.
+     * @param img FloatImage or ByteImage to convolute, every channel is convoluted on its own.
+     * @param filter to preform convolution with.
+     * @param s stride of convolution.
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - k) / s) + 1).
+     */
+    public static FloatImage operationConvolution(FloatSource img, Double[][] filter, int s, int p, BorderMode mode) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0].length, filter.length);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            Kernel k = getKernel(filter);
+            FloatImage output = new FloatImage(getOutputSize(img.getWidth() + 2 * p, k.getWidth(), s),
+                    getOutputSize(img.getHeight() + 2 * p, k.getHeight(), s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                FloatConvolution.convolve(img, c, k, s, p, mode, output.getPlane(c), output.getWidth(), output.getHeight());
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms a convolution for every RGB channel of a float or byte image with the
+     * same filter in single precision and sums the channels.
+     * @param img FloatImage or ByteImage (any amount of channels is summed).
+     * @param filter to use during convolution.
+     * @return single channel image. The size will be (img.w - filter.w + 1)
+     */
+    public static FloatImage preformRGBConvolution(FloatSource img, Double[][] filter) {
+        return preformRGBConvolutionStridedPadded(img, filter, 1, 0, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms a strided convolution for every RGB channel of a float or byte image with
+     * the same filter in single precision and sums the channels, as if the image had p
+     * values of border on every side.
+     * @param img FloatImage or ByteImage (any amount of channels is summed).
+     * @param filter to use during convolution.
+     * @param s stride of the convolution.
+     * @param p padding to use.
+     * @param mode what the padding holds.
+     * @return single channel image.
+     */
+    public static FloatImage preformRGBConvolutionStridedPadded(FloatSource img, Double[][] filter, int s, int p, BorderMode mode) {
+        Metrics.Stage stage = Metrics.start(Metrics.CONVOLUTION, img.getWidth(), img.getHeight(), filter[0].length, filter.length);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            Kernel k = getKernel(filter);
+            int[] channels = new int[img.getChannels()];
+            Kernel[] kernels = new Kernel[channels.length];
+            for (int c = 0; c < channels.length; c++) {
+                channels[c] = c;
+                kernels[c] = k;
+            }
+            FloatImage output = new FloatImage(getOutputSize(img.getWidth() + 2 * p, k.getWidth(), s),
+                    getOutputSize(img.getHeight() + 2 * p, k.getHeight(), s), 1);
+            FloatConvolution.convolveSum(img, channels, kernels, s, p, mode, output.getPlane(0), output.getWidth(), output.getHeight());
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Preforms the max pooling operation on every channel of a float or byte image with a stride.
+     * A window with only negative values pools to 0.
+     * @param img FloatImage or ByteImage to preform max pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return image with the same amount of channels.
+     */
+    public static FloatImage operationMaxPooling(FloatSource img, int w, int h, int s) {
+        return operationMaxPooling(img, w, h, s, 0, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms the max pooling operation on every channel of a float or byte image with a
+     * stride, as if the image had p values of border on every side.
+     * @param img FloatImage or ByteImage to preform max pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - w) / s) + 1).
+     */
+    public static FloatImage operationMaxPooling(FloatSource img, int w, int h, int s, int p, BorderMode mode) {
+        return poolFloatSource(img, w, h, s, p, mode, false);
+    }
+
+    /**
+     * Preforms the max pooling operation on each RGB channel of a float or byte image
+     * with a stride and sums the channels.
+     * @param img FloatImage or ByteImage to preform max pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return single channel image.
+     */
+    public static FloatImage preformRGBMaxPooling(FloatSource img, int w, int h, int s) {
+        return sumChannels(operationMaxPooling(img, w, h, s));
+    }
+
+    /**
+     * Preforms the min pooling operation on every channel of a float or byte image with a stride.
+     * @param img FloatImage or ByteImage to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return image with the same amount of channels.
+     */
+    public static FloatImage operationMinPooling(FloatSource img, int w, int h, int s) {
+        return operationMinPooling(img, w, h, s, 0, BorderMode.ZERO);
+    }
+
+    /**
+     * Preforms the min pooling operation on every channel of a float or byte image with a
+     * stride, as if the image had p values of border on every side.
+     * @param img FloatImage or ByteImage to preform min pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @return image with the same amount of channels (size is ((f + 2p - w) / s) + 1).
+     */
+    public static FloatImage operationMinPooling(FloatSource img, int w, int h, int s, int p, BorderMode mode) {
+        return poolFloatSource(img, w, h, s, p, mode, true);
+    }
+
+    /**
+     * Preforms the average pooling operation on every channel of a float or byte image with
+     * a stride, in single precision. The windows are summed as a box filter (a row pass and
+     * a column pass) rather than through an IntegralImage, whose sums would not fit
+     * the precision of a float.
+     * @param img FloatImage or ByteImage to preform average pooling on.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @return image with the same amount of channels, averages keep their fractions.
+     */
+    public static FloatImage operationAvgPooling(FloatSource img, int w, int h, int s) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, img.getWidth(), img.getHeight(), w, h);
+        try {
+            if (s < 1) s = 1;
+            Double[][] box = new Double[h][w];
+            for (Double[] row : box) Arrays.fill(row, 1.0 / (w * h));
+            Kernel k = new Kernel(box);
+            FloatImage output = new FloatImage(getOutputSize(img.getWidth(), w, s), getOutputSize(img.getHeight(), h, s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                FloatConvolution.convolve(img, c, k, s, 0, BorderMode.ZERO, output.getPlane(c), output.getWidth(), output.getHeight());
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Max or min pools every channel of a float or byte image with a border.
+     * @param img image to pool.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride
+     * @param p padding on every side.
+     * @param mode what the padding holds.
+     * @param min true for min pooling, false for max pooling.
+     * @return image with the same amount of channels.
+     */
+    private static FloatImage poolFloatSource(FloatSource img, int w, int h, int s, int p, BorderMode mode, boolean min) {
+        Metrics.Stage stage = Metrics.start(Metrics.POOLING, img.getWidth(), img.getHeight(), w, h);
+        try {
+            if (s < 1) s = 1;
+            if (p < 0) p = 0;
+            FloatImage output = new FloatImage(getOutputSize(img.getWidth() + 2 * p, w, s),
+                    getOutputSize(img.getHeight() + 2 * p, h, s), img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                if (min) PoolingEngine.pool(img, c, p, mode, w, h, s, true, output.getPlane(c), output.getWidth(), output.getHeight());
+                else PoolingEngine.maxPool(img, c, p, mode, w, h, s, output.getPlane(c), output.getWidth(), output.getHeight());
+            }
+            return output;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Sums all channels of a float image into a single channel.
+     * @param img image to sum.
+     * @return single channel image of the same size.
+     */
+    public static FloatImage sumChannels(FloatImage img) {
+        FloatImage output = new FloatImage(img.getWidth(), img.getHeight(), 1);
+        float[] dst = output.getPlane(0);
+        for (int c = 0; c < img.getChannels(); c++) {
+            float[] src = img.getPlane(c);
+            for (int y = 0; y < img.getHeight(); y++) {
+                int i = img.getOffset() + y * img.getStride();
+                int o = y * img.getWidth();
+                for (int x = 0; x < img.getWidth(); x++) {
+                    dst[o + x] += src[i + x];
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Sums all channels of an image into a single channel.
+     * @param img image to sum.
+     * @return single channel image of the same size.
+     */
+    public static PlanarImage sumChannels(PlanarImage img) {
+        PlanarImage output = new PlanarImage(img.getWidth(), img.getHeight(), 1);
+        int[] dst = output.getPlane(0);
+        for (int c = 0; c < img.getChannels(); c++) {
+            int[] src = img.getPlane(c);
+            for (int y = 0; y < img.getHeight(); y++) {
+                int i = img.getOffset() + y * img.getStride();
+                int o = y * img.getWidth();
+                for (int x = 0; x < img.getWidth(); x++) {
+                    dst[o + x] += src[i + x];
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Gets the size of a convolution or pooling output along one axis.
+     * @param n size of the input.
+     * @param k size of the filter or window.
+     * @param s stride.
+     * @return ((n - k) / s) + 1
+     */
+    private static int getOutputSize(int n, int k, int s) {
+        if (k > n) throw new IllegalArgumentException("Filter of size " + k + " does not fit in an image of size " + n);
+        return ((n - k) / s) + 1;
+    }
+
+    /**
+     * Map of String (filter name) and compiled matrix (kernal filter).
+     * Filled once when the class is loaded, so any thread can look up and add filters.
+     */
+    private static final ConcurrentHashMap<String, Kernel> kernalMap = new ConcurrentHashMap<>();
+
+    /**
+     * Compiled kernals of every registered filter, by the contents of the filter matrix,
+     * so convolutions given a registered filter (or a copy from getFiler) don't have to analyse it again.
+     * Keys hold the kernal's own copy of the matrix, so callers changing their arrays can't change a key.
+     */
+    private static final ConcurrentHashMap<FilterKey, Kernel> compiledMap = new ConcurrentHashMap<>();
+
+    static {
         //setup kernals
-        if (kernalMap == null) {
-            kernalMap = new HashMap<>();
-            //vertical
-            Double[][] vertical = {{1.0, 0.0, -1.0}, {1.0, 0.0, -1.0}, {1.0, 0.0, -1.0}};
-            kernalMap.put("v", vertical);
-            //horizontal
-            Double[][] horizontal = {{1.0, 1.0, 1.0}, {0.0, 0.0, 0.0}, {-1.0, -1.0, -1.0}};
-            kernalMap.put("h", horizontal);
-            //sobel vertical
-            Double[][] sobel_v = {{1.0, 0.0, -1.0}, {2.0, 0.0, -2.0}, {1.0, 0.0, -1.0}};
-            kernalMap.put("sobel v", sobel_v);
-            //sobel horizontal
-            Double[][] sobel_h = {{0.0, 2.0, 1.0}, {0.0, 0.0, 0.0}, {-1.0, -2.0, -1.0}};
-            kernalMap.put("sobel h", sobel_h);
-            //scharr vertical
-            Double[][] scharr_v = {{3.0, 0.0, -3.0}, {10.0, 0.0, -10.0}, {3.0, 0.0, -3.0}};
-            kernalMap.put("scharr v", scharr_v);
-            //scharr horizontal
-            Double[][] scharr_h = {{3.0, 10.0, 3.0}, {0.0, 0.0, 0.0}, {-3.0, -10.0, -3.0}};
-            kernalMap.put("scharr h", scharr_h);
-        }
-        if (!kernalMap.containsKey(filterName)) return null;
-        return kernalMap.get(filterName);
-    }
-
-    /**
-     * Adds the given filter and String to the filter map.
+        //vertical
+        Double[][] vertical = {{1.0, 0.0, -1.0}, {1.0, 0.0, -1.0}, {1.0, 0.0, -1.0}};
+        addFilter("v", vertical);
+        //horizontal
+        Double[][] horizontal = {{1.0, 1.0, 1.0}, {0.0, 0.0, 0.0}, {-1.0, -1.0, -1.0}};
+        addFilter("h", horizontal);
+        //sobel vertical
+        Double[][] sobel_v = {{1.0, 0.0, -1.0}, {2.0, 0.0, -2.0}, {1.0, 0.0, -1.0}};
+        addFilter("sobel v", sobel_v);
+        //sobel horizontal
+        Double[][] sobel_h = {{1.0, 2.0, 1.0}, {0.0, 0.0, 0.0}, {-1.0, -2.0, -1.0}};
+        addFilter("sobel h", sobel_h);
+        //scharr vertical
+        Double[][] scharr_v = {{3.0, 0.0, -3.0}, {10.0, 0.0, -10.0}, {3.0, 0.0, -3.0}};
+        addFilter("scharr v", scharr_v);
+        //scharr horizontal
+        Double[][] scharr_h = {{3.0, 10.0, 3.0}, {0.0, 0.0, 0.0}, {-3.0, -10.0, -3.0}};
+        addFilter("scharr h", scharr_h);
+    }
+
+
+    /**
+     * Retrieve's a 3x3 matrix based on a given String.
+     * @param filterName name of filter.
+     * @return copy of the filter associated with name (if any), changing it does not change the registry.
+     */
+    public final static Double[][] getFiler(String filterName) {
+        Kernel k = getKernel(filterName);
+        if (k == null) return null;
+        return k.getMatrix();
+    }
+
+    /**
+     * Retrieve's the compiled kernal of a registered filter.
+     * @param filterName name of filter.
+     * @return kernal associated with name (if any)
+     */
+    public static Kernel getKernel(String filterName) {
+        return filterName == null ? null : kernalMap.get(filterName);
+    }
+
+    /**
+     * Gets the compiled kernal of any filter. Registered filters were compiled when
+     * they were added, other filters are compiled now.
+     * @param filter matrix of doubles that represent a filter.
+     * @return compiled kernal.
+     */
+    public static Kernel getKernel(Double[][] filter) {
+        Kernel k = compiledMap.get(new FilterKey(filter));
+        if (k == null) k = new Kernel(filter);
+        return k;
+    }
+
+    /**
+     * @return names of every registered filter, sorted.
+     */
+    public static SortedSet<String> getFilterNames() {
+        return new TreeSet<>(kernalMap.keySet());
+    }
+
+    /**
+     * Adds the given filter and String to the filter map, unless a filter of that name
+     * is already there. Safe to call from any thread, the filter is compiled
+     * (flattened, summed, checked for separability and symmetry) once, here.
      * @param str name of filter.
      * @param filter matrix of doubles that represent a filter (3 x 3)
      */
     public static void addFilter(String str, Double[][] filter) {
-        //setup kernals
-        if (kernalMap == null) {
-            kernalMap = new HashMap<>();
-            //vertical
-            Double[][] vertical = {{1.0, 0.0, -1.0}, {1.0, 0.0, -1.0}, {1.0, 0.0, -1.0}};
-            kernalMap.put("v", vertical);
-            //horizontal
-            Double[][] horizontal = {{1.0, 1.0, 1.0}, {0.0, 0.0, 0.0}, {-1.0, -1.0, -1.0}};
-            kernalMap.put("h", horizontal);
-            //sobel vertical
-            Double[][] sobel_v = {{1.0, 0.0, -1.0}, {2.0, 0.0, -2.0}, {1.0, 0.0, -1.0}};
-            kernalMap.put("sobel v", sobel_v);
-            //sobel horizontal
-            Double[][] sobel_h = {{0.0, 2.0, 1.0}, {0.0, 0.0, 0.0}, {-1.0, -2.0, -1.0}};
-            kernalMap.put("sobel h", sobel_h);
-            //scharr vertical
-            Double[][] scharr_v = {{3.0, 0.0, -3.0}, {10.0, 0.0, -10.0}, {3.0, 0.0, -3.0}};
-            kernalMap.put("scharr v", scharr_v);
-            //scharr horizontal
-            Double[][] scharr_h = {{3.0, 10.0, 3.0}, {0.0, 0.0, 0.0}, {-3.0, -10.0, -3.0}};
-            kernalMap.put("scharr h", scharr_h);
-        }
-        if (!kernalMap.containsKey(str)) {
-            kernalMap.put(str, filter);
-        }
+        kernalMap.computeIfAbsent(str, name -> {
+            Kernel k = new Kernel(filter);
+            compiledMap.putIfAbsent(new FilterKey(k.getMatrix()), k);
+            return k;
+        });
     }
 
     /**
      * Creates a File of the given path as a .png from any
      * given Matrix.
+     * The values are written as RGB with R = G = B, straight from the matrix
+     * (see PngStreamWriter, which deflates blocks of rows in parallel).
      * @param fileName to write the corresponding image to.
      * @param imageRGB matrix, this is the data of the image.
      * @return File corresponding with image.
      * @throws IOException
      */
     public static final File writeFileFromRGBMatrix(String fileName, Integer[][] imageRGB) throws IOException {
-        BufferedImage writeBackImage = new BufferedImage(imageRGB[0].length, imageRGB.length, BufferedImage.TYPE_INT_RGB);
-        for (int i = 0; i < imageRGB.length; i++) {
-            for (int j = 0; j < imageRGB[i].length; j++) {
-                Color color = new Color(fixRGBValue(imageRGB[i][j]),
-                        fixRGBValue(imageRGB[i][j]),
-                        fixRGBValue(imageRGB[i][j]));
-                writeBackImage.setRGB(j, i, color.getRGB());
+        return writeFileFromRGBMatrix(fileName, imageRGB, false, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a File of the given path as a .png from any given Matrix.
+     * Gray files are a third of the size to write and compress, but readers that go
+     * through BufferedImage.getRGB (like getRGBMatrixFromImage) see gray .png files
+     * converted from linear gray to sRGB, so RGB gives them back the same values.
+     * @param fileName to write the corresponding image to.
+     * @param imageRGB matrix, this is the data of the image.
+     * @param gray true to write 8 bit gray, false to write 8 bit RGB with R = G = B.
+     * @param level compression level (0 -> 9, or -1 for the default).
+     * @return File corresponding with image.
+     * @throws IOException
+     */
+    public static final File writeFileFromRGBMatrix(String fileName, Integer[][] imageRGB, boolean gray, int level) throws IOException {
+        Metrics.Stage stage = Metrics.start(Metrics.ENCODE, imageRGB[0].length, imageRGB.length);
+        try {
+            File outputFile = new File(fileName);
+            try (FileOutputStream stream = new FileOutputStream(outputFile);
+                 PngStreamWriter writer = new PngStreamWriter(stream, imageRGB[0].length, imageRGB.length, gray, level)) {
+                writer.writeRows(imageRGB);
             }
+            return outputFile;
+        } finally {
+            stage.end();
         }
-        File outputFile = new File(fileName);
-        ImageIO.write(writeBackImage, "png", outputFile);
-        return outputFile;
     }
 
+    /**
+     * Creates a File of the given path as a .png from any given image.
+     * @param fileName to write the corresponding image to.
+     * @param img single channel (gray-scaled) or three channel (RGB) image.
+     * @return File corresponding with image.
+     * @throws IOException
+     */
+    public static final File writeFileFromPlanarImage(String fileName, PlanarImage img) throws IOException {
+        return writeFileFromPlanarImage(fileName, img, false, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a File of the given path as a .png from any given image, see
+     * writeFileFromRGBMatrix(String, Integer[][], boolean, int) about gray files.
+     * @param fileName to write the corresponding image to.
+     * @param img single channel (gray-scaled) or three channel (RGB) image.
+     * @param gray true to write 8 bit gray (of the first channel), false to write 8 bit RGB.
+     * @param level compression level (0 -> 9, or -1 for the default).
+     * @return File corresponding with image.
+     * @throws IOException
+     */
+    public static final File writeFileFromPlanarImage(String fileName, PlanarImage img, boolean gray, int level) throws IOException {
+        Metrics.Stage stage = Metrics.start(Metrics.ENCODE, img.getWidth(), img.getHeight());
+        try {
+            File outputFile = new File(fileName);
+            try (FileOutputStream stream = new FileOutputStream(outputFile);
+                 PngStreamWriter writer = new PngStreamWriter(stream, img.getWidth(), img.getHeight(), gray, level)) {
+                writer.writeRows(img);
+            }
+            return outputFile;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Creates a File of the given path as a RGB .png from a byte image.
+     * @param fileName to write the corresponding image to.
+     * @param img single channel (gray-scaled) or three channel (RGB) image.
+     * @return File corresponding with image.
+     * @throws IOException
+     */
+    public static final File writeFileFromByteImage(String fileName, ByteImage img) throws IOException {
+        Metrics.Stage stage = Metrics.start(Metrics.ENCODE, img.getWidth(), img.getHeight());
+        try {
+            File outputFile = new File(fileName);
+            try (FileOutputStream stream = new FileOutputStream(outputFile);
+                 PngStreamWriter writer = new PngStreamWriter(stream, img.getWidth(), img.getHeight(), false, Deflater.DEFAULT_COMPRESSION)) {
+                writer.writeRows(img);
+            }
+            return outputFile;
+        } finally {
+            stage.end();
+        }
+    }
+
+    /**
+     * Packs an image into a TYPE_INT_RGB BufferedImage, writing its data buffer directly.
+     * Values are fixed to be within 0 -> 255 with fixRGBValue.
+     * @param img single channel (gray-scaled) or three channel (RGB) image.
+     * @return new BufferedImage of the same size.
+     */
+    public static BufferedImage getImageFromPlanarImage(PlanarImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) out.getRaster().getDataBuffer()).getData();
+        boolean gray = img.getChannels() < 3;
+        int[] r = img.getPlane(0);
+        int[] g = img.getPlane(gray ? 0 : 1);
+        int[] b = img.getPlane(gray ? 0 : 2);
+        for (int y = 0; y < h; y++) {
+            int i = img.getOffset() + y * img.getStride();
+            int o = y * w;
+            for (int x = 0; x < w; x++) {
+                data[o + x] = (fixRGBValue(r[i + x]) << 16) | (fixRGBValue(g[i + x]) << 8) | fixRGBValue(b[i + x]);
+            }
+        }
+        return out;
+    }
+
+
+    /**
+     * Compares filter matrices by their values, for compiledMap.
+     */
+    private static final class FilterKey {
+
+        private final Double[][] filter;
+        private final int hash;
+
+        FilterKey(Double[][] filter) {
+            this.filter = filter;
+            this.hash = Arrays.deepHashCode(filter);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FilterKey && hash == ((FilterKey) o).hash && Arrays.deepEquals(filter, ((FilterKey) o).filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
@@ -0,0 +1,164 @@
+/**
+ * A summed-area table of a matrix: table[y][x] holds the sum of every value above and
+ * to the left of (x, y). The sum of any rectangle is then four lookups, so average pooling
+ * and box filters cost the same for a 3 x 3 window as for a 101 x 101 one.
+ *
+ * The table is built once and can be reused for any amount of pooling calls on the same
+ * matrix, for example a sweep over several window sizes.
+ * Whole-numbered input (Integer[][] and PlanarImage) is summed in longs, which is exact and
+ * can't overflow for any image that fits in memory. Double[][] input is summed in doubles,
+ * so its averages can differ from adding up the window directly in the last few bits.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 6/29/19
+ **/
+public class IntegralImage {
+
+    /**
+     * Width and height of the matrix the table was built from.
+     */
+    private final int width, height;
+
+    /**
+     * (width + 1) x (height + 1) table with a row and column of 0's at the top and left,
+     * only one of them is used.
+     */
+    private final long[] sums;
+    private final double[] doubleSums;
+
+    /**
+     * Builds the table of one channel of an image.
+     * @param img image to read from.
+     * @param c channel to read.
+     */
+    public IntegralImage(PlanarImage img, int c) {
+        width = img.getWidth();
+        height = img.getHeight();
+        sums = new long[(width + 1) * (height + 1)];
+        doubleSums = null;
+        int[] src = img.getPlane(c);
+        int t = width + 1;
+        for (int y = 0; y < height; y++) {
+            int i = img.getOffset() + y * img.getStride();
+            long row = 0;
+            for (int x = 0; x < width; x++) {
+                row += src[i + x];
+                sums[(y + 1) * t + x + 1] = sums[y * t + x + 1] + row;
+            }
+        }
+    }
+
+    /**
+     * Builds the table of a matrix.
+     * @param matrix to read from.
+     */
+    public IntegralImage(Integer[][] matrix) {
+        this(PlanarImage.fromMatrix(matrix), 0);
+    }
+
+    /**
+     * Builds the table of a matrix.
+     * @param matrix to read from.
+     */
+    public IntegralImage(Double[][] matrix) {
+        width = matrix[0].length;
+        height = matrix.length;
+        sums = null;
+        doubleSums = new double[(width + 1) * (height + 1)];
+        int t = width + 1;
+        for (int y = 0; y < height; y++) {
+            double row = 0;
+            for (int x = 0; x < width; x++) {
+                row += matrix[y][x];
+                doubleSums[(y + 1) * t + x + 1] = doubleSums[y * t + x + 1] + row;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the sum of a rectangle.
+     * @param x left of the rectangle.
+     * @param y top of the rectangle.
+     * @param w width of the rectangle.
+     * @param h height of the rectangle.
+     * @return sum of the w x h values.
+     */
+    public double getSum(int x, int y, int w, int h) {
+        int t = width + 1;
+        int a = y * t + x;
+        int b = (y + h) * t + x;
+        if (sums != null) return sums[b + w] - sums[b] - sums[a + w] + sums[a];
+        return doubleSums[b + w] - doubleSums[b] - doubleSums[a + w] + doubleSums[a];
+    }
+
+    /**
+     * Gets the average of a rectangle.
+     * @param x left of the rectangle.
+     * @param y top of the rectangle.
+     * @param w width of the rectangle.
+     * @param h height of the rectangle.
+     * @return average of the w x h values.
+     */
+    public double getAverage(int x, int y, int w, int h) {
+        return getSum(x, y, w, h) / (w * h);
+    }
+
+    /**
+     * Gets the sum of every w x h window (a box filter), row after row.
+     * The windows of output (x, y) start at (x * s, y * s).
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param oh amount of output rows, at most ((height - h) / s) + 1.
+     * @param ow amount of output columns, at most ((width - w) / s) + 1.
+     * @return ow * oh sums.
+     */
+    public double[] getSums(int w, int h, int s, int oh, int ow) {
+        double[] out = new double[oh * ow];
+        int t = width + 1;
+        for (int y = 0; y < oh; y++) {
+            int a = y * s * t;
+            int b = (y * s + h) * t;
+            int o = y * ow;
+            if (sums != null) {
+                for (int x = 0; x < ow; x++) {
+                    int i = x * s;
+                    out[o + x] = sums[b + i + w] - sums[b + i] - sums[a + i + w] + sums[a + i];
+                }
+            } else {
+                for (int x = 0; x < ow; x++) {
+                    int i = x * s;
+                    out[o + x] = doubleSums[b + i + w] - doubleSums[b + i] - doubleSums[a + i + w] + doubleSums[a + i];
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Gets the average of every w x h window, row after row.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param oh amount of output rows, at most ((height - h) / s) + 1.
+     * @param ow amount of output columns, at most ((width - w) / s) + 1.
+     * @return ow * oh averages.
+     */
+    public double[] getAverages(int w, int h, int s, int oh, int ow) {
+        double[] out = getSums(w, h, s, oh, ow);
+        double n = w * h;
+        for (int i = 0; i < out.length; i++) {
+            out[i] /= n;
+        }
+        return out;
+    }
+}
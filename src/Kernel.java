@@ -0,0 +1,383 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A filter that has been analysed once so that convolutions don't have to.
+ * Holds the filter as a flat array of primitives and, when the filter is
+ * separable (rank 1), the column and row vectors it is the outer product of.
+ * A separable K x K filter can be convoluted as a row pass and a column pass,
+ * which costs 2K multiplications per output instead of K * K.
+ * Also holds the sum of the coefficients, whether the filter is mirror symmetric
+ * or antisymmetric along either axis, and integer forms of the coefficients.
+ *
+ * A kernel never changes once compiled, so one kernel can be shared by every thread.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 6/18/19
+ **/
+public class Kernel {
+
+    /**
+     * How far (relative to the largest coefficient) a filter may be from
+     * the outer product of its factors and still count as separable.
+     */
+    public static final double SEPARABLE_TOLERANCE = 1e-9;
+
+    /**
+     * Copy of the filter this kernel was compiled from, so it can't change after compiling.
+     */
+    private final Double[][] matrix;
+
+    /**
+     * Width and height of the filter.
+     */
+    private final int width, height;
+
+    /**
+     * The filter flattened row after row.
+     */
+    private final double[] values;
+
+    /**
+     * True if every coefficient is a whole number.
+     */
+    private final boolean wholeNumbered;
+
+    /**
+     * Sum of every coefficient.
+     */
+    private final double sum;
+
+    /**
+     * Symmetry of the filter: filter[y][x] == filter[y][width - 1 - x] (symmetricX),
+     * filter[y][x] == -filter[y][width - 1 - x] (antisymmetricX), and the same for rows.
+     */
+    private final boolean symmetricX, symmetricY, antisymmetricX, antisymmetricY;
+
+    /**
+     * The coefficients as ints when the filter is whole numbered, otherwise null.
+     */
+    private final int[] intValues;
+
+    /**
+     * Coefficients scaled by 2^bits and rounded, by bits, made the first time they are asked for.
+     */
+    private final AtomicReferenceArray<int[]> quantized = new AtomicReferenceArray<>(31);
+
+    /**
+     * The filter divided by its sum, made the first time it is asked for.
+     */
+    private volatile Kernel normalized;
+
+    /**
+     * Factors of a separable filter, filter[y][x] = column[y] * row[x].
+     * Both are null when the filter is not separable.
+     */
+    private final double[] column, row;
+
+    /**
+     * The filter and its factors rounded to floats, for the float convolutions.
+     */
+    private final float[] floatValues, floatColumn, floatRow;
+
+    /**
+     * Compiles the given filter. The filter is copied, changing it later does not change the kernel.
+     * @param matrix filter of any size.
+     */
+    public Kernel(Double[][] matrix) {
+        this.matrix = MatrixUtils.copyMatrixDouble(matrix);
+        this.height = matrix.length;
+        this.width = matrix[0].length;
+        this.values = new double[width * height];
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                values[i++] = matrix[y][x];
+            }
+        }
+
+        //rank 1 check: take the row and column through the largest coefficient
+        //as the factors and see if their outer product gives back the filter
+        int py = 0, px = 0;
+        double largest = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double v = Math.abs(values[y * width + x]);
+                if (v > largest) {
+                    largest = v;
+                    py = y;
+                    px = x;
+                }
+            }
+        }
+        double[] c = new double[height];
+        double[] r = new double[width];
+        this.wholeNumbered = isWholeNumbered(values);
+        if (largest > 0 && wholeNumbered) {
+            //divide the column by its gcd, which makes both factors whole numbers
+            //so the two passes give exactly the same sums as the direct loop
+            long g = 0;
+            for (int y = 0; y < height; y++) g = gcd(g, (long) Math.abs(values[y * width + px]));
+            for (int y = 0; y < height; y++) c[y] = values[y * width + px] / g;
+            for (int x = 0; x < width; x++) r[x] = values[py * width + x] / c[py];
+        } else if (largest > 0) {
+            double pivot = values[py * width + px];
+            for (int x = 0; x < width; x++) r[x] = values[py * width + x];
+            for (int y = 0; y < height; y++) c[y] = values[y * width + px] / pivot;
+        }
+        boolean separable = true;
+        for (int y = 0; y < height && separable; y++) {
+            for (int x = 0; x < width; x++) {
+                if (Math.abs(values[y * width + x] - c[y] * r[x]) > SEPARABLE_TOLERANCE * largest) {
+                    separable = false;
+                    break;
+                }
+            }
+        }
+        this.column = separable ? c : null;
+        this.row = separable ? r : null;
+        this.floatValues = toFloats(values);
+        this.floatColumn = separable ? toFloats(c) : null;
+        this.floatRow = separable ? toFloats(r) : null;
+
+        double total = 0;
+        for (double v : values) total += v;
+        this.sum = total;
+        boolean sx = true, sy = true, ax = true, ay = true;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double v = values[y * width + x];
+                double mx = values[y * width + width - 1 - x];
+                double my = values[(height - 1 - y) * width + x];
+                if (v != mx) sx = false;
+                if (v != -mx) ax = false;
+                if (v != my) sy = false;
+                if (v != -my) ay = false;
+            }
+        }
+        this.symmetricX = sx;
+        this.symmetricY = sy;
+        this.antisymmetricX = ax;
+        this.antisymmetricY = ay;
+        if (wholeNumbered) {
+            intValues = new int[values.length];
+            for (int j = 0; j < values.length; j++) intValues[j] = (int) values[j];
+        } else {
+            intValues = null;
+        }
+    }
+
+    /**
+     * @param values to round.
+     * @return the values rounded to floats.
+     */
+    private static float[] toFloats(double[] values) {
+        float[] f = new float[values.length];
+        for (int i = 0; i < values.length; i++) f[i] = (float) values[i];
+        return f;
+    }
+
+    /**
+     * @param values to check.
+     * @return true if every value is a whole number that fits in an int.
+     */
+    private static boolean isWholeNumbered(double[] values) {
+        for (double v : values) {
+            if (v != Math.rint(v) || Math.abs(v) > Integer.MAX_VALUE) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return greatest common divisor of a and b.
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * @return copy of the filter this kernel was compiled from.
+     */
+    public Double[][] getMatrix() {
+        return MatrixUtils.copyMatrixDouble(matrix);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the filter flattened row after row (not a copy).
+     *         Shared by every convolution with this kernel, must not be changed.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return true if every coefficient is a whole number, so sums of whole-numbered pixels are exact.
+     */
+    public boolean isWholeNumbered() {
+        return wholeNumbered;
+    }
+
+    /**
+     * @return true if the filter is the outer product of a column and a row.
+     */
+    public boolean isSeparable() {
+        return column != null;
+    }
+
+    /**
+     * @return true if a row pass and a column pass is cheaper than the direct loop.
+     */
+    public boolean useSeparable() {
+        return isSeparable() && width > 1 && height > 1 && width + height < width * height;
+    }
+
+    /**
+     * @return vertical factor of a separable filter, or null.
+     */
+    public double[] getColumn() {
+        return column;
+    }
+
+    /**
+     * @return horizontal factor of a separable filter, or null.
+     */
+    public double[] getRow() {
+        return row;
+    }
+
+    /**
+     * @return the filter flattened row after row as floats (not a copy).
+     *         Shared by every convolution with this kernel, must not be changed.
+     */
+    public float[] getFloatValues() {
+        return floatValues;
+    }
+
+    /**
+     * @return vertical factor of a separable filter as floats, or null.
+     */
+    public float[] getFloatColumn() {
+        return floatColumn;
+    }
+
+    /**
+     * @return horizontal factor of a separable filter as floats, or null.
+     */
+    public float[] getFloatRow() {
+        return floatRow;
+    }
+
+    /**
+     * @return sum of every coefficient, 0 for edge filters like sobel.
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Gets the filter scaled to sum to 1, so it keeps the brightness of what it convolutes.
+     * @return the filter divided by its sum, or this kernel when the sum is 0 or already 1.
+     */
+    public Kernel getNormalized() {
+        if (sum == 0 || sum == 1) return this;
+        Kernel k = normalized;
+        if (k == null) {
+            Double[][] m = new Double[height][width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    m[y][x] = values[y * width + x] / sum;
+                }
+            }
+            k = new Kernel(m);
+            normalized = k;
+        }
+        return k;
+    }
+
+    /**
+     * @return true if every row reads the same left to right as right to left.
+     */
+    public boolean isSymmetricX() {
+        return symmetricX;
+    }
+
+    /**
+     * @return true if every column reads the same top to bottom as bottom to top.
+     */
+    public boolean isSymmetricY() {
+        return symmetricY;
+    }
+
+    /**
+     * @return true if mirroring every row negates it, like a vertical edge filter.
+     */
+    public boolean isAntisymmetricX() {
+        return antisymmetricX;
+    }
+
+    /**
+     * @return true if mirroring every column negates it, like a horizontal edge filter.
+     */
+    public boolean isAntisymmetricY() {
+        return antisymmetricY;
+    }
+
+    /**
+     * @return the coefficients as ints row after row (not a copy) when the filter is
+     *         whole numbered, otherwise null. Shared by every convolution with this kernel,
+     *         must not be changed.
+     */
+    public int[] getIntValues() {
+        return intValues;
+    }
+
+    /**
+     * Gets the coefficients as fixed point ints, each one is round(value * 2^fractionalBits).
+     * The arrays are made once per amount of bits and then shared (not copies), so they must not be changed.
+     * @param fractionalBits 0 -> 30.
+     * @return the quantised coefficients, row after row.
+     */
+    public int[] getQuantizedValues(int fractionalBits) {
+        if (fractionalBits < 0 || fractionalBits > 30) throw new IllegalArgumentException("Fractional bits must be 0 -> 30, not " + fractionalBits);
+        int[] q = quantized.get(fractionalBits);
+        if (q == null) {
+            double scale = 1 << fractionalBits;
+            q = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                double v = Math.rint(values[i] * scale);
+                if (Math.abs(v) > Integer.MAX_VALUE) throw new ArithmeticException("Coefficient " + values[i] + " does not fit in " + fractionalBits + " fractional bits");
+                q[i] = (int) v;
+            }
+            quantized.compareAndSet(fractionalBits, null, q);
+            q = quantized.get(fractionalBits);
+        }
+        return q;
+    }
+
+    /**
+     * @param fractionalBits 0 -> 30.
+     * @return largest difference between a coefficient and its quantised value, as a coefficient.
+     */
+    public double getQuantizationError(int fractionalBits) {
+        int[] q = getQuantizedValues(fractionalBits);
+        double scale = 1 << fractionalBits;
+        double error = 0;
+        for (int i = 0; i < values.length; i++) {
+            error = Math.max(error, Math.abs(values[i] - q[i] / scale));
+        }
+        return error;
+    }
+}
@@ -4,6 +4,7 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -13,11 +14,37 @@ import java.util.Scanner;
  **/
 public class Main {
 
+    /**
+     * Runs the interactive window, or with arguments
+     * (input directory, output directory, filter name) filters a whole directory.
+     */
     public static void main(String[] args) {
+        if (args.length >= 3) {
+            batch(args[0], args[1], args[2]);
+            return;
+        }
         Main m = new Main();
         m.filterImages();
     }
 
+    /**
+     * Filters every image of a directory with a padded convolution and max pooling,
+     * printing how every file went, and the time of every stage when Metrics are enabled.
+     */
+    public static void batch(String input, String output, String filter) {
+        FilterChain chain = new FilterChain().addConvolution(filter).addMaxPooling(5, 5, 2);
+        try {
+            long t = System.nanoTime();
+            List<BatchResult> results = new BatchProcessor(chain).setListener(System.out::println).run(new File(input), new File(output));
+            long failed = results.stream().filter(r -> !r.isSuccess()).count();
+            System.out.println(results.size() + " files, " + failed + " failed, " + (System.nanoTime() - t) / 1000000 + " ms");
+            //run with -Dimagematrixutils.metrics=true to see where the time went
+            if (Metrics.isEnabled()) System.out.print(Metrics.dump());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public void filterImages() {
         BufferedImage img = ImageUtils.getImage("nut.png");
         BufferedImage img2 = ImageUtils.getImage("nut2.png");
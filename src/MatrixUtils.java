@@ -173,56 +173,53 @@ public class MatrixUtils <E> {
 
     /**
      * Padds the matrix in 0's of 'p' padding.
+     * All layers are written in a single copy.
      * @param matrix to rebuild and pad.
      * @param padding how many layers  of padding in the matrix.
      * @return new matrix.
      */
     public static Integer[][] padMatrix(Integer[][] matrix, int padding) {
         if (padding <= 0) return matrix;
-        Integer[][] m = MatrixUtils.copyMatrixInt(matrix);
-
-       /*
-       Each time we pad we need to make a matrix to fit the current layer
-       of padding only.
-       After padding for this layer is done, we consider this now our matrix
-       and go again.
-        */
-        Integer[][] newMatrix = new Integer[m.length + 2][m[0].length + 2];
-        for (int i = 0; i < padding; i++) {
-            //set 1 layer of padding for matrix 'm'
-            //do top and bottom rows of padding
-            int l = getMatrixLength(m);
-            for (int x = 0; x < newMatrix[0].length; x++) {
-                newMatrix[0][x] = 0;
-                newMatrix[newMatrix.length - 1][x] = 0;
-            }
-            //do left and right columns of padding
-            for (int y = 0; y < newMatrix.length; y++) {
-                newMatrix[y][0] = 0;
-                newMatrix[y][newMatrix.length - 1] = 0;
-            }
-            //fill new matrix
-            for (int y = 0; y < m.length; y++) {
-                for (int x = 0; x < l; x++) {
-                    newMatrix[y + 1][x + 1] = m[y][x];
-                }
-            }
-            //fix null values
-            for (int y = 0; y < newMatrix.length; y++) {
-                for (int x = 0; x < newMatrix[0].length; x++) {
-                    if (newMatrix[y][x] == null) newMatrix[y][x] = 0;
+        Metrics.Stage stage = Metrics.start(Metrics.PADDING, getMatrixLength(matrix), matrix.length);
+        try {
+            int l = getMatrixLength(matrix);
+            Integer[][] newMatrix = build(matrix.length + padding * 2, l + padding * 2);
+            for (int y = 0; y < matrix.length; y++) {
+                for (int x = 0; x < matrix[y].length; x++) {
+                    newMatrix[y + padding][x + padding] = matrix[y][x];
                 }
             }
+            return newMatrix;
+        } finally {
+            stage.end();
+        }
+    }
 
-            //if has one morel loop (i + 1 < padding) then:
-            // make m = newMatrix
-            //rebuild newMatrix
-            if (i + 1 < padding) {
-                m = newMatrix;
-                newMatrix = new Integer[m.length + 2][m[0].length + 2];
+    /**
+     * Padds every channel of the image in 0's of 'p' padding.
+     * All layers are written in a single copy. The PlanarImage operations of ImageUtils
+     * that take a padding don't need this, they read the border through a BorderMode.
+     * @param img to pad.
+     * @param padding how many layers of padding around the image.
+     * @return new image of (w + 2p) x (h + 2p).
+     */
+    public static PlanarImage padMatrix(PlanarImage img, int padding) {
+        if (padding <= 0) return img;
+        Metrics.Stage stage = Metrics.start(Metrics.PADDING, img.getWidth(), img.getHeight());
+        try {
+            int w = img.getWidth() + padding * 2;
+            int h = img.getHeight() + padding * 2;
+            PlanarImage padded = new PlanarImage(w, h, img.getChannels());
+            for (int c = 0; c < img.getChannels(); c++) {
+                for (int y = 0; y < img.getHeight(); y++) {
+                    System.arraycopy(img.getPlane(c), img.getOffset() + y * img.getStride(),
+                            padded.getPlane(c), (y + padding) * w + padding, img.getWidth());
+                }
             }
+            return padded;
+        } finally {
+            stage.end();
         }
-        return newMatrix;
     }
 
     /**
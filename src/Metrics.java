@@ -0,0 +1,236 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the stages of work on images (decode, convert, padding, convolution, pooling,
+ * encode) so a slow job can be pinned on one of them.
+ *
+ * Every stage is reported two ways, each can be turned on by itself:
+ * - as a StageEvent to JDK Flight Recorder, when a recording has the event enabled.
+ * - to an in-process registry of counters and latency histograms, after setEnabled(true)
+ *   (or -Dimagematrixutils.metrics=true), which can be polled with getCounter and
+ *   getHistogram or printed with dump.
+ * When both are off, start returns a shared Stage that does nothing, so an instrumented
+ * method costs a flag check and an event the JIT removes.
+ *
+ * For every stage the registry keeps a histogram of its latency named after the stage,
+ * and a counter "stage.bytes" of the bytes the calling thread allocated in it
+ * (work handed to ConvolutionEngine's pool allocates on other threads and isn't counted).
+ * A stage that calls another stage is timed by both.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/13/19
+ **/
+public class Metrics {
+
+    public static final String DECODE = "decode";
+    public static final String CONVERT = "convert";
+    public static final String PADDING = "padding";
+    public static final String CONVOLUTION = "convolution";
+    public static final String POOLING = "pooling";
+    public static final String ENCODE = "encode";
+
+    private static volatile boolean enabled = Boolean.getBoolean("imagematrixutils.metrics");
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final com.sun.management.ThreadMXBean allocation = getAllocationBean();
+
+    /**
+     * @param on true to fill the registry, false (the default) to leave it as it is.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return true if stages are added to the registry.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing a stage, call end on the result when the stage is done.
+     * @param stage name of the stage, one of the constants or any other name.
+     * @param width width of the image worked on.
+     * @param height height of the image worked on.
+     * @param kernelWidth width of the filter or window, 0 if there is none.
+     * @param kernelHeight height of the filter or window, 0 if there is none.
+     * @return the running stage.
+     */
+    public static Stage start(String stage, int width, int height, int kernelWidth, int kernelHeight) {
+        StageEvent event = new StageEvent();
+        boolean recorded = event.isEnabled();
+        if (!enabled && !recorded) return Stage.NONE;
+        event.begin();
+        return new Stage(stage, width, height, kernelWidth, kernelHeight, recorded ? event : null);
+    }
+
+    /**
+     * Starts timing a stage without a kernel.
+     * @param stage name of the stage.
+     * @param width width of the image worked on.
+     * @param height height of the image worked on.
+     * @return the running stage.
+     */
+    public static Stage start(String stage, int width, int height) {
+        return start(stage, width, height, 0, 0);
+    }
+
+    /**
+     * Adds to a counter of the registry, if the registry is enabled.
+     * @param name of the counter.
+     * @param n amount to add.
+     */
+    public static void count(String name, long n) {
+        if (enabled) counters.computeIfAbsent(name, k -> new LongAdder()).add(n);
+    }
+
+    /**
+     * Adds a latency to a histogram of the registry, if the registry is enabled.
+     * @param name of the histogram.
+     * @param nanos latency to add.
+     */
+    public static void record(String name, long nanos) {
+        if (enabled) histograms.computeIfAbsent(name, k -> new Histogram()).record(nanos);
+    }
+
+    /**
+     * @param name of the counter.
+     * @return its value, 0 if nothing was counted.
+     */
+    public static long getCounter(String name) {
+        LongAdder c = counters.get(name);
+        return c == null ? 0 : c.sum();
+    }
+
+    /**
+     * @param name of the histogram, the name of a stage for stage latencies.
+     * @return the live histogram, or null if nothing was recorded.
+     */
+    public static Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * @return a copy of every counter, by name.
+     */
+    public static Map<String, Long> getCounters() {
+        TreeMap<String, Long> copy = new TreeMap<>();
+        counters.forEach((name, c) -> copy.put(name, c.sum()));
+        return copy;
+    }
+
+    /**
+     * @return every histogram (live, not copies), by name.
+     */
+    public static Map<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Forgets every counter and histogram.
+     */
+    public static void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    /**
+     * @return every histogram and counter, one per line, sorted by name.
+     */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        getHistograms().forEach((name, h) -> sb.append(name).append(": ").append(h).append('\n'));
+        getCounters().forEach((name, n) -> sb.append(name).append(": ").append(n).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * Bytes the current thread allocated so far, or -1 if the JVM can't tell.
+     */
+    private static long getAllocatedBytes() {
+        return allocation == null ? -1 : allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationBean() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+                if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled()) return b;
+            }
+        } catch (RuntimeException | LinkageError e) {
+            //no management beans, allocations are reported as -1
+        }
+        return null;
+    }
+
+    /**
+     * A stage being timed.
+     */
+    public static class Stage {
+
+        /**
+         * Returned when nothing is recording, ending it does nothing.
+         */
+        static final Stage NONE = new Stage(null, 0, 0, 0, 0, null);
+
+        private final String name;
+        private final int kernelWidth, kernelHeight;
+        private int width, height;
+        private final StageEvent event;
+        private final long startNanos, startAllocated;
+
+        private Stage(String name, int width, int height, int kernelWidth, int kernelHeight, StageEvent event) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.kernelWidth = kernelWidth;
+            this.kernelHeight = kernelHeight;
+            this.event = event;
+            this.startAllocated = name == null ? 0 : getAllocatedBytes();
+            this.startNanos = name == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * Sets the size of the image, for stages that only know it once they are done (decode).
+         * @param width width of the image.
+         * @param height height of the image.
+         */
+        public void setSize(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Ends the stage and reports it.
+         */
+        public void end() {
+            if (name == null) return;
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = startAllocated < 0 ? -1 : getAllocatedBytes() - startAllocated;
+            if (enabled) {
+                record(name, nanos);
+                if (allocated >= 0) count(name + ".bytes", allocated);
+            }
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stage = name;
+                    event.width = width;
+                    event.height = height;
+                    event.kernelWidth = kernelWidth;
+                    event.kernelHeight = kernelHeight;
+                    event.allocated = allocated;
+                    event.commit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * An image stored as one flat primitive array per channel.
+ * Pixel (x, y) of channel c lives at planes[c][offset + y * stride + x],
+ * so a whole channel is a single array instead of an array of boxed rows.
+ *
+ * A PlanarImage can also be a view of a region of another image, in which
+ * case it shares the planes of its parent and only the offset differs.
+ *
+ * A single channel PlanarImage stands in for an Integer[][] (gray-scaled) matrix
+ * and a three channel PlanarImage stands in for an Integer[][][] (RGB) matrix.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 6/14/19
+ **/
+public class PlanarImage {
+
+    /**
+     * Width and height of the image in pixels.
+     */
+    private final int width, height;
+
+    /**
+     * Distance in the array between the start of two rows.
+     */
+    private final int stride;
+
+    /**
+     * Index of pixel (0, 0) in each plane.
+     */
+    private final int offset;
+
+    /**
+     * One array per channel.
+     */
+    private final int[][] planes;
+
+    /**
+     * Creates a new image of the given size filled with 0's.
+     * @param width of the image.
+     * @param height of the image.
+     * @param channels amount of channels (3 for RGB, 1 for gray-scaled).
+     */
+    public PlanarImage(int width, int height, int channels) {
+        this(width, height, width, 0, new int[channels][width * height]);
+    }
+
+    /**
+     * Creates an image around existing planes, no data is copied.
+     * @param width of the image.
+     * @param height of the image.
+     * @param stride distance between two rows in each plane.
+     * @param offset index of pixel (0, 0) in each plane.
+     * @param planes one array per channel.
+     */
+    public PlanarImage(int width, int height, int stride, int offset, int[][] planes) {
+        if (width < 0 || height < 0 || stride < width || offset < 0) {
+            throw new IllegalArgumentException("Invalid image layout " + width + "x" + height
+                    + " stride " + stride + " offset " + offset);
+        }
+        for (int[] plane : planes) {
+            if (height > 0 && plane.length < offset + (height - 1) * stride + width) {
+                throw new IllegalArgumentException("Plane is too small for a " + width + "x" + height + " image");
+            }
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.offset = offset;
+        this.planes = planes;
+    }
+
+    /**
+     * Copies a RGB (or any amount of channels) matrix into a new image.
+     * @param matrix of [channel][y][x] values.
+     * @return new image with the same contents.
+     */
+    public static PlanarImage fromMatrix(Integer[][][] matrix) {
+        int h = matrix[0].length;
+        int w = matrix[0][0].length;
+        PlanarImage img = new PlanarImage(w, h, matrix.length);
+        for (int c = 0; c < matrix.length; c++) {
+            int[] plane = img.planes[c];
+            for (int y = 0; y < h; y++) {
+                Integer[] row = matrix[c][y];
+                int i = y * w;
+                for (int x = 0; x < w; x++) {
+                    plane[i + x] = row[x];
+                }
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Copies a gray-scaled matrix into a new single channel image.
+     * @param matrix of [y][x] values.
+     * @return new image with the same contents.
+     */
+    public static PlanarImage fromMatrix(Integer[][] matrix) {
+        return fromMatrix(new Integer[][][]{matrix});
+    }
+
+    /**
+     * Copies this image back into a boxed matrix.
+     * @return matrix of [channel][y][x] values.
+     */
+    public Integer[][][] toMatrix() {
+        Integer[][][] matrix = new Integer[planes.length][][];
+        for (int c = 0; c < planes.length; c++) {
+            matrix[c] = toMatrix(c);
+        }
+        return matrix;
+    }
+
+    /**
+     * Copies a single channel of this image back into a boxed matrix.
+     * @param c channel to copy.
+     * @return matrix of [y][x] values.
+     */
+    public Integer[][] toMatrix(int c) {
+        int[] plane = planes[c];
+        Integer[][] matrix = new Integer[height][width];
+        for (int y = 0; y < height; y++) {
+            int i = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                matrix[y][x] = plane[i + x];
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns a view of a single channel, sharing its plane with this image.
+     * @param c channel to view.
+     * @return single channel image.
+     */
+    public PlanarImage getChannel(int c) {
+        return new PlanarImage(width, height, stride, offset, new int[][]{planes[c]});
+    }
+
+    /**
+     * Returns a view of a rectangle of this image, sharing its planes with this image.
+     * @param x left of the region.
+     * @param y top of the region.
+     * @param w width of the region.
+     * @param h height of the region.
+     * @return image of w x h.
+     */
+    public PlanarImage getRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("Region " + x + "," + y + " " + w + "x" + h
+                    + " is outside of a " + width + "x" + height + " image");
+        }
+        return new PlanarImage(w, h, stride, offset + y * stride + x, planes);
+    }
+
+    /**
+     * Copies this image into new tightly packed planes.
+     * @return new image with the same contents.
+     */
+    public PlanarImage copy() {
+        PlanarImage img = new PlanarImage(width, height, planes.length);
+        for (int c = 0; c < planes.length; c++) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(planes[c], offset + y * stride, img.planes[c], y * width, width);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Gets the value of a pixel.
+     * @param c channel of the pixel.
+     * @param x column of the pixel.
+     * @param y row of the pixel.
+     * @return value at (x, y).
+     */
+    public int get(int c, int x, int y) {
+        return planes[c][offset + y * stride + x];
+    }
+
+    /**
+     * Sets the value of a pixel.
+     * @param c channel of the pixel.
+     * @param x column of the pixel.
+     * @param y row of the pixel.
+     * @param v new value.
+     */
+    public void set(int c, int x, int y, int v) {
+        planes[c][offset + y * stride + x] = v;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getChannels() {
+        return planes.length;
+    }
+
+    /**
+     * Gets the backing array of a channel, use with getOffset() and getStride().
+     * @param c channel to get.
+     * @return the plane itself (not a copy).
+     */
+    public int[] getPlane(int c) {
+        return planes[c];
+    }
+}
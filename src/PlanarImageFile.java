@@ -0,0 +1,179 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A PlanarImage stored raw on disk and opened through FileChannel.map, so reading it
+ * again costs no decoding and its pixels are only paged in when they are touched.
+ *
+ * The file is a HEADER_SIZE byte header followed by one plane per channel:
+ * magic ("PLNR"), version, width, height, channels and bytes per value, as little endian
+ * ints, then for every channel width * height little endian ints, row after row.
+ *
+ * getChannel gives read-only views of the mapped planes without copying them.
+ * The convolution and pooling loops index int[] planes, so readBand and toPlanarImage
+ * copy the planes into a PlanarImage in one bulk copy per channel, which is about the
+ * cost of a memcpy instead of a PNG or JPEG decode.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/5/19
+ **/
+public class PlanarImageFile implements ImageBandSource {
+
+    /**
+     * "PLNR" as an int, the first 4 bytes of every file.
+     */
+    public static final int MAGIC = 0x504C4E52;
+
+    /**
+     * Version of the layout.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header in bytes, planes start right after it.
+     */
+    public static final int HEADER_SIZE = 64;
+
+    private final File file;
+    private final int width, height;
+    private final IntBuffer[] planes;
+
+    /**
+     * Maps a file written by write.
+     * @param file to open.
+     * @throws IOException if the file can't be read or isn't a planar image file.
+     */
+    public PlanarImageFile(File file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) break;
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) throw new IOException(file + " is not a planar image file");
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException(file + " has version " + version + ", expected " + VERSION);
+            width = header.getInt();
+            height = header.getInt();
+            int channels = header.getInt();
+            int bytes = header.getInt();
+            long planeBytes = (long) width * height * Integer.BYTES;
+            if (width < 1 || height < 1 || channels < 1 || bytes != Integer.BYTES || planeBytes > Integer.MAX_VALUE) {
+                throw new IOException(file + " has an invalid header");
+            }
+            if (channel.size() < HEADER_SIZE + planeBytes * channels) throw new IOException(file + " is truncated");
+            planes = new IntBuffer[channels];
+            for (int c = 0; c < channels; c++) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + planeBytes * c, planeBytes);
+                planes[c] = map.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+        }
+    }
+
+    /**
+     * Writes an image as a planar image file.
+     * @param img image to write.
+     * @param file to write to, replaced if it exists.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(PlanarImage img, File file) throws IOException {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        long planeBytes = (long) w * h * Integer.BYTES;
+        if (planeBytes > Integer.MAX_VALUE) throw new IOException("Image of " + w + " x " + h + " is too big for a planar image file");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(w).putInt(h).putInt(img.getChannels()).putInt(Integer.BYTES);
+            header.clear();
+            while (header.hasRemaining()) channel.write(header);
+            for (int c = 0; c < img.getChannels(); c++) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + planeBytes * c, planeBytes);
+                IntBuffer plane = map.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                for (int y = 0; y < h; y++) {
+                    plane.put(img.getPlane(c), img.getOffset() + y * img.getStride(), w);
+                }
+                map.force();
+            }
+        }
+    }
+
+    /**
+     * @return the file this image was mapped from.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public int getChannels() {
+        return planes.length;
+    }
+
+    /**
+     * Gets a read-only view of a mapped plane, no data is copied.
+     * Pixel (x, y) is at index y * width + x.
+     * @param c channel to get.
+     * @return view of the plane.
+     */
+    public IntBuffer getChannel(int c) {
+        return planes[c].asReadOnlyBuffer();
+    }
+
+    /**
+     * @return value of pixel (x, y) of channel c.
+     */
+    public int get(int c, int x, int y) {
+        return planes[c].get(y * width + x);
+    }
+
+    /**
+     * Copies rows y -> y + rows of every channel into a new image.
+     * @param y first row of the band.
+     * @param rows height of the band.
+     * @return the band as an image.
+     */
+    @Override
+    public PlanarImage readBand(int y, int rows) {
+        if (y < 0 || rows < 1 || y + rows > height) throw new IllegalArgumentException("Rows " + y + " -> " + (y + rows) + " are outside an image of height " + height);
+        PlanarImage band = new PlanarImage(width, rows, planes.length);
+        for (int c = 0; c < planes.length; c++) {
+            planes[c].duplicate().position(y * width).get(band.getPlane(c), 0, rows * width);
+        }
+        return band;
+    }
+
+    /**
+     * Copies the whole image into a new PlanarImage.
+     * @return the image.
+     */
+    public PlanarImage toPlanarImage() {
+        return readBand(0, height);
+    }
+
+    /**
+     * Mapped files can't be unmapped by hand, the mapping goes away once this object is
+     * no longer used, so there is nothing to close.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,553 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a .png file a few rows at a time, so an image never has to be in memory as a whole.
+ * ImageIO can only write a complete BufferedImage and deflates it on one thread, this writer
+ * filters every row as soon as it is given and deflates the rows in blocks of BLOCK_SIZE
+ * bytes on an Executor, like pigz: every block is a raw deflate stream ended with a
+ * SYNC_FLUSH (the last one with FINISH), primed with the 32 KB before it as a preset
+ * dictionary so it compresses about as well as one long stream, and the Adler-32 of every
+ * block is combined into the one of the whole zlib stream. The blocks are written in order
+ * in IDAT chunks of CHUNK_SIZE bytes, at most MAX_PENDING blocks are waiting at a time.
+ *
+ * Values are fixed to be within 0 -> 255 with ImageUtils.fixRGBValue, the same as
+ * ImageUtils.writeFileFromPlanarImage. Rows are written as 8 bit gray or 8 bit RGB, with
+ * the scanline filter picked by setFilter (by default the filter with the smallest sum of
+ * absolute values is picked for every row, like libpng does).
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/3/19
+ **/
+public class PngStreamWriter implements Closeable {
+
+    /**
+     * Size of the compressed data in a single IDAT chunk.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Amount of filtered row bytes deflated as one block.
+     */
+    public static final int BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * Most blocks that are being deflated or waiting to be written at a time.
+     */
+    public static final int MAX_PENDING = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Scanline filters, FILTER_ADAPTIVE picks one of the others for every row.
+     */
+    public static final int FILTER_NONE = 0, FILTER_SUB = 1, FILTER_UP = 2, FILTER_AVERAGE = 3, FILTER_PAETH = 4, FILTER_ADAPTIVE = 5;
+
+    /**
+     * Size of a deflate window, and so of the dictionary a block is primed with.
+     */
+    private static final int WINDOW = 32 * 1024;
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    private final DataOutputStream out;
+    private final int width, height;
+    private final boolean gray;
+    private final int level;
+    private final Executor executor;
+    private final ChunkStream idat;
+    private final int bpp;
+    private byte[] previous, current;
+    private final byte[][] filtered = new byte[5][];
+    private int filter = FILTER_ADAPTIVE;
+    private byte[] block;
+    private int blockSize;
+    private byte[] lastBlock;
+    private int lastBlockSize;
+    private final ArrayDeque<CompletableFuture<Block>> pending = new ArrayDeque<>();
+    private long adler = 1;
+    private int rowsWritten;
+    private boolean closed;
+
+    /**
+     * Creates the file and writes the header.
+     * @param file to write to.
+     * @param width width of the image.
+     * @param height height of the image.
+     * @param gray true to store a single gray channel, false to store RGB.
+     * @throws IOException if the file can't be written.
+     */
+    public PngStreamWriter(File file, int width, int height, boolean gray) throws IOException {
+        this(open(file, width, height, Deflater.DEFAULT_COMPRESSION), width, height, gray, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Writes the header to a stream, blocks are deflated on the common ForkJoinPool.
+     * @param stream to write to, closed with this writer.
+     * @param width width of the image.
+     * @param height height of the image.
+     * @param gray true to store a single gray channel, false to store RGB.
+     * @param level compression level of the Deflater (0 -> 9, or -1 for the default).
+     * @throws IOException if the stream can't be written.
+     */
+    public PngStreamWriter(OutputStream stream, int width, int height, boolean gray, int level) throws IOException {
+        this(stream, width, height, gray, level, ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Writes the header to a stream.
+     * @param stream to write to, closed with this writer.
+     * @param width width of the image.
+     * @param height height of the image.
+     * @param gray true to store a single gray channel, false to store RGB.
+     * @param level compression level of the Deflater (0 -> 9, or -1 for the default).
+     * @param executor to deflate blocks on, null to deflate them on the writing thread.
+     * @throws IOException if the stream can't be written.
+     */
+    public PngStreamWriter(OutputStream stream, int width, int height, boolean gray, int level, Executor executor) throws IOException {
+        check(width, height, level);
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, CHUNK_SIZE));
+        this.width = width;
+        this.height = height;
+        this.gray = gray;
+        this.level = level;
+        this.executor = executor;
+        this.bpp = gray ? 1 : 3;
+        this.previous = new byte[width * bpp];
+        this.current = new byte[width * bpp];
+        this.block = new byte[BLOCK_SIZE + 1 + width * bpp];
+        out.write(SIGNATURE);
+        DataOutputStream header = new DataOutputStream(new ChunkStream("IHDR", out));
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(8);
+        header.writeByte(gray ? 0 : 2);
+        header.writeByte(0);
+        header.writeByte(0);
+        header.writeByte(0);
+        header.close();
+        idat = new ChunkStream("IDAT", out);
+        //zlib header: deflate with a 32 KB window, and the level it was made with
+        int cmf = 0x78;
+        int flevel = level == -1 || level == 6 ? 2 : level < 2 ? 0 : level < 6 ? 1 : 3;
+        int flg = flevel << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        idat.write(cmf);
+        idat.write(flg);
+    }
+
+    /**
+     * Checks the arguments before the file is created, so a bad image never leaves an open file behind.
+     */
+    private static OutputStream open(File file, int width, int height, int level) throws IOException {
+        check(width, height, level);
+        return new FileOutputStream(file);
+    }
+
+    private static void check(int width, int height, int level) {
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Image of " + width + " x " + height + " can't be written");
+        if (level < -1 || level > 9) throw new IllegalArgumentException("Compression level must be -1 -> 9, not " + level);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return amount of rows written so far.
+     */
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Sets the scanline filter of the rows written from now on.
+     * @param filter one of the FILTER constants, FILTER_ADAPTIVE by default.
+     */
+    public void setFilter(int filter) {
+        if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) throw new IllegalArgumentException("Unknown filter " + filter);
+        this.filter = filter;
+    }
+
+    /**
+     * Writes the next rows of the image.
+     * A single channel image is written as gray, otherwise channels 0, 1 and 2 are red,
+     * green and blue (the first channel is repeated when writing RGB from one channel).
+     * @param img rows to write, as wide as the image.
+     * @throws IOException if the rows can't be written.
+     */
+    public void writeRows(PlanarImage img) throws IOException {
+        if (img.getWidth() != width) throw new IllegalArgumentException("Rows of width " + img.getWidth() + " don't fit an image of width " + width);
+        if (rowsWritten + img.getHeight() > height) throw new IllegalStateException("Image only has " + height + " rows");
+        boolean single = img.getChannels() < 3;
+        int[] r = img.getPlane(0);
+        int[] g = img.getPlane(single ? 0 : 1);
+        int[] b = img.getPlane(single ? 0 : 2);
+        for (int y = 0; y < img.getHeight(); y++) {
+            int i = img.getOffset() + y * img.getStride();
+            int o = 0;
+            if (gray) {
+                for (int x = 0; x < width; x++) {
+                    current[o++] = (byte) ImageUtils.fixRGBValue(r[i + x]);
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    current[o++] = (byte) ImageUtils.fixRGBValue(r[i + x]);
+                    current[o++] = (byte) ImageUtils.fixRGBValue(g[i + x]);
+                    current[o++] = (byte) ImageUtils.fixRGBValue(b[i + x]);
+                }
+            }
+            writeRow();
+        }
+    }
+
+    /**
+     * Writes the next rows of the image from a byte image, see writeRows(PlanarImage).
+     * @param img rows to write, as wide as the image.
+     * @throws IOException if the rows can't be written.
+     */
+    public void writeRows(ByteImage img) throws IOException {
+        if (img.getWidth() != width) throw new IllegalArgumentException("Rows of width " + img.getWidth() + " don't fit an image of width " + width);
+        if (rowsWritten + img.getHeight() > height) throw new IllegalStateException("Image only has " + height + " rows");
+        boolean single = img.getChannels() < 3;
+        byte[] r = img.getPlane(0);
+        byte[] g = img.getPlane(single ? 0 : 1);
+        byte[] b = img.getPlane(single ? 0 : 2);
+        for (int y = 0; y < img.getHeight(); y++) {
+            int i = img.getOffset() + y * img.getStride();
+            if (gray) {
+                System.arraycopy(r, i, current, 0, width);
+            } else {
+                int o = 0;
+                for (int x = 0; x < width; x++) {
+                    current[o++] = r[i + x];
+                    current[o++] = g[i + x];
+                    current[o++] = b[i + x];
+                }
+            }
+            writeRow();
+        }
+    }
+
+    /**
+     * Writes the next rows of the image from a matrix of gray values,
+     * which are repeated for red, green and blue when writing RGB.
+     * @param matrix rows to write, as wide as the image.
+     * @throws IOException if the rows can't be written.
+     */
+    public void writeRows(Integer[][] matrix) throws IOException {
+        if (rowsWritten + matrix.length > height) throw new IllegalStateException("Image only has " + height + " rows");
+        for (Integer[] values : matrix) {
+            if (values.length != width) throw new IllegalArgumentException("Rows of width " + values.length + " don't fit an image of width " + width);
+            int o = 0;
+            for (int x = 0; x < width; x++) {
+                byte v = (byte) ImageUtils.fixRGBValue(values[x]);
+                current[o++] = v;
+                if (!gray) {
+                    current[o++] = v;
+                    current[o++] = v;
+                }
+            }
+            writeRow();
+        }
+    }
+
+    /**
+     * Filters the row in current into the block, and hands the block to the executor
+     * once it is full (unless this was the last row, which close hands over).
+     */
+    private void writeRow() throws IOException {
+        int f = filter == FILTER_ADAPTIVE ? filterAdaptive() : filter;
+        block[blockSize++] = (byte) f;
+        if (f == FILTER_NONE) System.arraycopy(current, 0, block, blockSize, current.length);
+        else System.arraycopy(filter(f), 0, block, blockSize, current.length);
+        blockSize += current.length;
+        byte[] t = previous;
+        previous = current;
+        current = t;
+        rowsWritten++;
+        if (blockSize >= BLOCK_SIZE && rowsWritten < height) submit(false);
+    }
+
+    /**
+     * @return the filter whose output has the smallest sum of absolute (signed) values.
+     */
+    private int filterAdaptive() {
+        int best = FILTER_NONE;
+        long bestSum = sumAbs(current);
+        for (int f = FILTER_SUB; f <= FILTER_PAETH; f++) {
+            long sum = sumAbs(filter(f));
+            if (sum < bestSum) {
+                best = f;
+                bestSum = sum;
+            }
+        }
+        return best;
+    }
+
+    private static long sumAbs(byte[] row) {
+        long sum = 0;
+        for (byte v : row) sum += Math.abs(v);
+        return sum;
+    }
+
+    /**
+     * Filters current, the row above is previous (zeros above the first row).
+     * @param f FILTER_SUB -> FILTER_PAETH.
+     * @return the filtered row, without the filter byte.
+     */
+    private byte[] filter(int f) {
+        byte[] dst = filtered[f];
+        if (dst == null) dst = filtered[f] = new byte[current.length];
+        byte[] cur = current, up = previous;
+        int n = cur.length;
+        switch (f) {
+            case FILTER_SUB:
+                for (int i = 0; i < bpp; i++) dst[i] = cur[i];
+                for (int i = bpp; i < n; i++) dst[i] = (byte) (cur[i] - cur[i - bpp]);
+                break;
+            case FILTER_UP:
+                for (int i = 0; i < n; i++) dst[i] = (byte) (cur[i] - up[i]);
+                break;
+            case FILTER_AVERAGE:
+                for (int i = 0; i < bpp; i++) dst[i] = (byte) (cur[i] - ((up[i] & 0xFF) >> 1));
+                for (int i = bpp; i < n; i++) dst[i] = (byte) (cur[i] - (((cur[i - bpp] & 0xFF) + (up[i] & 0xFF)) >> 1));
+                break;
+            default:
+                for (int i = 0; i < bpp; i++) dst[i] = (byte) (cur[i] - up[i]);
+                for (int i = bpp; i < n; i++) dst[i] = (byte) (cur[i] - paeth(cur[i - bpp] & 0xFF, up[i] & 0xFF, up[i - bpp] & 0xFF));
+                break;
+        }
+        return dst;
+    }
+
+    /**
+     * @return whichever of a (left), b (up) and c (up left) is closest to a + b - c.
+     */
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Hands the filled part of the block to the executor, primed with the end of the block before it.
+     * @param last true to finish the deflate stream with this block.
+     */
+    private void submit(boolean last) throws IOException {
+        byte[] data = block;
+        int size = blockSize;
+        byte[] dict = lastBlock;
+        int dictEnd = lastBlockSize;
+        int lvl = level;
+        if (executor == null) {
+            pending.add(CompletableFuture.completedFuture(deflate(data, size, dict, dictEnd, lvl, last)));
+        } else {
+            pending.add(CompletableFuture.supplyAsync(() -> deflate(data, size, dict, dictEnd, lvl, last), executor));
+        }
+        lastBlock = data;
+        lastBlockSize = size;
+        block = last ? null : new byte[data.length];
+        blockSize = 0;
+        //write the blocks that are done, and wait for the oldest one if too many are waiting
+        while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > MAX_PENDING)) {
+            writeBlock(pending.poll());
+        }
+    }
+
+    private void writeBlock(CompletableFuture<Block> future) throws IOException {
+        Block b;
+        try {
+            b = future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Can't deflate the image", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deflating the image", e);
+        }
+        idat.write(b.data, 0, b.size);
+        adler = combineAdler32(adler, b.adler, b.rawSize);
+    }
+
+    /**
+     * Deflates one block as raw deflate data that continues the stream of the blocks before it.
+     * @param data filtered rows.
+     * @param size amount of bytes of data to deflate.
+     * @param dict block before this one, null for the first block.
+     * @param dictEnd amount of bytes of dict, its last WINDOW bytes prime the Deflater.
+     * @param level compression level.
+     * @param last true to finish the stream, otherwise the block ends on a byte boundary (SYNC_FLUSH).
+     * @return the compressed block and the Adler-32 of data.
+     */
+    private static Block deflate(byte[] data, int size, byte[] dict, int dictEnd, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dict != null) {
+                int n = Math.min(WINDOW, dictEnd);
+                deflater.setDictionary(dict, dictEnd - n, n);
+            }
+            deflater.setInput(data, 0, size);
+            byte[] buf = new byte[size + (size >> 6) + 64];
+            int n = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (n == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                    n += deflater.deflate(buf, n, buf.length - n);
+                }
+            } else {
+                while (true) {
+                    if (n == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                    n += deflater.deflate(buf, n, buf.length - n, Deflater.SYNC_FLUSH);
+                    //a flush that didn't fill the buffer is complete
+                    if (n < buf.length) break;
+                }
+            }
+            Adler32 a = new Adler32();
+            a.update(data, 0, size);
+            return new Block(buf, n, a.getValue(), size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Gets the Adler-32 of two pieces of data from the Adler-32 of each (adler32_combine of zlib).
+     * @param adler1 Adler-32 of the first piece.
+     * @param adler2 Adler-32 of the second piece.
+     * @param length2 length of the second piece.
+     * @return Adler-32 of both pieces one after the other.
+     */
+    public static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Finishes the compressed data and writes the end of the file.
+     * @throws IOException if not every row of the image was written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (rowsWritten == height) {
+                submit(true);
+                while (!pending.isEmpty()) writeBlock(pending.poll());
+                idat.write((int) (adler >>> 24));
+                idat.write((int) (adler >>> 16));
+                idat.write((int) (adler >>> 8));
+                idat.write((int) adler);
+                idat.close();
+                new ChunkStream("IEND", out).close();
+                out.flush();
+            }
+        } finally {
+            out.close();
+        }
+        if (rowsWritten != height) throw new IOException("Only " + rowsWritten + " of " + height + " rows were written");
+    }
+
+    /**
+     * A deflated block.
+     */
+    private static class Block {
+
+        final byte[] data;
+        final int size;
+        final long adler;
+        final int rawSize;
+
+        Block(byte[] data, int size, long adler, int rawSize) {
+            this.data = data;
+            this.size = size;
+            this.adler = adler;
+            this.rawSize = rawSize;
+        }
+    }
+
+    /**
+     * Collects the data of chunks of a single type and writes them (length, type, data, crc)
+     * whenever CHUNK_SIZE bytes are collected and when closed. Closing doesn't close the file.
+     */
+    private static class ChunkStream extends OutputStream {
+
+        private final byte[] type;
+        private final DataOutputStream out;
+        private final byte[] data = new byte[CHUNK_SIZE];
+        private final CRC32 crc = new CRC32();
+        private int size;
+        private boolean written;
+
+        ChunkStream(String type, DataOutputStream out) {
+            this.type = type.getBytes(StandardCharsets.US_ASCII);
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == data.length) flushChunk();
+            data[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == data.length) flushChunk();
+                int n = Math.min(len, data.length - size);
+                System.arraycopy(b, off, data, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            crc.reset();
+            crc.update(type);
+            crc.update(data, 0, size);
+            out.writeInt(size);
+            out.write(type);
+            out.write(data, 0, size);
+            out.writeInt((int) crc.getValue());
+            size = 0;
+            written = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (size > 0 || !written) flushChunk();
+        }
+    }
+}
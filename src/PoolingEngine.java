@@ -0,0 +1,455 @@
+import java.util.Arrays;
+
+/**
+ * This class runs max and min pooling over primitive planes in constant time per value,
+ * no matter how big the window is (van Herk / Gil-Werman).
+ *
+ * A w x h window is pooled as a row pass over w values followed by a column pass over h values.
+ * Each pass cuts its line into blocks of the window size and keeps the running max (or min)
+ * from the start of every block and from its end. Any window covers the end of one block and
+ * the start of the next, so its result is one comparison of those two running values.
+ * That is about three comparisons per value for each pass, where rescanning costs w * h.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 6/27/19
+ **/
+public class PoolingEngine {
+
+    /**
+     * Pools a plane of ints.
+     * @param src plane to read from.
+     * @param offset index of value (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param min true for min pooling, false for max pooling.
+     * @param dst output plane.
+     * @param dstOff index of output (0, 0) in dst.
+     * @param pitch distance between two rows in dst.
+     * @param oh amount of output rows.
+     * @param ow amount of output columns.
+     */
+    public static void pool(int[] src, int offset, int stride, int w, int h, int s, boolean min,
+                            int[] dst, int dstOff, int pitch, int oh, int ow) {
+        pool(src, offset, stride, 0, 0, 0, BorderMode.ZERO, w, h, s, min, dst, dstOff, pitch, oh, ow);
+    }
+
+    /**
+     * Pools a plane of ints as if it had p values of border on every side (see BorderMode).
+     * Every row is gathered into a single line of (ow - 1) * s + w values before the row pass:
+     * the part inside the plane is one array copy and only the border columns (or a border
+     * row) are mapped through the border mode, so no padded copy of the plane is made.
+     * @param src plane to read from.
+     * @param offset index of value (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param width width of the plane, only used when p is above 0.
+     * @param height height of the plane, only used when p is above 0.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param min true for min pooling, false for max pooling.
+     * @param dst output plane.
+     * @param dstOff index of output (0, 0) in dst.
+     * @param pitch distance between two rows in dst.
+     * @param oh amount of output rows, at most ((height + 2p - h) / s) + 1.
+     * @param ow amount of output columns, at most ((width + 2p - w) / s) + 1.
+     */
+    public static void pool(int[] src, int offset, int stride, int width, int height, int p, BorderMode mode,
+                            int w, int h, int s, boolean min, int[] dst, int dstOff, int pitch, int oh, int ow) {
+        if (oh <= 0 || ow <= 0) return;
+        int rows = (oh - 1) * s + h;
+        int len = (ow - 1) * s + w;
+        //row pass: pooled over w columns, only at the sampled columns
+        int[] pass = new int[rows * ow];
+        int[] fromStart = new int[len];
+        int[] toEnd = new int[len];
+        int[] line = p > 0 ? new int[len] : null;
+        for (int r = 0; r < rows; r++) {
+            int[] in = src;
+            int i = offset + (r - p) * stride - p;
+            if (p > 0) {
+                readLine(src, offset, stride, width, height, p, mode, r, line);
+                in = line;
+                i = 0;
+            }
+            for (int x = 0; x < len; x++) {
+                int v = in[i + x];
+                fromStart[x] = x % w == 0 ? v : (min ? Math.min(fromStart[x - 1], v) : Math.max(fromStart[x - 1], v));
+            }
+            for (int x = len - 1; x >= 0; x--) {
+                int v = in[i + x];
+                toEnd[x] = (x % w == w - 1 || x == len - 1) ? v : (min ? Math.min(toEnd[x + 1], v) : Math.max(toEnd[x + 1], v));
+            }
+            int o = r * ow;
+            for (int x = 0; x < ow; x++) {
+                int a = toEnd[x * s];
+                int b = fromStart[x * s + w - 1];
+                pass[o + x] = min ? Math.min(a, b) : Math.max(a, b);
+            }
+        }
+        //column pass: the same blocks, along the rows of pass
+        int[] colEnd = new int[rows * ow];
+        for (int r = rows - 1; r >= 0; r--) {
+            int o = r * ow;
+            boolean start = r % h == h - 1 || r == rows - 1;
+            for (int x = 0; x < ow; x++) {
+                colEnd[o + x] = start ? pass[o + x] : (min ? Math.min(colEnd[o + ow + x], pass[o + x]) : Math.max(colEnd[o + ow + x], pass[o + x]));
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            if (r % h == 0) continue;
+            int o = r * ow;
+            for (int x = 0; x < ow; x++) {
+                pass[o + x] = min ? Math.min(pass[o - ow + x], pass[o + x]) : Math.max(pass[o - ow + x], pass[o + x]);
+            }
+        }
+        for (int y = 0; y < oh; y++) {
+            int a = y * s * ow;
+            int b = (y * s + h - 1) * ow;
+            int o = dstOff + y * pitch;
+            for (int x = 0; x < ow; x++) {
+                dst[o + x] = min ? Math.min(colEnd[a + x], pass[b + x]) : Math.max(colEnd[a + x], pass[b + x]);
+            }
+        }
+    }
+
+    /**
+     * Reads row r of the bordered plane into line, mapping the columns and the row
+     * that fall outside the plane through the border mode.
+     */
+    private static void readLine(int[] src, int offset, int stride, int width, int height, int p, BorderMode mode,
+                                 int r, int[] line) {
+        int y = mode.resolve(r - p, height);
+        if (y < 0) {
+            Arrays.fill(line, 0);
+            return;
+        }
+        int row = offset + y * stride;
+        int start = Math.min(p, line.length);
+        int end = Math.min(line.length, p + width);
+        for (int x = 0; x < start; x++) {
+            int c = mode.resolve(x - p, width);
+            line[x] = c < 0 ? 0 : src[row + c];
+        }
+        System.arraycopy(src, row, line, start, end - start);
+        for (int x = end; x < line.length; x++) {
+            int c = mode.resolve(x - p, width);
+            line[x] = c < 0 ? 0 : src[row + c];
+        }
+    }
+
+    /**
+     * Pools a plane of doubles, see pool(int[], ...).
+     * @param src plane to read from.
+     * @param offset index of value (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param min true for min pooling, false for max pooling.
+     * @param dst output plane.
+     * @param dstOff index of output (0, 0) in dst.
+     * @param pitch distance between two rows in dst.
+     * @param oh amount of output rows.
+     * @param ow amount of output columns.
+     */
+    public static void pool(double[] src, int offset, int stride, int w, int h, int s, boolean min,
+                            double[] dst, int dstOff, int pitch, int oh, int ow) {
+        if (oh <= 0 || ow <= 0) return;
+        int rows = (oh - 1) * s + h;
+        int len = (ow - 1) * s + w;
+        double[] pass = new double[rows * ow];
+        double[] fromStart = new double[len];
+        double[] toEnd = new double[len];
+        for (int r = 0; r < rows; r++) {
+            int i = offset + r * stride;
+            for (int x = 0; x < len; x++) {
+                double v = src[i + x];
+                fromStart[x] = x % w == 0 ? v : (min ? Math.min(fromStart[x - 1], v) : Math.max(fromStart[x - 1], v));
+            }
+            for (int x = len - 1; x >= 0; x--) {
+                double v = src[i + x];
+                toEnd[x] = (x % w == w - 1 || x == len - 1) ? v : (min ? Math.min(toEnd[x + 1], v) : Math.max(toEnd[x + 1], v));
+            }
+            int o = r * ow;
+            for (int x = 0; x < ow; x++) {
+                double a = toEnd[x * s];
+                double b = fromStart[x * s + w - 1];
+                pass[o + x] = min ? Math.min(a, b) : Math.max(a, b);
+            }
+        }
+        double[] colEnd = new double[rows * ow];
+        for (int r = rows - 1; r >= 0; r--) {
+            int o = r * ow;
+            boolean start = r % h == h - 1 || r == rows - 1;
+            for (int x = 0; x < ow; x++) {
+                colEnd[o + x] = start ? pass[o + x] : (min ? Math.min(colEnd[o + ow + x], pass[o + x]) : Math.max(colEnd[o + ow + x], pass[o + x]));
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            if (r % h == 0) continue;
+            int o = r * ow;
+            for (int x = 0; x < ow; x++) {
+                pass[o + x] = min ? Math.min(pass[o - ow + x], pass[o + x]) : Math.max(pass[o - ow + x], pass[o + x]);
+            }
+        }
+        for (int y = 0; y < oh; y++) {
+            int a = y * s * ow;
+            int b = (y * s + h - 1) * ow;
+            int o = dstOff + y * pitch;
+            for (int x = 0; x < ow; x++) {
+                dst[o + x] = min ? Math.min(colEnd[a + x], pass[b + x]) : Math.max(colEnd[a + x], pass[b + x]);
+            }
+        }
+    }
+
+    /**
+     * Max pools a plane of ints where a window with only negative values pools to 0,
+     * like ImageUtils.operationMaxPooling.
+     * @param src plane to read from.
+     * @param offset index of value (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param dst output plane.
+     * @param dstOff index of output (0, 0) in dst.
+     * @param pitch distance between two rows in dst.
+     * @param oh amount of output rows.
+     * @param ow amount of output columns.
+     */
+    public static void maxPool(int[] src, int offset, int stride, int w, int h, int s,
+                               int[] dst, int dstOff, int pitch, int oh, int ow) {
+        maxPool(src, offset, stride, 0, 0, 0, BorderMode.ZERO, w, h, s, dst, dstOff, pitch, oh, ow);
+    }
+
+    /**
+     * Max pools a plane of ints with p values of border on every side, where a window
+     * with only negative values pools to 0, see pool(int[], int, int, int, int, int, BorderMode, ...).
+     * @param src plane to read from.
+     * @param offset index of value (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param width width of the plane.
+     * @param height height of the plane.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param dst output plane.
+     * @param dstOff index of output (0, 0) in dst.
+     * @param pitch distance between two rows in dst.
+     * @param oh amount of output rows.
+     * @param ow amount of output columns.
+     */
+    public static void maxPool(int[] src, int offset, int stride, int width, int height, int p, BorderMode mode,
+                               int w, int h, int s, int[] dst, int dstOff, int pitch, int oh, int ow) {
+        pool(src, offset, stride, width, height, p, mode, w, h, s, false, dst, dstOff, pitch, oh, ow);
+        for (int y = 0; y < oh; y++) {
+            int o = dstOff + y * pitch;
+            for (int x = 0; x < ow; x++) {
+                if (dst[o + x] < 0) dst[o + x] = 0;
+            }
+        }
+    }
+
+    /**
+     * Rows of input gathered at a time by the float pooling.
+     */
+    public static final int FLOAT_BAND_ROWS = 64;
+
+    /**
+     * Pools a plane of floats.
+     * @param src plane to read from.
+     * @param offset index of value (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param min true for min pooling, false for max pooling.
+     * @param dst output plane.
+     * @param dstOff index of output (0, 0) in dst.
+     * @param pitch distance between two rows in dst.
+     * @param oh amount of output rows.
+     * @param ow amount of output columns.
+     */
+    public static void pool(float[] src, int offset, int stride, int w, int h, int s, boolean min,
+                            float[] dst, int dstOff, int pitch, int oh, int ow) {
+        if (oh <= 0 || ow <= 0) return;
+        int rows = (oh - 1) * s + h;
+        int len = (ow - 1) * s + w;
+        float[] pass = new float[rows * ow];
+        float[] fromStart = new float[len];
+        float[] toEnd = new float[len];
+        for (int r = 0; r < rows; r++) {
+            int i = offset + r * stride;
+            for (int x = 0; x < len; x++) {
+                float v = src[i + x];
+                fromStart[x] = x % w == 0 ? v : (min ? Math.min(fromStart[x - 1], v) : Math.max(fromStart[x - 1], v));
+            }
+            for (int x = len - 1; x >= 0; x--) {
+                float v = src[i + x];
+                toEnd[x] = (x % w == w - 1 || x == len - 1) ? v : (min ? Math.min(toEnd[x + 1], v) : Math.max(toEnd[x + 1], v));
+            }
+            int o = r * ow;
+            for (int x = 0; x < ow; x++) {
+                float a = toEnd[x * s];
+                float b = fromStart[x * s + w - 1];
+                pass[o + x] = min ? Math.min(a, b) : Math.max(a, b);
+            }
+        }
+        float[] colEnd = new float[rows * ow];
+        for (int r = rows - 1; r >= 0; r--) {
+            int o = r * ow;
+            boolean start = r % h == h - 1 || r == rows - 1;
+            for (int x = 0; x < ow; x++) {
+                colEnd[o + x] = start ? pass[o + x] : (min ? Math.min(colEnd[o + ow + x], pass[o + x]) : Math.max(colEnd[o + ow + x], pass[o + x]));
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            if (r % h == 0) continue;
+            int o = r * ow;
+            for (int x = 0; x < ow; x++) {
+                pass[o + x] = min ? Math.min(pass[o - ow + x], pass[o + x]) : Math.max(pass[o - ow + x], pass[o + x]);
+            }
+        }
+        for (int y = 0; y < oh; y++) {
+            int a = y * s * ow;
+            int b = (y * s + h - 1) * ow;
+            int o = dstOff + y * pitch;
+            for (int x = 0; x < ow; x++) {
+                dst[o + x] = min ? Math.min(colEnd[a + x], pass[b + x]) : Math.max(colEnd[a + x], pass[b + x]);
+            }
+        }
+    }
+
+    /**
+     * Pools a channel of a FloatImage or ByteImage as if it had p values of border on every
+     * side. The input is gathered as floats (see FloatConvolution.gather) about
+     * FLOAT_BAND_ROWS rows at a time, so a byte image is never widened as a whole.
+     * @param img image to read from.
+     * @param c channel to pool.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param min true for min pooling, false for max pooling.
+     * @param dst output plane, ow * oh values.
+     * @param ow amount of output columns, at most ((width + 2p - w) / s) + 1.
+     * @param oh amount of output rows, at most ((height + 2p - h) / s) + 1.
+     */
+    public static void pool(FloatSource img, int c, int p, BorderMode mode, int w, int h, int s, boolean min,
+                            float[] dst, int ow, int oh) {
+        if (oh <= 0 || ow <= 0) return;
+        int band = Math.max(1, (FLOAT_BAND_ROWS - h) / s + 1);
+        int cols = (ow - 1) * s + w;
+        float[] window = new float[((band - 1) * s + h) * cols];
+        for (int y0 = 0; y0 < oh; y0 += band) {
+            int n = Math.min(band, oh - y0);
+            FloatConvolution.gather(img, c, mode, y0 * s - p, -p, (n - 1) * s + h, cols, window);
+            pool(window, 0, cols, w, h, s, min, dst, y0 * ow, ow, n, ow);
+        }
+    }
+
+    /**
+     * Max pools a channel of a FloatImage or ByteImage, where a window with only negative
+     * values pools to 0, see pool(FloatSource, int, int, BorderMode, ...).
+     * @param img image to read from.
+     * @param c channel to pool.
+     * @param p amount of border on every side.
+     * @param mode what the border holds.
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @param dst output plane, ow * oh values.
+     * @param ow amount of output columns.
+     * @param oh amount of output rows.
+     */
+    public static void maxPool(FloatSource img, int c, int p, BorderMode mode, int w, int h, int s,
+                               float[] dst, int ow, int oh) {
+        pool(img, c, p, mode, w, h, s, false, dst, ow, oh);
+        for (int i = 0; i < ow * oh; i++) {
+            if (dst[i] < 0) dst[i] = 0;
+        }
+    }
+
+    /**
+     * Pools a plane of ints with its own stride, dilation and border along each axis.
+     * Output (x, y) pools the input at (x * sx + xx * dx - px, y * sy + yy * dy - py) for
+     * every xx below w and yy below h, see DilatedConvolution. Only the sampled outputs are
+     * computed: a row pass over the sampled columns of only the input rows some output reads,
+     * then a column pass, w + h comparisons per output. Without dilation, with the same stride
+     * and border along both axes, this is pool(int[], int, int, int, int, int, BorderMode, ...),
+     * which is cheaper for big windows.
+     * @param src plane to read from.
+     * @param offset index of value (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param width width of the plane.
+     * @param height height of the plane.
+     * @param px border on the left and right.
+     * @param py border on the top and bottom.
+     * @param mode what the border holds.
+     * @param w width of the window in taps.
+     * @param h height of the window in taps.
+     * @param sx horizontal stride of the window.
+     * @param sy vertical stride of the window.
+     * @param dx horizontal distance between two taps.
+     * @param dy vertical distance between two taps.
+     * @param min true for min pooling, false for max pooling.
+     * @param dst output plane.
+     * @param dstOff index of output (0, 0) in dst.
+     * @param pitch distance between two rows in dst.
+     * @param oh amount of output rows.
+     * @param ow amount of output columns.
+     */
+    public static void poolDilated(int[] src, int offset, int stride, int width, int height, int px, int py, BorderMode mode,
+                                   int w, int h, int sx, int sy, int dx, int dy, boolean min,
+                                   int[] dst, int dstOff, int pitch, int oh, int ow) {
+        if (oh <= 0 || ow <= 0) return;
+        int[] cols = DilatedConvolution.getColumns(width, mode, 0, ow, w, sx, dx, px);
+        //input rows r - py that are read, numbered in the order they are met
+        int range = (oh - 1) * sy + DilatedConvolution.getExtent(h, dy);
+        int[] passRow = new int[range];
+        Arrays.fill(passRow, -1);
+        int count = 0;
+        for (int y = 0; y < oh; y++) {
+            for (int yy = 0; yy < h; yy++) {
+                int r = y * sy + yy * dy;
+                if (passRow[r] < 0) passRow[r] = count++;
+            }
+        }
+        int[] pass = new int[count * ow];
+        for (int r = 0; r < range; r++) {
+            if (passRow[r] < 0) continue;
+            int ry = mode.resolve(r - py, height);
+            int i = ry < 0 ? -1 : offset + ry * stride;
+            int o = passRow[r] * ow;
+            for (int x = 0; x < ow; x++) {
+                int t = x * w;
+                int m = 0;
+                for (int xx = 0; xx < w; xx++) {
+                    int cx = cols[t + xx];
+                    int v = i < 0 || cx < 0 ? 0 : src[i + cx];
+                    m = xx == 0 ? v : (min ? Math.min(m, v) : Math.max(m, v));
+                }
+                pass[o + x] = m;
+            }
+        }
+        for (int y = 0; y < oh; y++) {
+            int o = dstOff + y * pitch;
+            for (int x = 0; x < ow; x++) {
+                int m = 0;
+                for (int yy = 0; yy < h; yy++) {
+                    int v = pass[passRow[y * sy + yy * dy] * ow + x];
+                    m = yy == 0 ? v : (min ? Math.min(m, v) : Math.max(m, v));
+                }
+                dst[o + x] = m;
+            }
+        }
+    }
+}
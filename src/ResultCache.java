@@ -0,0 +1,261 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the outputs of filter chains in memory, so running the same chain on the same
+ * image again (thumbnails, previews, re-renders) costs a lookup instead of the convolutions.
+ *
+ * An output is found by a SHA-256 hash of the input's size and values plus the chain's
+ * canonical description (FilterChain.getDescription), so equal images hit the same entry
+ * no matter which file or upload they came from, and a chain with another filter, stride,
+ * padding or window can never get the wrong output.
+ *
+ * Outputs are held strongly up to a budget of bytes (4 bytes per value of every channel)
+ * and the least recently used ones are evicted first. With setSoftReferences(true) evicted
+ * outputs move to a second tier of soft references instead of being dropped, the garbage
+ * collector clears those only when it needs the memory.
+ *
+ * Every method can be called from any amount of threads. Two threads that miss on the
+ * same key at once both run the chain, the last one to finish is kept.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/11/19
+ **/
+public class ResultCache {
+
+    private final long maxBytes;
+    private long bytes;
+    private boolean softReferences;
+    private final LinkedHashMap<String, PlanarImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, SoftEntry> softEntries = new HashMap<>();
+    private final ReferenceQueue<PlanarImage> cleared = new ReferenceQueue<>();
+    private long hits, softHits, misses, evictions;
+
+    /**
+     * @param maxBytes most bytes of outputs held strongly.
+     */
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param soft true to keep evicted outputs as soft references, false by default.
+     * @return this cache.
+     */
+    public synchronized ResultCache setSoftReferences(boolean soft) {
+        softReferences = soft;
+        if (!soft) softEntries.clear();
+        return this;
+    }
+
+    /**
+     * Runs a chain on an image, or gets its output from an earlier run.
+     * @param chain operations to run.
+     * @param img image to filter, not changed.
+     * @return the filtered image, a copy the caller may change.
+     */
+    public PlanarImage apply(FilterChain chain, PlanarImage img) {
+        String key = getKey(img, chain);
+        PlanarImage cached = get(key);
+        if (cached != null) return cached.copy();
+        PlanarImage output = chain.apply(img);
+        put(key, output.copy());
+        return output;
+    }
+
+    /**
+     * Gets the key an output is stored under.
+     * @param img input of the chain.
+     * @param chain operations run on the input.
+     * @return hash of the input followed by the description of the chain.
+     */
+    public static String getKey(PlanarImage img, FilterChain chain) {
+        return hash(img) + " " + chain.getDescription();
+    }
+
+    /**
+     * @param key from getKey.
+     * @return the stored output, not a copy, or null.
+     */
+    public synchronized PlanarImage get(String key) {
+        PlanarImage img = entries.get(key);
+        if (img != null) {
+            hits++;
+            return img;
+        }
+        SoftEntry soft = softEntries.remove(key);
+        img = soft == null ? null : soft.get();
+        if (img != null) {
+            softHits++;
+            //used again, so it goes back to the strong tier
+            store(key, img);
+            return img;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores an output, outputs bigger than the whole budget aren't stored.
+     * @param key from getKey.
+     * @param img output to store, must not be changed afterwards.
+     */
+    public synchronized void put(String key, PlanarImage img) {
+        softEntries.remove(key);
+        store(key, img);
+    }
+
+    /**
+     * Drops every output, the statistics stay.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        softEntries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return amount of lookups answered by the strong tier.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return amount of lookups answered by the soft tier.
+     */
+    public synchronized long getSoftHits() {
+        return softHits;
+    }
+
+    /**
+     * @return amount of lookups that had to run the chain.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return amount of outputs evicted from the strong tier.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return share of lookups answered by either tier, 0 -> 1.
+     */
+    public synchronized double getHitRate() {
+        long n = hits + softHits + misses;
+        return n == 0 ? 0 : (double) (hits + softHits) / n;
+    }
+
+    /**
+     * @return bytes of outputs held strongly.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return amount of outputs held strongly.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d outputs, %.1f of %.1f MB, %d hits, %d soft hits, %d misses, %d evictions",
+                entries.size(), bytes / 1e6, maxBytes / 1e6, hits, softHits, misses, evictions);
+    }
+
+    /**
+     * Gets how many bytes an image holds.
+     * @param img image to measure.
+     * @return 4 bytes for every value of every channel.
+     */
+    public static long getBytes(PlanarImage img) {
+        return (long) img.getWidth() * img.getHeight() * img.getChannels() * Integer.BYTES;
+    }
+
+    private void store(String key, PlanarImage img) {
+        long size = getBytes(img);
+        PlanarImage old = entries.remove(key);
+        if (old != null) bytes -= getBytes(old);
+        if (size > maxBytes) return;
+        entries.put(key, img);
+        bytes += size;
+        Iterator<Map.Entry<String, PlanarImage>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, PlanarImage> eldest = it.next();
+            it.remove();
+            bytes -= getBytes(eldest.getValue());
+            evictions++;
+            if (softReferences) softEntries.put(eldest.getKey(), new SoftEntry(eldest.getKey(), eldest.getValue(), cleared));
+        }
+        expungeCleared();
+    }
+
+    /**
+     * Drops the soft entries whose outputs the garbage collector took.
+     */
+    private void expungeCleared() {
+        SoftEntry e;
+        while ((e = (SoftEntry) cleared.poll()) != null) {
+            softEntries.remove(e.key, e);
+        }
+    }
+
+    /**
+     * Hashes the size and values of an image, reading only its own region of the planes.
+     */
+    private static String hash(PlanarImage img) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int w = img.getWidth();
+        ByteBuffer row = ByteBuffer.allocate(Math.max(3, w) * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        row.putInt(w).putInt(img.getHeight()).putInt(img.getChannels()).flip();
+        digest.update(row);
+        for (int c = 0; c < img.getChannels(); c++) {
+            int[] plane = img.getPlane(c);
+            for (int y = 0; y < img.getHeight(); y++) {
+                row.clear();
+                row.asIntBuffer().put(plane, img.getOffset() + y * img.getStride(), w);
+                row.limit(w * Integer.BYTES);
+                digest.update(row);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * An output in the soft tier, remembers its key so it can be dropped once cleared.
+     */
+    private static class SoftEntry extends SoftReference<PlanarImage> {
+
+        final String key;
+
+        SoftEntry(String key, PlanarImage img, ReferenceQueue<PlanarImage> queue) {
+            super(img, queue);
+            this.key = key;
+        }
+    }
+}
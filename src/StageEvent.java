@@ -0,0 +1,46 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event for one stage of work on an image (decode, padding,
+ * convolution, pooling, encode...). The duration of the event is the duration of the stage.
+ *
+ * Record with java -XX:StartFlightRecording or jcmd JFR.start, the events are off
+ * unless a recording enables them (both the default and profile settings do).
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/13/19
+ **/
+@Name("imagematrixutils.Stage")
+@Label("Image Stage")
+@Category("ImageMatrixUtils")
+@Description("A stage of work on an image")
+public class StageEvent extends Event {
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Kernel Width")
+    @Description("Width of the filter or pooling window, 0 if the stage has none")
+    public int kernelWidth;
+
+    @Label("Kernel Height")
+    @Description("Height of the filter or pooling window, 0 if the stage has none")
+    public int kernelHeight;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread that ran the stage, -1 if the JVM can't tell")
+    @DataAmount
+    public long allocated;
+}
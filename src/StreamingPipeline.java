@@ -0,0 +1,377 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Runs a chain of convolutions and poolings over an image file without ever holding the
+ * whole image: the input is read in bands with ImageBandReader (or any ImageBandSource),
+ * every step computes the output rows its buffered rows allow and hands them to the next
+ * step, and the last step writes them to a .png with PngStreamWriter.
+ *
+ * Each step only keeps the rows that its next output still needs (the halo, kh - s rows
+ * for a filter of height kh and a stride of s) between bands, so peak memory grows with
+ * the band height and the width of the image, not with its height.
+ * Results are the same as running the PlanarImage operations of ImageUtils on the whole image.
+ *
+ * Padding of a step is added while rows come in, only p columns on each side of a row and
+ * p rows at the top and bottom. WRAP borders would need the bottom of the image before
+ * its top, so they can't be streamed.
+ *
+ * A pipeline runs one image at a time.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 7/3/19
+ **/
+public class StreamingPipeline {
+
+    /**
+     * Rows read from the input at a time when no band height is given.
+     */
+    public static final int DEFAULT_BAND_HEIGHT = 256;
+
+    private final ArrayList<Step> steps = new ArrayList<>();
+
+    /**
+     * Adds an RGB convolution (see ImageUtils.preformRGBConvolutionPadded), which sums the
+     * channels into one and keeps the size of the image.
+     * @param filter to use for every channel.
+     * @return this pipeline.
+     */
+    public StreamingPipeline addConvolution(Double[][] filter) {
+        return addConvolution(filter, 1, (filter.length - 1) / 2, BorderMode.ZERO);
+    }
+
+    /**
+     * Adds an RGB convolution with a stride and padding
+     * (see ImageUtils.preformRGBConvolutionStridedPadded), which sums the channels into one.
+     * @param filter to use for every channel.
+     * @param s stride of the convolution.
+     * @param p padding on every side.
+     * @param mode what the padding holds, ZERO, CLAMP or REFLECT.
+     * @return this pipeline.
+     */
+    public StreamingPipeline addConvolution(Double[][] filter, int s, int p, BorderMode mode) {
+        if (mode == BorderMode.WRAP && p > 0) throw new IllegalArgumentException("WRAP borders can't be streamed");
+        steps.add(new Step(filter[0].length, filter.length, s, p, mode) {
+            @Override
+            PlanarImage apply(PlanarImage rows) {
+                return ImageUtils.preformRGBConvolutionStrided(rows, filter, s);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds max pooling of every channel (see ImageUtils.operationMaxPooling).
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return this pipeline.
+     */
+    public StreamingPipeline addMaxPooling(int w, int h, int s) {
+        steps.add(new Step(w, h, s, 0, BorderMode.ZERO) {
+            @Override
+            PlanarImage apply(PlanarImage rows) {
+                return ImageUtils.operationMaxPooling(rows, w, h, s);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds min pooling of every channel (see ImageUtils.operationMinPooling).
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return this pipeline.
+     */
+    public StreamingPipeline addMinPooling(int w, int h, int s) {
+        steps.add(new Step(w, h, s, 0, BorderMode.ZERO) {
+            @Override
+            PlanarImage apply(PlanarImage rows) {
+                return ImageUtils.operationMinPooling(rows, w, h, s);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds average pooling of every channel (see ImageUtils.operationAvgPooling).
+     * @param w width of the window.
+     * @param h height of the window.
+     * @param s stride of the window.
+     * @return this pipeline.
+     */
+    public StreamingPipeline addAvgPooling(int w, int h, int s) {
+        steps.add(new Step(w, h, s, 0, BorderMode.ZERO) {
+            @Override
+            PlanarImage apply(PlanarImage rows) {
+                return ImageUtils.operationAvgPooling(rows, w, h, s);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds fixing every value to be within 0 -> 255 (see ImageUtils.fixRGBValues).
+     * @return this pipeline.
+     */
+    public StreamingPipeline addFixRGBValues() {
+        steps.add(new Step(1, 1, 1, 0, BorderMode.ZERO) {
+            @Override
+            PlanarImage apply(PlanarImage rows) {
+                return ImageUtils.fixRGBValues(rows);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Runs the pipeline over an image file and writes the result as a .png,
+     * reading DEFAULT_BAND_HEIGHT rows at a time.
+     * @param input path of the image to read.
+     * @param output path of the .png to write.
+     * @return the written file.
+     * @throws IOException if the input can't be read or the output can't be written.
+     */
+    public File run(String input, String output) throws IOException {
+        return run(input, output, DEFAULT_BAND_HEIGHT);
+    }
+
+    /**
+     * Runs the pipeline over an image file and writes the result as a .png.
+     * @param input path of the image to read.
+     * @param output path of the .png to write.
+     * @param bandHeight rows read from the input at a time.
+     * @return the written file.
+     * @throws IOException if the input can't be read or the output can't be written.
+     */
+    public File run(String input, String output, int bandHeight) throws IOException {
+        try (ImageBandReader reader = new ImageBandReader(input)) {
+            return run(reader, output, bandHeight);
+        }
+    }
+
+    /**
+     * Runs the pipeline over any source of bands, for example a PlanarImageFile from an
+     * ImageCache, and writes the result as a .png.
+     * @param reader source of the input, not closed.
+     * @param output path of the .png to write.
+     * @param bandHeight rows read from the input at a time.
+     * @return the written file.
+     * @throws IOException if the input can't be read or the output can't be written.
+     */
+    public File run(ImageBandSource reader, String output, int bandHeight) throws IOException {
+        if (bandHeight < 1) bandHeight = 1;
+        File outputFile = new File(output);
+        try {
+            int w = reader.getWidth();
+            int h = reader.getHeight();
+            for (Step step : steps) {
+                step.start(w, h);
+                w = step.outWidth;
+                h = step.outHeight;
+            }
+            try (PngStreamWriter writer = new PngStreamWriter(outputFile, w, h, false)) {
+                Rows sink = new Rows() {
+                    @Override
+                    public void push(PlanarImage rows) throws IOException {
+                        writer.writeRows(rows);
+                    }
+
+                    @Override
+                    public void finish() {
+                    }
+                };
+                for (int i = steps.size() - 1; i >= 0; i--) {
+                    steps.get(i).next = sink;
+                    sink = steps.get(i);
+                }
+                for (int y = 0; y < reader.getHeight(); y += bandHeight) {
+                    sink.push(reader.readBand(y, Math.min(bandHeight, reader.getHeight() - y)));
+                }
+                sink.finish();
+            }
+        } finally {
+            for (Step step : steps) step.buffer = null;
+        }
+        return outputFile;
+    }
+
+    /**
+     * Takes the rows of an image from top to bottom.
+     */
+    private interface Rows {
+
+        /**
+         * Takes the next rows.
+         */
+        void push(PlanarImage rows) throws IOException;
+
+        /**
+         * Called after the last rows.
+         */
+        void finish() throws IOException;
+    }
+
+    /**
+     * A single operation of a pipeline, taking windows of kw x kh with a stride of s
+     * over its input padded by p on every side.
+     * Rows are kept in a buffer that holds padded rows first -> first + count; the buffer is
+     * only compacted (or grown) when a new row doesn't fit behind the last one.
+     */
+    private abstract static class Step implements Rows {
+
+        final int kw, kh, s, p;
+        final BorderMode mode;
+        int width, height, outWidth, outHeight;
+        Rows next;
+
+        PlanarImage buffer;
+        int start, first, count, received, produced;
+        boolean top;
+
+        Step(int kw, int kh, int s, int p, BorderMode mode) {
+            this.kw = kw;
+            this.kh = kh;
+            this.s = Math.max(1, s);
+            this.p = Math.max(0, p);
+            this.mode = mode;
+        }
+
+        /**
+         * Computes the output rows of a window of buffered rows.
+         * @param rows padded rows, (y - 1) * s + kh of them for y outputs.
+         * @return y rows of output.
+         */
+        abstract PlanarImage apply(PlanarImage rows);
+
+        /**
+         * Gets ready for an input of w x h.
+         */
+        void start(int w, int h) {
+            if (w + 2 * p < kw || h + 2 * p < kh) throw new IllegalArgumentException("Filter of " + kw + " x " + kh + " does not fit in an image of " + w + " x " + h);
+            width = w;
+            height = h;
+            outWidth = (w + 2 * p - kw) / s + 1;
+            outHeight = (h + 2 * p - kh) / s + 1;
+            buffer = null;
+            start = 0;
+            first = 0;
+            count = p;
+            received = 0;
+            produced = 0;
+            top = p == 0;
+        }
+
+        @Override
+        public void push(PlanarImage rows) throws IOException {
+            if (buffer == null) {
+                buffer = new PlanarImage(width + 2 * p, Math.max(count + rows.getHeight(), kh), rows.getChannels());
+            }
+            for (int y = 0; y < rows.getHeight(); y++) {
+                PlanarImage row = makeRoom();
+                for (int c = 0; c < buffer.getChannels(); c++) {
+                    System.arraycopy(rows.getPlane(c), rows.getOffset() + y * rows.getStride(),
+                            row.getPlane(c), row.getOffset() + p, width);
+                    int[] dst = row.getPlane(c);
+                    int o = row.getOffset();
+                    for (int x = 0; x < p; x++) {
+                        int l = mode.resolve(x - p, width);
+                        int r = mode.resolve(width + x, width);
+                        dst[o + x] = l < 0 ? 0 : dst[o + p + l];
+                        dst[o + p + width + x] = r < 0 ? 0 : dst[o + p + r];
+                    }
+                }
+                received++;
+            }
+            if (!top && received >= Math.min(p + 1, height)) fillTop();
+            emit();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (buffer == null) return;
+            if (!top) fillTop();
+            //bottom border, mapped onto the last rows which are still buffered
+            for (int j = 0; j < p; j++) {
+                int r = mode.resolve(height + j, height);
+                PlanarImage row = makeRoom();
+                copyRow(r < 0 ? -1 : r + p, row);
+            }
+            emit();
+            if (produced != outHeight) throw new IllegalStateException("Only " + produced + " of " + outHeight + " rows were made");
+            next.finish();
+        }
+
+        /**
+         * Fills the p border rows at the top, once the rows they map to are buffered.
+         */
+        private void fillTop() {
+            for (int j = 0; j < p; j++) {
+                int r = mode.resolve(j - p, height);
+                copyRow(r < 0 ? -1 : r + p, buffer.getRegion(0, start + j, buffer.getWidth(), 1));
+            }
+            top = true;
+        }
+
+        /**
+         * Copies padded row y (or 0's for -1) of the buffer into row.
+         */
+        private void copyRow(int y, PlanarImage row) {
+            for (int c = 0; c < buffer.getChannels(); c++) {
+                int[] dst = row.getPlane(c);
+                if (y < 0) {
+                    Arrays.fill(dst, row.getOffset(), row.getOffset() + row.getWidth(), 0);
+                } else {
+                    System.arraycopy(buffer.getPlane(c), buffer.getOffset() + (start + y - first) * buffer.getStride(),
+                            dst, row.getOffset(), row.getWidth());
+                }
+            }
+        }
+
+        /**
+         * Adds a row behind the buffered rows, compacting or growing the buffer if needed.
+         * @return view of the new row.
+         */
+        private PlanarImage makeRoom() {
+            int w = buffer.getWidth();
+            if (start + count == buffer.getHeight()) {
+                PlanarImage b = buffer;
+                if (count == b.getHeight()) b = new PlanarImage(w, b.getHeight() * 2, b.getChannels());
+                for (int c = 0; c < b.getChannels(); c++) {
+                    System.arraycopy(buffer.getPlane(c), start * w, b.getPlane(c), 0, count * w);
+                }
+                buffer = b;
+                start = 0;
+            }
+            count++;
+            return buffer.getRegion(0, start + count - 1, w, 1);
+        }
+
+        /**
+         * Computes every output row the buffered rows allow, hands them on and drops
+         * the rows no output needs anymore.
+         */
+        private void emit() throws IOException {
+            if (!top) return;
+            int end = first + count;
+            int last = end < kh ? 0 : Math.min(outHeight, (end - kh) / s + 1);
+            if (last <= produced) return;
+            int y0 = produced * s;
+            PlanarImage rows = buffer.getRegion(0, start + y0 - first, buffer.getWidth(), (last - 1) * s + kh - y0);
+            PlanarImage out = apply(rows);
+            produced = last;
+            //CLAMP and REFLECT map the bottom border onto the last p + 1 rows, so those are kept
+            int keep = produced * s;
+            if (p > 0 && mode != BorderMode.ZERO) keep = Math.min(keep, height - 1);
+            keep = Math.min(Math.max(keep, first), end);
+            start += keep - first;
+            count -= keep - first;
+            first = keep;
+            next.push(out);
+        }
+    }
+}
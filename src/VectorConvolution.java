@@ -0,0 +1,309 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Convolution tiles computed with the JDK Vector API, several outputs per instruction.
+ * Needs the jdk.incubator.vector module (--add-modules jdk.incubator.vector), and is only
+ * loaded by ConvolutionEngine when that module is present.
+ *
+ * Every lane adds up the products of its output in the same order as the scalar loop and
+ * without fused multiply-add, so the results are the same as ConvolutionEngine's scalar tiles.
+ * Only convolutions with a stride of 1 are vectorized.
+ *
+ * @author Jacob Gordon
+ * @version 1.0
+ * @date 6/22/19
+ **/
+public class VectorConvolution {
+
+    /**
+     * Widest double vector of the machine, and the int vector with as many lanes.
+     */
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.length() * Integer.SIZE));
+
+    /**
+     * Widest float vector of the machine, twice as many lanes as DOUBLES.
+     */
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * @return amount of outputs computed per instruction.
+     */
+    public static int getLanes() {
+        return DOUBLES.length();
+    }
+
+    /**
+     * @return amount of float outputs computed per instruction.
+     */
+    public static int getFloatLanes() {
+        return FLOATS.length();
+    }
+
+    /**
+     * Direct convolution of a single tile with a stride of 1.
+     * @param src plane to read from.
+     * @param offset index of pixel (0, 0) in src.
+     * @param stride distance between two rows in src.
+     * @param k flattened filter, row after row.
+     * @param kw width of the filter.
+     * @param kh height of the filter.
+     * @param dst output plane.
+     * @param ow distance between two rows in dst.
+     * @param y0 first output row.
+     * @param y1 last output row (exclusive).
+     * @param x0 first output column.
+     * @param x1 last output column (exclusive).
+     */
+    public static void convolveTile(int[] src, int offset, int stride, double[] k, int kw, int kh,
+                                    int[] dst, int ow, int y0, int y1, int x0, int x1) {
+        if (kw == 3 && kh == 3) {
+            convolveTile3x3(src, offset, stride, k, dst, ow, y0, y1, x0, x1);
+            return;
+        }
+        int lanes = DOUBLES.length();
+        int end = x0 + (x1 - x0) / lanes * lanes;
+        for (int y = y0; y < y1; y++) {
+            int o = y * ow;
+            int x = x0;
+            for (; x < end; x += lanes) {
+                DoubleVector sum = DoubleVector.zero(DOUBLES);
+                int f = 0;
+                for (int yy = 0; yy < kh; yy++) {
+                    int i = offset + (y + yy) * stride + x;
+                    for (int xx = 0; xx < kw; xx++) {
+                        sum = sum.add(load(src, i + xx).mul(k[f++]));
+                    }
+                }
+                store(sum, dst, o + x);
+            }
+            ConvolutionEngine.convolveTile(src, offset, stride, k, kw, kh, 1, dst, ow, y, y + 1, x, x1);
+        }
+    }
+
+    /**
+     * Direct convolution of a single tile for 3 x 3 filters, with the filter kept in registers.
+     */
+    private static void convolveTile3x3(int[] src, int offset, int stride, double[] k,
+                                        int[] dst, int ow, int y0, int y1, int x0, int x1) {
+        double k0 = k[0], k1 = k[1], k2 = k[2], k3 = k[3], k4 = k[4], k5 = k[5], k6 = k[6], k7 = k[7], k8 = k[8];
+        int lanes = DOUBLES.length();
+        int end = x0 + (x1 - x0) / lanes * lanes;
+        for (int y = y0; y < y1; y++) {
+            int o = y * ow;
+            int i0 = offset + y * stride;
+            int i1 = i0 + stride;
+            int i2 = i1 + stride;
+            int x = x0;
+            for (; x < end; x += lanes) {
+                DoubleVector sum = DoubleVector.zero(DOUBLES);
+                sum = sum.add(load(src, i0 + x).mul(k0));
+                sum = sum.add(load(src, i0 + x + 1).mul(k1));
+                sum = sum.add(load(src, i0 + x + 2).mul(k2));
+                sum = sum.add(load(src, i1 + x).mul(k3));
+                sum = sum.add(load(src, i1 + x + 1).mul(k4));
+                sum = sum.add(load(src, i1 + x + 2).mul(k5));
+                sum = sum.add(load(src, i2 + x).mul(k6));
+                sum = sum.add(load(src, i2 + x + 1).mul(k7));
+                sum = sum.add(load(src, i2 + x + 2).mul(k8));
+                store(sum, dst, o + x);
+            }
+            ConvolutionEngine.convolveTile(src, offset, stride, k, 3, 3, 1, dst, ow, y, y + 1, x, x1);
+        }
+    }
+
+    /**
+     * Direct convolution of a single tile with two filters at once and a stride of 1,
+     * see ConvolutionEngine.convolveTilePair. Every tap is loaded and widened once for
+     * both filters.
+     */
+    public static void convolveTilePair(int[] src, int offset, int stride, int[] taps, int kw, double[] k0, double[] k1,
+                                        int[] dst0, int[] dst1, int ow, int y0, int y1, int x0, int x1) {
+        int n = taps.length;
+        int[] at = new int[n];
+        double[] c0 = new double[n];
+        double[] c1 = new double[n];
+        for (int t = 0; t < n; t++) {
+            at[t] = (taps[t] / kw) * stride + taps[t] % kw;
+            c0[t] = k0[taps[t]];
+            c1[t] = k1[taps[t]];
+        }
+        int lanes = DOUBLES.length();
+        int end = x0 + (x1 - x0) / lanes * lanes;
+        for (int y = y0; y < y1; y++) {
+            int o = y * ow;
+            int i = offset + y * stride;
+            int x = x0;
+            for (; x < end; x += lanes) {
+                DoubleVector sum0 = DoubleVector.zero(DOUBLES);
+                DoubleVector sum1 = DoubleVector.zero(DOUBLES);
+                for (int t = 0; t < n; t++) {
+                    DoubleVector v = load(src, i + x + at[t]);
+                    sum0 = sum0.add(v.mul(c0[t]));
+                    sum1 = sum1.add(v.mul(c1[t]));
+                }
+                store(sum0, dst0, o + x);
+                store(sum1, dst1, o + x);
+            }
+            ConvolutionEngine.convolveTilePair(src, offset, stride, taps, kw, k0, k1, 1, dst0, dst1, ow, y, y + 1, x, x1);
+        }
+    }
+
+    /**
+     * Separable convolution of a single tile with a stride of 1,
+     * see ConvolutionEngine.convolveSeparableTile.
+     */
+    public static void convolveSeparableTile(int[] src, int offset, int stride, double[] col, double[] row,
+                                             int[] dst, int ow, int y0, int y1, int x0, int x1) {
+        int kh = col.length;
+        int kw = row.length;
+        int tw = x1 - x0;
+        int rows = y1 - y0 + kh - 1;
+        int lanes = DOUBLES.length();
+        int end = tw / lanes * lanes;
+        double[] pass = new double[rows * tw];
+        for (int r = 0; r < rows; r++) {
+            int i = offset + (y0 + r) * stride + x0;
+            int o = r * tw;
+            int x = 0;
+            for (; x < end; x += lanes) {
+                DoubleVector sum = DoubleVector.zero(DOUBLES);
+                for (int xx = 0; xx < kw; xx++) {
+                    sum = sum.add(load(src, i + x + xx).mul(row[xx]));
+                }
+                sum.intoArray(pass, o + x);
+            }
+            for (; x < tw; x++) {
+                double sum = 0;
+                for (int xx = 0; xx < kw; xx++) {
+                    sum += src[i + x + xx] * row[xx];
+                }
+                pass[o + x] = sum;
+            }
+        }
+        for (int y = y0; y < y1; y++) {
+            int o = y * ow + x0;
+            int r0 = (y - y0) * tw;
+            int x = 0;
+            for (; x < end; x += lanes) {
+                DoubleVector sum = DoubleVector.zero(DOUBLES);
+                for (int yy = 0; yy < kh; yy++) {
+                    sum = sum.add(DoubleVector.fromArray(DOUBLES, pass, r0 + yy * tw + x).mul(col[yy]));
+                }
+                store(sum, dst, o + x);
+            }
+            for (; x < tw; x++) {
+                double sum = 0;
+                for (int yy = 0; yy < kh; yy++) {
+                    sum += pass[r0 + yy * tw + x] * col[yy];
+                }
+                dst[o + x] = (int) sum;
+            }
+        }
+    }
+
+    /**
+     * Direct convolution of a gathered float window with a stride of 1,
+     * see FloatConvolution.convolveTile.
+     */
+    public static void convolveTile(float[] src, int stride, float[] k, int kw, int kh, float[] dst, int th, int tw) {
+        int lanes = FLOATS.length();
+        int end = tw / lanes * lanes;
+        for (int y = 0; y < th; y++) {
+            int o = y * tw;
+            int x = 0;
+            for (; x < end; x += lanes) {
+                FloatVector sum = FloatVector.zero(FLOATS);
+                int f = 0;
+                for (int yy = 0; yy < kh; yy++) {
+                    int i = (y + yy) * stride + x;
+                    for (int xx = 0; xx < kw; xx++) {
+                        sum = sum.add(FloatVector.fromArray(FLOATS, src, i + xx).mul(k[f++]));
+                    }
+                }
+                sum.intoArray(dst, o + x);
+            }
+            for (; x < tw; x++) {
+                float sum = 0;
+                int f = 0;
+                for (int yy = 0; yy < kh; yy++) {
+                    int i = (y + yy) * stride + x;
+                    for (int xx = 0; xx < kw; xx++) {
+                        sum += src[i + xx] * k[f++];
+                    }
+                }
+                dst[o + x] = sum;
+            }
+        }
+    }
+
+    /**
+     * Separable convolution of a gathered float window with a stride of 1,
+     * see FloatConvolution.convolveSeparableTile.
+     */
+    public static void convolveSeparableTile(float[] src, int stride, float[] col, float[] row, float[] dst, int th, int tw) {
+        int kh = col.length;
+        int kw = row.length;
+        int rows = th + kh - 1;
+        int lanes = FLOATS.length();
+        int end = tw / lanes * lanes;
+        float[] pass = new float[rows * tw];
+        for (int r = 0; r < rows; r++) {
+            int i = r * stride;
+            int o = r * tw;
+            int x = 0;
+            for (; x < end; x += lanes) {
+                FloatVector sum = FloatVector.zero(FLOATS);
+                for (int xx = 0; xx < kw; xx++) {
+                    sum = sum.add(FloatVector.fromArray(FLOATS, src, i + x + xx).mul(row[xx]));
+                }
+                sum.intoArray(pass, o + x);
+            }
+            for (; x < tw; x++) {
+                float sum = 0;
+                for (int xx = 0; xx < kw; xx++) {
+                    sum += src[i + x + xx] * row[xx];
+                }
+                pass[o + x] = sum;
+            }
+        }
+        for (int y = 0; y < th; y++) {
+            int o = y * tw;
+            int x = 0;
+            for (; x < end; x += lanes) {
+                FloatVector sum = FloatVector.zero(FLOATS);
+                for (int yy = 0; yy < kh; yy++) {
+                    sum = sum.add(FloatVector.fromArray(FLOATS, pass, (y + yy) * tw + x).mul(col[yy]));
+                }
+                sum.intoArray(dst, o + x);
+            }
+            for (; x < tw; x++) {
+                float sum = 0;
+                for (int yy = 0; yy < kh; yy++) {
+                    sum += pass[(y + yy) * tw + x] * col[yy];
+                }
+                dst[o + x] = sum;
+            }
+        }
+    }
+
+    /**
+     * Loads lanes ints starting at i as doubles.
+     */
+    private static DoubleVector load(int[] src, int i) {
+        return (DoubleVector) IntVector.fromArray(INTS, src, i).convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+
+    /**
+     * Truncates the sums to ints (like a cast) and stores them at dst[o].
+     */
+    private static void store(DoubleVector sum, int[] dst, int o) {
+        ((IntVector) sum.convertShape(VectorOperators.D2I, INTS, 0)).intoArray(dst, o);
+    }
+}